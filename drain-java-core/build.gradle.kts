@@ -10,6 +10,7 @@
 
 plugins {
     `java-library`
+    `java-test-fixtures`
     `maven-publish`
 }
 
@@ -24,7 +25,28 @@ dependencies {
     testRuntimeOnly(libs.junit.platform.launcher)
 }
 
+// test fixtures are shared with the benchmarks, but not published
+val javaComponent = components["java"] as AdhocComponentWithVariants
+javaComponent.withVariantsFromConfiguration(configurations["testFixturesApiElements"]) { skip() }
+javaComponent.withVariantsFromConfiguration(configurations["testFixturesRuntimeElements"]) { skip() }
+
 tasks {
+    // ./gradlew :drain-java-core:syntheticLog -Plines=100000000 -Ptemplates=10000 -Pseed=42
+    register<JavaExec>("syntheticLog") {
+        description = "Generates a synthetic log file and its ground truth template ids"
+        classpath = sourceSets.testFixtures.get().runtimeClasspath
+        mainClass.set("io.github.bric3.drain.synthetic.SyntheticLogs")
+        val output = layout.buildDirectory.dir("synthetic").get().asFile
+        doFirst { output.mkdirs() }
+        args(
+            output.resolve("synthetic.log"),
+            findProperty("lines") ?: 1_000_000,
+            findProperty("templates") ?: 1_000,
+            findProperty("seed") ?: 42,
+            output.resolve("synthetic.truth"),
+        )
+    }
+
     processTestResources {
         dependsOn(rootProject.tasks.getByPath("unpackFile"))
     }
@@ -0,0 +1,67 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encoding shared by the binary formats, {@link DrainSummary} and
+ * {@link DrainBinarySerialization}.
+ * <p>
+ * Integers are variable length encoded, 7 bits per byte, strings are
+ * length prefixed UTF-8.
+ */
+final class BinaryFormat {
+    private BinaryFormat() {
+    }
+
+    static void writeVarInt(@Nonnull DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @param format The name of the format, for error messages
+     * @return a positive integer
+     */
+    static int readVarInt(@Nonnull DataInput in, @Nonnull String format) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("Corrupted " + format + ", negative length or count");
+                }
+                return value;
+            }
+        }
+        throw new IOException("Corrupted " + format + ", malformed integer");
+    }
+
+    static void writeString(@Nonnull DataOutput out, @Nonnull String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(@Nonnull DataInput in, @Nonnull String format) throws IOException {
+        byte[] bytes = new byte[readVarInt(in, format)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Clusters ordered from the most recently matched to the least recently matched.
+ * <p>
+ * This is an intrusive doubly linked list through the clusters, so adding,
+ * touching and evicting a cluster are O(1) and don't allocate.
+ */
+class ClusterLru {
+    private InternalLogCluster head;
+    private InternalLogCluster tail;
+
+    /**
+     * Adds a new cluster as the most recently matched.
+     */
+    void add(@Nonnull InternalLogCluster cluster) {
+        cluster.lruPrevious = null;
+        cluster.lruNext = head;
+        if (head == null) {
+            tail = cluster;
+        } else {
+            head.lruPrevious = cluster;
+        }
+        head = cluster;
+    }
+
+    /**
+     * Moves a cluster of this list to the most recently matched position.
+     */
+    void touch(@Nonnull InternalLogCluster cluster) {
+        if (cluster != head) {
+            unlink(cluster);
+            add(cluster);
+        }
+    }
+
+    /**
+     * @return the least recently matched cluster, removed from this list, or null if empty
+     */
+    @Nullable
+    InternalLogCluster removeEldest() {
+        InternalLogCluster eldest = tail;
+        if (eldest != null) {
+            unlink(eldest);
+        }
+        return eldest;
+    }
+
+    private void unlink(InternalLogCluster cluster) {
+        InternalLogCluster previous = cluster.lruPrevious;
+        InternalLogCluster next = cluster.lruNext;
+        if (previous == null) {
+            head = next;
+        } else {
+            previous.lruNext = next;
+        }
+        if (next == null) {
+            tail = previous;
+        } else {
+            next.lruPrevious = previous;
+        }
+        cluster.lruPrevious = null;
+        cluster.lruNext = null;
+    }
+}
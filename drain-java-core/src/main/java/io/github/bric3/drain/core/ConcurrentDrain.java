@@ -0,0 +1,166 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread safe Drain.
+ * <p>
+ * The first level of the prefix tree groups log messages by token count,
+ * these subtrees are independent, so they are guarded by striped locks.
+ * A log message that matches a cluster without changing its template is
+ * recorded under an optimistic read, so matching messages don't block
+ * each other. Only the creation of a cluster or the generalization
+ * of a template takes the write lock of the subtree.
+ *
+ * <p>
+ * Lock order is: subtree lock, then the token dictionary, the root node,
+ * or the clusters list.
+ */
+class ConcurrentDrain extends Drain {
+    private static final int LOCK_STRIPES = 64;
+
+    private final StampedLock[] locks;
+
+    ConcurrentDrain(int depth,
+                    double similarityThreshold,
+                    int maxChildPerNode,
+                    String additionalDelimiters) {
+        super(depth,
+              similarityThreshold,
+              maxChildPerNode,
+              additionalDelimiters,
+              new ConcurrentTokenDictionary(),
+              0,
+              0);
+        locks = new StampedLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    @Override
+    ParseResult parseTokenized(@Nonnull ParseContext context, @Nonnull CharSequence message, int hash) {
+        StampedLock lock = lockOf(context.tokens.count());
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            int[] contentTokenIds = tokenIds(context);
+            InternalLogCluster matchCluster = treeSearch(contentTokenIds);
+            if (matchCluster != null
+                && matchCluster.isTemplateOf(contentTokenIds)
+                && lock.validate(stamp)) {
+                // templates are only generalized, the message will still
+                // match the template after a concurrent update
+                matchCluster.newSighting();
+                return context.result.set(matchCluster, ParseResult.Status.UNCHANGED);
+            }
+        }
+
+        stamp = lock.writeLock();
+        try {
+            return parseTokens(context);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public LogCluster searchLogMessage(@Nonnull CharSequence message) {
+        ParseContext context = ParseContext.current();
+        int tokensCount = tokenizer.tokenize(message, context.tokens);
+        StampedLock lock = lockOf(tokensCount);
+
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            InternalLogCluster matchCluster = treeSearch(tokenIds(context));
+            if (lock.validate(stamp)) {
+                return matchCluster;
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return treeSearch(tokenIds(context));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    void mergeCluster(@Nonnull List<String> templateTokens, int sightings) {
+        StampedLock lock = lockOf(templateTokens.size());
+        long stamp = lock.writeLock();
+        try {
+            super.mergeCluster(templateTokens, sightings);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    InternalLogCluster newCluster(@Nonnull UUID clusterId, @Nonnull int[] templateTokens) {
+        return new ConcurrentLogCluster(dictionary, clusterId, templateTokens);
+    }
+
+    @Override
+    void addCluster(@Nonnull InternalLogCluster cluster) {
+        synchronized (clusters) {
+            super.addCluster(cluster);
+        }
+    }
+
+    @Override
+    Node getOrCreateTokenCountNode(int tokensCount) {
+        // the root children are copied on write, lookups don't need the lock
+        synchronized (root) {
+            return super.getOrCreateTokenCountNode(tokensCount);
+        }
+    }
+
+    @Override
+    public List<LogCluster> clusters() {
+        synchronized (clusters) {
+            return Collections.unmodifiableList(new ArrayList<>(clusters));
+        }
+    }
+
+    @Override
+    List<InternalLogCluster> internalClusters() {
+        synchronized (clusters) {
+            return new ArrayList<>(clusters);
+        }
+    }
+
+    @Override
+    public FrozenDrain freeze() {
+        long[] stamps = new long[locks.length];
+        for (int i = 0; i < locks.length; i++) {
+            stamps[i] = locks[i].writeLock();
+        }
+        try {
+            return super.freeze();
+        } finally {
+            for (int i = 0; i < locks.length; i++) {
+                locks[i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    private StampedLock lockOf(int tokensCount) {
+        return locks[tokensCount & (LOCK_STRIPES - 1)];
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Log cluster whose sightings can be recorded concurrently.
+ * <p>
+ * Template updates are still expected to be exclusive.
+ */
+class ConcurrentLogCluster extends InternalLogCluster {
+    private final LongAdder sightings = new LongAdder();
+
+    ConcurrentLogCluster(@Nonnull TokenDictionary dictionary,
+                         @Nonnull UUID clusterId,
+                         @Nonnull int[] logTemplateTokens) {
+        super(dictionary, clusterId, logTemplateTokens);
+        sightings.increment();
+    }
+
+    @Override
+    void newSighting() {
+        sightings.increment();
+    }
+
+    @Override
+    void addSightings(int count) {
+        sightings.add(count);
+    }
+
+    @Override
+    public int sightings() {
+        return (int) sightings.sum();
+    }
+}
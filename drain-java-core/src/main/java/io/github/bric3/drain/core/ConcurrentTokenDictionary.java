@@ -0,0 +1,115 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread safe token dictionary.
+ * <p>
+ * Interning is exclusive, lookups are optimistic reads that only
+ * fall back to a read lock when a token was interned concurrently.
+ */
+class ConcurrentTokenDictionary extends TokenDictionary {
+    private final StampedLock lock = new StampedLock();
+
+    @Override
+    int idOf(@Nonnull CharSequence content, int start, int end) {
+        long stamp = lock.tryOptimisticRead();
+        int id = super.idOf(content, start, end);
+        if (lock.validate(stamp)) {
+            return id;
+        }
+        stamp = lock.readLock();
+        try {
+            return super.idOf(content, start, end);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    void idsOf(@Nonnull Tokenizer.Tokens tokens, @Nonnull int[] ids) {
+        long stamp = lock.tryOptimisticRead();
+        super.idsOf(tokens, ids);
+        if (lock.validate(stamp)) {
+            return;
+        }
+        stamp = lock.readLock();
+        try {
+            super.idsOf(tokens, ids);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    int intern(@Nonnull CharSequence content, int start, int end) {
+        long stamp = lock.writeLock();
+        try {
+            return super.intern(content, start, end);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    String token(int id) {
+        long stamp = lock.tryOptimisticRead();
+        String token = super.token(id);
+        if (token != null && lock.validate(stamp)) {
+            return token;
+        }
+        stamp = lock.readLock();
+        try {
+            return super.token(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    boolean hasNumber(int id) {
+        long stamp = lock.tryOptimisticRead();
+        boolean hasNumber = super.hasNumber(id);
+        if (lock.validate(stamp)) {
+            return hasNumber;
+        }
+        stamp = lock.readLock();
+        try {
+            return super.hasNumber(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    TokenDictionary copy() {
+        long stamp = lock.readLock();
+        try {
+            return super.copy();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return super.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * Drain log pattern miner.
@@ -45,7 +46,8 @@ import java.util.List;
  * </code></pre>
  *
  * <p>
- *     Note this implementation is not thread safe.
+ *     Note this implementation is not thread safe, unless built
+ *     with {@link DrainBuilder#concurrent(boolean)}.
  *
  * @author brice.dutheil@gmail.com
  * @modifiedBy david.ohana@ibm.com, moshikh@il.ibm.com
@@ -83,23 +85,66 @@ public class Drain {
      */
     final String delimiters;
 
+    final Tokenizer tokenizer;
+
     /**
      * All log clusters.
      */
-    private final List<InternalLogCluster> clusters;
+    final List<InternalLogCluster> clusters;
+
+    /**
+     * Interned tokens of the templates.
+     */
+    final TokenDictionary dictionary;
+
+    final Node root;
+
+    /**
+     * Cache of the clusters matched by exact log messages, null if disabled.
+     */
+    @Nullable
+    private final MessageCache messageCache;
 
-    private final Node root;
+    /**
+     * Maximum number of clusters, 0 if unbounded.
+     */
+    final int maxClusters;
+
+    /**
+     * Recency of the clusters, null if the number of clusters is unbounded.
+     */
+    @Nullable
+    private final ClusterLru clusterLru;
+
+    /**
+     * Evictions since the dictionary was last compacted.
+     */
+    private int evictions;
 
-    private Drain(int depth,
-                  double similarityThreshold,
-                  int maxChildPerNode,
-                  String additionalDelimiters) {
+    /**
+     * Journal of the changes, null unless attached by {@link DrainJournal}.
+     */
+    @Nullable
+    DrainJournal journal;
+
+    Drain(int depth,
+          double similarityThreshold,
+          int maxChildPerNode,
+          String additionalDelimiters,
+          TokenDictionary dictionary,
+          int messageCacheSize,
+          int maxClusters) {
         this.depth = depth - ROOT_AND_LEAF_LEVELS;
         this.similarityThreshold = similarityThreshold;
         this.maxChildPerNode = maxChildPerNode;
         this.delimiters = " " + additionalDelimiters;
-        root = new Node("(ROOT)", 0);
+        this.tokenizer = new Tokenizer(delimiters);
+        root = new Node(Node.ROOT_KEY, 0);
         clusters = new ArrayList<>();
+        this.dictionary = dictionary;
+        this.messageCache = messageCacheSize > 0 ? new MessageCache(messageCacheSize) : null;
+        this.maxClusters = maxClusters;
+        this.clusterLru = maxClusters > 0 ? new ClusterLru() : null;
     }
 
     Drain(DrainState state) {
@@ -107,8 +152,54 @@ public class Drain {
         this.similarityThreshold = state.similarityThreshold;
         this.maxChildPerNode = state.maxChildPerNode;
         this.delimiters = state.delimiters;
+        this.tokenizer = new Tokenizer(delimiters);
         this.clusters = state.clusters;
+        for (int i = 0; i < clusters.size(); i++) {
+            clusters.get(i).index = i;
+        }
+        this.dictionary = state.dictionary;
         this.root = state.prefixTree;
+        linkLeaves(root);
+        this.messageCache = null;
+        this.maxClusters = 0;
+        this.clusterLru = null;
+    }
+
+    /**
+     * Same model, with a message cache and a max number of clusters.
+     * <p>
+     * The recency of the clusters is not persisted, the clusters of
+     * the model start ordered by their index, the last is the most recent.
+     */
+    Drain(Drain model, int messageCacheSize, int maxClusters) {
+        this.depth = model.depth;
+        this.similarityThreshold = model.similarityThreshold;
+        this.maxChildPerNode = model.maxChildPerNode;
+        this.delimiters = model.delimiters;
+        this.tokenizer = model.tokenizer;
+        this.clusters = model.clusters;
+        this.dictionary = model.dictionary;
+        this.root = model.root;
+        this.messageCache = messageCacheSize > 0 ? new MessageCache(messageCacheSize) : null;
+        this.maxClusters = maxClusters;
+        this.clusterLru = maxClusters > 0 ? new ClusterLru() : null;
+        if (clusterLru != null) {
+            for (InternalLogCluster cluster : clusters) {
+                clusterLru.add(cluster);
+            }
+        }
+    }
+
+    private static void linkLeaves(@Nonnull Node node) {
+        InternalLogCluster[] nodeClusters = node.clusters();
+        for (int i = 0; i < node.clustersCount(); i++) {
+            nodeClusters[i].leaf = node;
+        }
+        for (Node child : node.childrenTable()) {
+            if (child != null) {
+                linkLeaves(child);
+            }
+        }
     }
 
     /**
@@ -116,23 +207,338 @@ public class Drain {
      *
      * Classify the log message to a cluster.
      *
+     * <p>
+     * When the message matches an existing cluster this method
+     * doesn't allocate.
+     *
      * @param message The log message content
+     * @return the outcome, a handle reused by the next parsed message on this thread
      */
-    public void parseLogMessage(@Nonnull String message) {
+    public ParseResult parseLogMessage(@Nonnull CharSequence message) {
+        ParseContext context = ParseContext.current();
+        int hash = messageCache != null ? MessageCache.hash(message) : 0;
+        ParseResult cachedResult = cachedResult(context, message, hash);
+        if (cachedResult != null) {
+            return cachedResult;
+        }
+
         // sprint message by delimiter / whitespaces
-        List<String> contentTokens = Tokenizer.tokenize(message, delimiters);
+        tokenizer.tokenize(message, context.tokens);
+
+        return parseTokenized(context, message, hash);
+    }
+
+    /**
+     * Parse a log message tokenized with {@link #tokenize(CharSequence, TokenizedMessage)}.
+     *
+     * <p>
+     * Same as {@link #parseLogMessage(CharSequence)}, without the tokenization,
+     * which may have been done ahead on another thread.
+     *
+     * @param message The tokenized log message, tokenized by this instance
+     * @return the outcome, a handle reused by the next parsed message on this thread
+     */
+    public ParseResult parseLogMessage(@Nonnull TokenizedMessage message) {
+        ParseContext context = ParseContext.current();
+        ParseResult cachedResult = cachedResult(context, message.message(), message.hash);
+        if (cachedResult != null) {
+            return cachedResult;
+        }
+
+        context.tokens.copyFrom(message.tokens);
+
+        return parseTokenized(context, message.message(), message.hash);
+    }
+
+    /**
+     * Tokenize a log message, to be parsed later by {@link #parseLogMessage(TokenizedMessage)}.
+     *
+     * <p>
+     * This only reads the configuration of this instance, so messages can be
+     * tokenized on any thread, even concurrently with the parsing of other
+     * messages.
+     *
+     * @param message   The log message content, retained until the message is parsed
+     * @param tokenized The reusable holder of the tokens
+     * @return the tokenized holder
+     */
+    public TokenizedMessage tokenize(@Nonnull CharSequence message, @Nonnull TokenizedMessage tokenized) {
+        tokenizer.tokenize(message, tokenized.tokens);
+        tokenized.hash = messageCache != null ? MessageCache.hash(message) : 0;
+        return tokenized;
+    }
+
+    /**
+     * @return the outcome if the message cache knows the message, otherwise {@code null}
+     */
+    @Nullable
+    private ParseResult cachedResult(@Nonnull ParseContext context, @Nonnull CharSequence message, int hash) {
+        MessageCache messageCache = this.messageCache;
+        if (messageCache == null) {
+            return null;
+        }
+        InternalLogCluster cachedCluster = messageCache.get(message, hash);
+        if (cachedCluster == null) {
+            return null;
+        }
+        cachedCluster.newSighting();
+        if (clusterLru != null) {
+            clusterLru.touch(cachedCluster);
+        }
+        if (journal != null) {
+            journal.changed(cachedCluster);
+        }
+        return context.result.set(cachedCluster, ParseResult.Status.UNCHANGED);
+    }
+
+    /**
+     * Classify the log message tokenized in the parse context, and cache the outcome.
+     *
+     * @param context The parse context holding the tokenized log message
+     * @param message The log message content
+     * @param hash    The hash of the message, if the message cache is enabled
+     * @return the outcome, in the parse context
+     */
+    @Nonnull
+    ParseResult parseTokenized(@Nonnull ParseContext context, @Nonnull CharSequence message, int hash) {
+        ParseResult result = parseTokens(context);
+
+        // only cache a match that left the subtree untouched, the same
+        // message would then take the same path to the same cluster
+        if (messageCache != null && result.status() == ParseResult.Status.UNCHANGED) {
+            messageCache.put(message, hash, result.internalCluster(), root.get(context.tokens.count()));
+        }
+        return result;
+    }
+
+    /**
+     * Classify the tokens of the parse context to a cluster.
+     *
+     * @param context The parse context holding the tokenized log message
+     * @return the outcome, in the parse context
+     */
+    @Nonnull
+    ParseResult parseTokens(@Nonnull ParseContext context) {
+        int[] contentTokenIds = tokenIds(context);
 
         // Search the prefix tree
-        InternalLogCluster matchCluster = treeSearch(contentTokens);
+        InternalLogCluster matchCluster = treeSearch(contentTokenIds);
 
+        ParseResult.Status status;
         if (matchCluster == null) {
             // create cluster if it doesn't exists, using log content tokens as template tokens
-            matchCluster = new InternalLogCluster(contentTokens);
-            clusters.add(matchCluster);
-            addLogClusterToPrefixTree(matchCluster);
+            matchCluster = createCluster(dictionary.intern(context.tokens));
+            status = ParseResult.Status.CREATED;
         } else {
             // add the log to an existing cluster
-            matchCluster.newSighting(contentTokens);
+            if (matchCluster.newSighting(contentTokenIds)) {
+                root.get(contentTokenIds.length).incrementVersion();
+                status = ParseResult.Status.UPDATED;
+            } else {
+                status = ParseResult.Status.UNCHANGED;
+            }
+            if (clusterLru != null) {
+                clusterLru.touch(matchCluster);
+            }
+            if (journal != null) {
+                journal.changed(matchCluster);
+            }
+        }
+        return context.result.set(matchCluster, status);
+    }
+
+    /**
+     * Merge the clusters of another model into this one.
+     *
+     * <p>
+     * Each template of the other model is classified like a log message,
+     * it is folded in the most similar cluster whose template is generalized
+     * if needed, or it becomes a new cluster. Sightings are added up.
+     * Merging the same models in the same order gives the same templates.
+     *
+     * <p>
+     * The other model is left untouched, it should have been built with
+     * the same delimiters, otherwise its templates may never match.
+     *
+     * @param other The model to merge in this one
+     */
+    public void merge(@Nonnull Drain other) {
+        if (other == this) {
+            throw new IllegalArgumentException("Cannot merge a model in itself");
+        }
+        for (InternalLogCluster otherCluster : other.internalClusters()) {
+            mergeCluster(other.dictionary.tokens(otherCluster.internalTokens()),
+                         otherCluster.sightings());
+        }
+    }
+
+    /**
+     * Merge the templates of a summary into this model.
+     *
+     * <p>
+     * Same as {@link #merge(Drain)}, with the summary of a model that
+     * may come from another process.
+     *
+     * @param summary The summary to merge in this model
+     */
+    public void merge(@Nonnull DrainSummary summary) {
+        for (int i = 0; i < summary.size(); i++) {
+            mergeCluster(summary.template(i), summary.sightings(i));
+        }
+    }
+
+    /**
+     * Summarize the templates of this model and their sightings.
+     *
+     * @return a summary that can be merged in another model.
+     * @see #merge(DrainSummary)
+     */
+    public DrainSummary summary() {
+        return DrainSummary.of(this);
+    }
+
+    /**
+     * Fold a template of another model in this one.
+     *
+     * @param templateTokens The template tokens, params are {@link #PARAM_MARKER}
+     * @param sightings      The sightings of the template
+     */
+    void mergeCluster(@Nonnull List<String> templateTokens, int sightings) {
+        int[] templateTokenIds = new int[templateTokens.size()];
+        for (int i = 0; i < templateTokenIds.length; i++) {
+            templateTokenIds[i] = dictionary.idOf(templateTokens.get(i));
+        }
+
+        InternalLogCluster matchCluster = treeSearch(templateTokenIds);
+        if (matchCluster == null) {
+            matchCluster = createCluster(dictionary.intern(templateTokens));
+            matchCluster.addSightings(sightings - 1);
+        } else {
+            if (matchCluster.merge(templateTokenIds, sightings)) {
+                root.get(templateTokenIds.length).incrementVersion();
+            }
+            if (clusterLru != null) {
+                clusterLru.touch(matchCluster);
+            }
+        }
+        if (journal != null) {
+            journal.changed(matchCluster);
+        }
+    }
+
+    InternalLogCluster createCluster(@Nonnull int[] templateTokens) {
+        return createCluster(UUID.randomUUID(), templateTokens);
+    }
+
+    InternalLogCluster createCluster(@Nonnull UUID clusterId, @Nonnull int[] templateTokens) {
+        InternalLogCluster cluster = newCluster(clusterId, templateTokens);
+        addCluster(cluster);
+        addLogClusterToPrefixTree(cluster);
+        if (journal != null) {
+            journal.created(cluster);
+        }
+        if (clusterLru != null) {
+            clusterLru.add(cluster);
+            if (clusters.size() > maxClusters) {
+                evictEldest();
+            }
+        }
+        return cluster;
+    }
+
+    /**
+     * Evicts the least recently matched clusters over the max number of clusters.
+     */
+    void evictOverMaxClusters() {
+        if (clusterLru != null) {
+            while (clusters.size() > maxClusters) {
+                evictEldest();
+            }
+        }
+    }
+
+    /**
+     * Evicts the least recently matched cluster, then compacts the dictionary
+     * once the evictions reach the max number of clusters. So the dictionary
+     * stays proportional to the live clusters, for an amortized cost of a few
+     * templates per eviction.
+     */
+    private void evictEldest() {
+        evict(clusterLru.removeEldest());
+        if (++evictions >= maxClusters) {
+            evictions = 0;
+            compactDictionary();
+        }
+    }
+
+    /**
+     * Drops the tokens that are neither in a template nor a key of the prefix
+     * tree from the dictionary, then remaps the token ids of both.
+     */
+    void compactDictionary() {
+        boolean[] live = new boolean[dictionary.size()];
+        live[TokenDictionary.PARAM_ID] = true;
+        for (InternalLogCluster cluster : clusters) {
+            for (int token : cluster.internalTokens()) {
+                live[token] = true;
+            }
+        }
+        markKeys(root, live);
+
+        int[] ids = dictionary.compact(live);
+        for (InternalLogCluster cluster : clusters) {
+            cluster.remapTokens(ids);
+        }
+        root.remapKeys(ids);
+    }
+
+    private static void markKeys(@Nonnull Node node, @Nonnull boolean[] live) {
+        for (Node child : node.childrenTable()) {
+            if (child != null) {
+                // token counts at depth 1, token ids deeper
+                if (child.depth > 1) {
+                    live[child.key] = true;
+                }
+                markKeys(child, live);
+            }
+        }
+    }
+
+    InternalLogCluster newCluster(@Nonnull UUID clusterId, @Nonnull int[] templateTokens) {
+        return new InternalLogCluster(dictionary, clusterId, templateTokens);
+    }
+
+    void addCluster(@Nonnull InternalLogCluster cluster) {
+        cluster.index = clusters.size();
+        clusters.add(cluster);
+    }
+
+    /**
+     * Removes the cluster from the clusters and from its leaf node,
+     * then prunes the nodes left empty.
+     *
+     * <p>
+     * The last cluster takes the place of the evicted one in the
+     * clusters list, so the eviction doesn't shift the list.
+     */
+    void evict(@Nonnull InternalLogCluster cluster) {
+        if (journal != null) {
+            journal.evicted(cluster);
+        }
+        InternalLogCluster last = clusters.remove(clusters.size() - 1);
+        if (last != cluster) {
+            clusters.set(cluster.index, last);
+            last.index = cluster.index;
+        }
+
+        root.get(cluster.internalTokens().length).incrementVersion();
+        Node node = cluster.leaf;
+        node.removeCluster(cluster);
+        cluster.leaf = null;
+        while (node != root && node.isEmpty()) {
+            Node parent = node.parent();
+            parent.removeChild(node.key);
+            node = parent;
         }
     }
 
@@ -142,21 +548,61 @@ public class Drain {
      * @param message The log message content
      * @return The matching log cluster or null if no match
      */
-    public LogCluster searchLogMessage(@Nonnull String message) {
+    public LogCluster searchLogMessage(@Nonnull CharSequence message) {
+        MessageCache messageCache = this.messageCache;
+        int hash = 0;
+        if (messageCache != null) {
+            hash = MessageCache.hash(message);
+            InternalLogCluster cachedCluster = messageCache.get(message, hash);
+            if (cachedCluster != null) {
+                return cachedCluster;
+            }
+        }
+
         // sprint message by delimiter / whitespaces
-        List<String> contentTokens = Tokenizer.tokenize(message, delimiters);
+        ParseContext context = ParseContext.current();
+        int tokensCount = tokenizer.tokenize(message, context.tokens);
 
         // Search the prefix tree
-        LogCluster matchCluster = treeSearch(contentTokens);
+        int[] tokenIds = tokenIds(context);
+        InternalLogCluster matchCluster = treeSearch(tokenIds);
+        // only cache a template of the message, parsing a message that is
+        // merely similar would generalize the template instead
+        if (messageCache != null && matchCluster != null && matchCluster.isTemplateOf(tokenIds)) {
+            messageCache.put(message, hash, matchCluster, root.get(tokensCount));
+        }
         return matchCluster;
     }
 
+    /**
+     * Ratio of the log messages found in the message cache.
+     *
+     * <p>
+     * Useful to size the cache with {@link DrainBuilder#messageCacheSize(int)}.
+     *
+     * @return the hit ratio between 0 and 1, or 0 if the cache is disabled.
+     */
+    public double messageCacheHitRatio() {
+        return messageCache == null ? 0d : messageCache.hitRatio();
+    }
+
+    /**
+     * Lookup the token ids of the tokenized message.
+     *
+     * @return the token ids, in a buffer of the parse context
+     */
+    int[] tokenIds(@Nonnull ParseContext context) {
+        int[] tokenIds = context.tokenIds(context.tokens.count());
+        dictionary.idsOf(context.tokens, tokenIds);
+        return tokenIds;
+    }
+
 
-    private @Nullable
-    InternalLogCluster treeSearch(@Nonnull List<String> logTokens) {
+    @Nullable
+    InternalLogCluster treeSearch(@Nonnull int[] logTokens) {
 
         // at first level, children are grouped by token (word) count
-        int tokensCount = logTokens.size();
+        int tokensCount = logTokens.length;
         Node node = this.root.get(tokensCount);
 
         // the prefix tree is empty
@@ -172,7 +618,7 @@ public class Drain {
         // find the leaf node for this log
         // a path of nodes matching the first N tokens (N=tree depth)
         int currentDepth = 1;
-        for (String token : logTokens) {
+        for (int token : logTokens) {
             // if max depth reached or last parseable token, bail out
             boolean atMaxDepth = currentDepth == this.depth;
             boolean isLastToken = currentDepth == tokensCount;
@@ -184,7 +630,7 @@ public class Drain {
             Node nextNode = node.get(token);
             // if null try get from generic pattern
             if (nextNode == null) {
-                nextNode = node.get(PARAM_MARKER);
+                nextNode = node.get(TokenDictionary.PARAM_ID);
             }
             // if the node don't exists yet, the cluster don't exists yet
             if (nextNode == null) {
@@ -197,116 +643,142 @@ public class Drain {
         return fastMatch(node.clusters(), logTokens);
     }
 
-    private @Nullable
-    InternalLogCluster fastMatch(@Nonnull List<InternalLogCluster> clusters,
-                                 @Nonnull List<String> logTokens) {
-        InternalLogCluster matchedCluster = null;
-
-        double maxSimilarity = -1;
-        int maxParamCount = -1;
+    /**
+     * Find the most similar cluster, on par the one with the most params.
+     *
+     * <p>
+     * All templates of a leaf have the same length, so similarities are
+     * compared as similar token counts. A candidate is abandoned as soon
+     * as its remaining tokens can't beat the current best, or reach the
+     * similarity threshold, and the search stops on a perfect match.
+     */
+    @Nullable
+    InternalLogCluster fastMatch(@Nonnull InternalLogCluster[] clusters,
+                                 @Nonnull int[] logTokens) {
+        int maxSimilar = minSimilarTokens(logTokens.length) - 1;
+        int maxParamCount = Integer.MAX_VALUE;
         InternalLogCluster maxCluster = null;
 
         for (InternalLogCluster cluster : clusters) {
-            SeqDistance seqDistance = computeSeqDistance(cluster.internalTokens(), logTokens);
-            if (seqDistance.similarity > maxSimilarity
-                || (seqDistance.similarity == maxSimilarity
-                    && seqDistance.paramCount > maxParamCount)) {
-                maxSimilarity = seqDistance.similarity;
-                maxParamCount = seqDistance.paramCount;
+            if (cluster == null) {
+                // free trailing slots left by evictions
+                break;
+            }
+            int paramCount = cluster.paramCount();
+            // to win the candidate must be more similar, or as similar with more params
+            int minSimilar = paramCount > maxParamCount ? maxSimilar : maxSimilar + 1;
+            int similar = similarTokens(cluster.internalTokens(), logTokens, paramCount, minSimilar);
+            if (similar >= minSimilar) {
+                maxSimilar = similar;
+                maxParamCount = paramCount;
                 maxCluster = cluster;
+                if (similar == logTokens.length) {
+                    break;
+                }
             }
         }
 
-        if (maxSimilarity >= this.similarityThreshold) {
-            matchedCluster = maxCluster;
-        }
-
-        return matchedCluster;
+        return maxCluster;
     }
 
-    private static class SeqDistance {
-
-        final double similarity;
-        final int paramCount;
-        SeqDistance(double similarity, int paramCount) {
-            this.similarity = similarity;
-            this.paramCount = paramCount;
+    /**
+     * @return the minimum similar token count to reach the similarity threshold
+     */
+    int minSimilarTokens(int tokensCount) {
+        int minSimilar = (int) Math.ceil(similarityThreshold * tokensCount);
+        // same rounding as comparing the similarity to the threshold
+        while (minSimilar > 0 && (double) (minSimilar - 1) / tokensCount >= similarityThreshold) {
+            minSimilar--;
         }
-
+        while ((double) minSimilar / tokensCount < similarityThreshold) {
+            minSimilar++;
+        }
+        return minSimilar;
     }
 
-    static @Nonnull
-    SeqDistance computeSeqDistance(@Nonnull List<String> templateTokens,
-                                   @Nonnull List<String> logTokens) {
-        assert templateTokens.size() == logTokens.size();
+    /**
+     * Count the template tokens equal to the log tokens, or give up
+     * once the count can't reach {@code minSimilar}.
+     *
+     * @param paramCount The number of param markers in the template
+     * @param minSimilar The minimum similar token count of interest
+     * @return the similar token count, or -1 if below {@code minSimilar}
+     */
+    static int similarTokens(@Nonnull int[] templateTokens,
+                             @Nonnull int[] logTokens,
+                             int paramCount,
+                             int minSimilar) {
+        assert templateTokens.length == logTokens.length;
 
+        // the similar token count can't exceed the non param tokens
+        int reachable = templateTokens.length - paramCount;
+        if (reachable < minSimilar) {
+            return -1;
+        }
         int similarTokens = 0;
-        int paramCount = 0;
-
-        for (int i = 0, tokensSize = templateTokens.size(); i < tokensSize; i++) {
-            String token = templateTokens.get(i);
-            String currentToken = logTokens.get(i);
-
-            if (token.equals(PARAM_MARKER)) {
-                paramCount++;
+        for (int i = 0, tokensSize = templateTokens.length; i < tokensSize; i++) {
+            int token = templateTokens[i];
+            if (token == TokenDictionary.PARAM_ID) {
                 continue;
             }
-            if (token.equals(currentToken)) {
+            if (token == logTokens[i]) {
                 similarTokens++;
+            } else if (--reachable < minSimilar) {
+                return -1;
             }
         }
-
-        double similarity = (double) similarTokens / templateTokens.size();
-        return new SeqDistance(similarity, paramCount);
+        return similarTokens;
     }
 
     private void addLogClusterToPrefixTree(@Nonnull InternalLogCluster newLogCluster) {
-        int tokensCount = newLogCluster.internalTokens().size();
+        int tokensCount = newLogCluster.internalTokens().length;
 
-        Node node = this.root.getOrCreateChild(tokensCount);
+        Node node = getOrCreateTokenCountNode(tokensCount);
+        node.incrementVersion();
 
         // handle case of empty log message
         if (tokensCount == 0) {
             node.appendCluster(newLogCluster);
+            newLogCluster.leaf = node;
             return;
         }
 
 
         int currentDepth = 1;
-        for (String token : newLogCluster.internalTokens()) {
+        for (int token : newLogCluster.internalTokens()) {
 
             // Add current log cluster to the leaf node
             boolean atMaxDepth = currentDepth == this.depth;
             boolean isLastToken = currentDepth == tokensCount;
             if (atMaxDepth || isLastToken) {
                 node.appendCluster(newLogCluster);
+                newLogCluster.leaf = node;
                 break;
             }
 
             // If token not matched in this layer of existing tree.
             // TODO see improvements are possible
             if (!node.contains(token)) {
-                if (!hasNumber(token)) {
-                    if (node.contains(PARAM_MARKER)) {
+                if (!dictionary.hasNumber(token)) {
+                    if (node.contains(TokenDictionary.PARAM_ID)) {
                         if (node.childrenCount() < maxChildPerNode) {
                             node = node.getOrCreateChild(token);
                         } else {
-                            node = node.get(PARAM_MARKER);
+                            node = node.get(TokenDictionary.PARAM_ID);
                         }
                     } else {
-                        if (node.childrenCount() + 1 <= maxChildPerNode) {
+                        if (node.childrenCount() + 1 < maxChildPerNode) {
                             node = node.getOrCreateChild(token);
-                        } else if (node.childrenCount() + 1 == maxChildPerNode) {
-                            node = node.getOrCreateChild(PARAM_MARKER);
                         } else {
-                            node = node.get(PARAM_MARKER);
+                            // the last child is reserved to the param marker
+                            node = node.getOrCreateChild(TokenDictionary.PARAM_ID);
                         }
                     }
                 } else {
-                    if (!node.contains(PARAM_MARKER)) {
-                        node = node.getOrCreateChild(PARAM_MARKER);
+                    if (!node.contains(TokenDictionary.PARAM_ID)) {
+                        node = node.getOrCreateChild(TokenDictionary.PARAM_ID);
                     } else {
-                        node = node.get(PARAM_MARKER);
+                        node = node.get(TokenDictionary.PARAM_ID);
                     }
                 }
             } else {
@@ -316,9 +788,11 @@ public class Drain {
         }
     }
 
-
-    private static boolean hasNumber(@Nonnull String s) {
-        return s.chars().anyMatch(Character::isDigit);
+    /**
+     * @return the first level node grouping the templates of this token count.
+     */
+    Node getOrCreateTokenCountNode(int tokensCount) {
+        return root.getOrCreateChild(tokensCount);
     }
 
     /**
@@ -330,10 +804,32 @@ public class Drain {
         return Collections.unmodifiableList(new ArrayList<>(clusters));
     }
 
+    List<InternalLogCluster> internalClusters() {
+        return clusters;
+    }
+
+    /**
+     * Compile a read-only snapshot of this model.
+     *
+     * <p>
+     * The returned instance doesn't see the clusters created or updated
+     * after this call, but it can be shared by any number of threads
+     * without locking, and it is faster to search.
+     *
+     * @return a frozen copy of this model.
+     */
+    public FrozenDrain freeze() {
+        return new FrozenDrain(this);
+    }
+
     Node prefixTree() {
         return root;
     }
 
+    TokenDictionary dictionary() {
+        return dictionary;
+    }
+
 
     /**
      * Drain builder.
@@ -360,6 +856,9 @@ public class Drain {
         private String additionalDelimiters = "";
         private double similarityThreshold = 0.4d;
         private int maxChildPerNode = 100;
+        private boolean concurrent = false;
+        private int messageCacheSize = 0;
+        private int maxClusters = 0;
 
         /**
          * Depth of all leaf nodes.
@@ -430,15 +929,116 @@ public class Drain {
         }
 
         /**
-         * Build a non thread safe instance of Drain.
+         * Thread safety.
+         *
+         * When enabled, log messages can be parsed and searched
+         * concurrently from multiple threads. The prefix tree is locked
+         * by subtrees of the same token count, and matching log messages
+         * only perform optimistic reads.
+         *
+         * Default value is false.
+         *
+         * @param concurrent Whether the instance is thread safe
+         * @return this
+         */
+        public DrainBuilder concurrent(boolean concurrent) {
+            this.concurrent = concurrent;
+            return this;
+        }
+
+        /**
+         * Message cache size.
+         *
+         * When enabled, the cluster matched by a log message is cached
+         * by the exact content of this message, so repeated log messages
+         * skip the tokenization and the prefix tree search. The cache
+         * holds at most this number of messages, rounded up to a power
+         * of two, the least recently used are evicted. Cached entries are
+         * invalidated when the clusters of the same token count change.
+         *
+         * Not supported by a concurrent instance.
+         *
+         * Default value is 0, which disables the cache.
+         *
+         * @param messageCacheSize The maximum number of cached log messages
+         * @return this
+         * @see Drain#messageCacheHitRatio()
+         */
+        public DrainBuilder messageCacheSize(int messageCacheSize) {
+            assert messageCacheSize >= 0;
+            this.messageCacheSize = messageCacheSize;
+            return this;
+        }
+
+        /**
+         * Max number of clusters.
+         *
+         * When a new cluster would exceed this number, the least recently
+         * matched cluster is evicted, it is removed from the clusters and
+         * from the prefix tree, and the nodes left empty are pruned. So
+         * the memory stays bounded on a long running stream of versatile
+         * log messages. The tokens of the evicted clusters are dropped
+         * from the dictionary as evictions accumulate, so it stays bounded
+         * as well. This limit is not kept when the model is
+         * serialized, {@link DrainJournal#open(java.nio.file.Path, DrainBuilder)}
+         * applies it again to a recovered model.
+         *
+         * Not supported by a concurrent instance.
+         *
+         * Default value is 0, which means unbounded.
+         *
+         * @param maxClusters Max number of clusters
+         * @return this
+         */
+        public DrainBuilder maxClusters(int maxClusters) {
+            assert maxClusters >= 0;
+            this.maxClusters = maxClusters;
+            return this;
+        }
+
+        /**
+         * Build an instance of Drain, which is not thread safe unless
+         * {@link #concurrent(boolean)} is enabled.
          *
          * @return A {@see Drain} instance
          */
         public Drain build() {
+            if (concurrent) {
+                if (messageCacheSize > 0) {
+                    throw new IllegalStateException("The message cache is not supported by a concurrent Drain");
+                }
+                if (maxClusters > 0) {
+                    throw new IllegalStateException("Max clusters is not supported by a concurrent Drain");
+                }
+                return new ConcurrentDrain(depth,
+                                           similarityThreshold,
+                                           maxChildPerNode,
+                                           additionalDelimiters);
+            }
             return new Drain(depth,
                              similarityThreshold,
                              maxChildPerNode,
-                             additionalDelimiters);
+                             additionalDelimiters,
+                             new TokenDictionary(),
+                             messageCacheSize,
+                             maxClusters);
+        }
+
+        /**
+         * Applies the message cache size and the max clusters of this
+         * builder, which are not persisted, to a recovered model.
+         *
+         * @param recovered The recovered model
+         * @return the recovered model with these settings
+         */
+        Drain recover(Drain recovered) {
+            if (concurrent) {
+                throw new IllegalStateException("The journal is not supported by a concurrent Drain");
+            }
+            if (messageCacheSize == 0 && maxClusters == 0) {
+                return recovered;
+            }
+            return new Drain(recovered, messageCacheSize, maxClusters);
         }
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.UUID;
+
+import static io.github.bric3.drain.core.BinaryFormat.*;
+
+/**
+ * Binary snapshot of the Drain state.
+ *
+ * <p>
+ * Same state as {@code DrainJsonSerialization}, in a compact binary
+ * format that is written and read in a single streaming pass, which
+ * matters for models with many clusters.
+ *
+ * <p>
+ * Example use:
+ * <pre><code>
+ *     DrainBinarySerialization serde = new DrainBinarySerialization();
+ *
+ *     serde.saveState(drain, outputStream);
+ *     Drain reloaded = serde.loadState(inputStream);
+ * </code></pre>
+ *
+ * <p>
+ * The format is: a magic number and a version, the configuration, the
+ * token dictionary, the clusters with their id, their sightings and their
+ * template token ids, then the prefix tree in depth first order, each node with its key,
+ * its children count, and the indexes of its clusters.
+ * Integers are variable length encoded, tokens are length prefixed UTF-8.
+ * Snapshots of the version 1 have no cluster ids, new ids are assigned.
+ */
+public class DrainBinarySerialization {
+    private static final int MAGIC = 0x44525354; // DRST
+    private static final int VERSION = 2;
+    private static final String FORMAT = "Drain snapshot";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes the state of the model, the stream is not closed.
+     *
+     * @param drain The model
+     * @param out   The output stream
+     */
+    public void saveState(@Nonnull Drain drain, @Nonnull OutputStream out) {
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+            data.writeInt(MAGIC);
+            data.writeByte(VERSION);
+            writeVarInt(data, drain.depth);
+            data.writeDouble(drain.similarityThreshold);
+            writeVarInt(data, drain.maxChildPerNode);
+            writeString(data, drain.delimiters);
+
+            TokenDictionary dictionary = drain.dictionary();
+            int tokensCount = dictionary.size();
+            writeVarInt(data, tokensCount);
+            for (int id = 0; id < tokensCount; id++) {
+                writeString(data, dictionary.token(id));
+            }
+
+            List<InternalLogCluster> clusters = drain.internalClusters();
+            IdentityHashMap<InternalLogCluster, Integer> clusterIndexes = new IdentityHashMap<>(clusters.size());
+            writeVarInt(data, clusters.size());
+            for (int i = 0; i < clusters.size(); i++) {
+                InternalLogCluster cluster = clusters.get(i);
+                clusterIndexes.put(cluster, i);
+                int[] templateTokens = cluster.internalTokens();
+                data.writeLong(cluster.clusterId().getMostSignificantBits());
+                data.writeLong(cluster.clusterId().getLeastSignificantBits());
+                writeVarInt(data, cluster.sightings());
+                writeVarInt(data, templateTokens.length);
+                for (int token : templateTokens) {
+                    writeVarInt(data, token);
+                }
+            }
+
+            writeNode(data, drain.prefixTree(), clusterIndexes);
+            data.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads a model written by {@link #saveState(Drain, OutputStream)}.
+     *
+     * @param in The input stream, it is not closed
+     * @return the model
+     * @throws UncheckedIOException if the stream is not a snapshot, or if it is corrupted
+     */
+    public Drain loadState(@Nonnull InputStream in) {
+        try {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+            if (data.readInt() != MAGIC) {
+                throw new IOException("Not a " + FORMAT);
+            }
+            int version = data.readUnsignedByte();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported " + FORMAT + " version " + version);
+            }
+            int depth = readVarInt(data, FORMAT);
+            double similarityThreshold = data.readDouble();
+            int maxChildPerNode = readVarInt(data, FORMAT);
+            String delimiters = readString(data, FORMAT);
+
+            TokenDictionary dictionary = new TokenDictionary();
+            int tokensCount = readVarInt(data, FORMAT);
+            for (int id = 0; id < tokensCount; id++) {
+                if (dictionary.intern(readString(data, FORMAT)) != id) {
+                    throw new IOException("Corrupted " + FORMAT + ", unexpected token dictionary entry " + id);
+                }
+            }
+
+            int clustersCount = readVarInt(data, FORMAT);
+            List<InternalLogCluster> clusters = new ArrayList<>(clustersCount);
+            for (int i = 0; i < clustersCount; i++) {
+                UUID clusterId = version == 1 ? UUID.randomUUID() : new UUID(data.readLong(), data.readLong());
+                int sightings = readVarInt(data, FORMAT);
+                int[] templateTokens = new int[readVarInt(data, FORMAT)];
+                for (int t = 0; t < templateTokens.length; t++) {
+                    templateTokens[t] = readTokenId(data, tokensCount);
+                }
+                clusters.add(new InternalLogCluster(dictionary, clusterId, sightings, templateTokens));
+            }
+
+            Node prefixTree = readNode(data, Node.ROOT_KEY, 0, tokensCount, clusters);
+            return new Drain(new DrainState(
+                    depth,
+                    similarityThreshold,
+                    maxChildPerNode,
+                    delimiters,
+                    clusters,
+                    dictionary,
+                    prefixTree
+            ));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeNode(DataOutput data,
+                                  Node node,
+                                  IdentityHashMap<InternalLogCluster, Integer> clusterIndexes) throws IOException {
+        InternalLogCluster[] nodeClusters = node.clusters();
+        writeVarInt(data, node.clustersCount());
+        for (int i = 0; i < node.clustersCount(); i++) {
+            InternalLogCluster cluster = nodeClusters[i];
+            Integer index = clusterIndexes.get(cluster);
+            assert index != null : "cluster not in the clusters list: " + cluster;
+            writeVarInt(data, index);
+        }
+
+        writeVarInt(data, node.childrenCount());
+        for (Node child : node.childrenTable()) {
+            if (child != null) {
+                // token count at depth 1, token id deeper
+                writeVarInt(data, child.key);
+                writeNode(data, child, clusterIndexes);
+            }
+        }
+    }
+
+    private static Node readNode(DataInput data,
+                                 int key,
+                                 int depth,
+                                 int tokensCount,
+                                 List<InternalLogCluster> clusters) throws IOException {
+        List<InternalLogCluster> nodeClusters = new ArrayList<>();
+        for (int i = readVarInt(data, FORMAT); i > 0; i--) {
+            int index = readVarInt(data, FORMAT);
+            if (index >= clusters.size()) {
+                throw new IOException("Corrupted " + FORMAT + ", unknown cluster " + index);
+            }
+            nodeClusters.add(clusters.get(index));
+        }
+
+        List<Node> children = new ArrayList<>();
+        for (int i = readVarInt(data, FORMAT); i > 0; i--) {
+            int childKey = depth == 0 ? readVarInt(data, FORMAT) : readTokenId(data, tokensCount);
+            children.add(readNode(data, childKey, depth + 1, tokensCount, clusters));
+        }
+        return new Node(key, depth, children, nodeClusters);
+    }
+
+    private static int readTokenId(DataInput data, int tokensCount) throws IOException {
+        int id = readVarInt(data, FORMAT);
+        if (id >= tokensCount) {
+            throw new IOException("Corrupted " + FORMAT + ", unknown token " + id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,622 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.UUID;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Read-only model image, memory mapped and searched in place.
+ * <p>
+ * The image holds the tables of a {@link FrozenDrain}: the token
+ * dictionary and its hash table, the flattened prefix tree, and the
+ * templates. Opening an image maps the file and validates its header,
+ * nothing is deserialized or copied to the heap, so it takes the same time
+ * whatever the model size, and the JVMs that open the same image share
+ * its pages in the OS page cache.
+ *
+ * <p>
+ * Example use:
+ * <pre><code>
+ * // once, after training
+ * DrainImage.write(drain.freeze(), imagePath);
+ *
+ * // in each job
+ * DrainImage image = DrainImage.open(imagePath);
+ * LogCluster logCluster = image.searchLogMessage(message);
+ * </code></pre>
+ *
+ * <p>
+ * Instances are safe to share across threads. Searching a log message
+ * doesn't allocate, apart from the returned cluster view whose tokens are
+ * decoded from the image when accessed.
+ *
+ * <p>
+ * The file is unmapped when the instance is garbage collected. An image
+ * that is in use must not be modified: {@link #write(FrozenDrain, Path)}
+ * replaces it with a new file, and the JVMs that mapped the previous one
+ * keep reading it.
+ *
+ * <p>
+ * The format is: a header with a magic number, a version, the image
+ * length, the depth and the offset and count of each section, then the
+ * sections, aligned on 8 bytes. Numbers are little endian, tokens and
+ * delimiters are UTF-16 code units so they are compared with the log
+ * message without decoding. An image is limited to 2 GiB.
+ */
+public final class DrainImage {
+    /**
+     * Cluster index returned when no cluster matches.
+     */
+    public static final int NO_MATCH = -1;
+
+    private static final int MAGIC = 0x4D495244; // DRIM, little endian
+    private static final int VERSION = 1;
+    private static final String FORMAT = "Drain image";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    // sections
+    private static final int DELIMITERS = 0;
+    private static final int TOKEN_COUNT_NODES = 1;
+    private static final int MIN_SIMILAR_TOKENS = 2;
+    private static final int NODES = 3;
+    private static final int CHILDREN = 4;
+    private static final int NODE_CLUSTERS = 5;
+    private static final int CLUSTERS = 6;
+    private static final int CLUSTER_IDS = 7;
+    private static final int TEMPLATE_TOKENS = 8;
+    private static final int TOKEN_OFFSETS = 9;
+    private static final int TOKEN_CHARS = 10;
+    private static final int TOKEN_TABLE = 11;
+    private static final int SECTIONS = 12;
+
+    // header
+    private static final int VERSION_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 8;
+    private static final int DEPTH_OFFSET = 12;
+    private static final int SECTIONS_OFFSET = 16;
+    private static final int HEADER_SIZE = align(SECTIONS_OFFSET + SECTIONS * 8);
+
+    // node records: child table offset and size, start and end in the node clusters
+    private static final int NODE_SIZE = 4;
+    private static final int NODE_CHILD_TABLE = 0;
+    private static final int NODE_CHILD_TABLE_SIZE = 1;
+    private static final int NODE_CLUSTERS_START = 2;
+    private static final int NODE_CLUSTERS_END = 3;
+
+    // child slots: key and node, -1 for a free slot
+    private static final int CHILD_SIZE = 2;
+
+    // cluster records: template offset and length, param count, sightings
+    private static final int CLUSTER_SIZE = 4;
+    private static final int CLUSTER_TEMPLATE = 0;
+    private static final int CLUSTER_LENGTH = 1;
+    private static final int CLUSTER_PARAMS = 2;
+    private static final int CLUSTER_SIGHTINGS = 3;
+
+    private final int depth;
+    private final Tokenizer tokenizer;
+    private final IntBuffer tokenCountNodes;
+    private final IntBuffer minSimilarTokens;
+    private final IntBuffer nodes;
+    private final IntBuffer children;
+    private final IntBuffer nodeClusters;
+    private final IntBuffer clusters;
+    private final LongBuffer clusterIds;
+    private final IntBuffer templateTokens;
+    private final IntBuffer tokenOffsets;
+    private final CharBuffer tokenChars;
+    private final IntBuffer tokenTable;
+
+    private DrainImage(ByteBuffer image) throws IOException {
+        if (image.getInt(0) != MAGIC) {
+            throw new IOException("Not a " + FORMAT);
+        }
+        int version = image.getInt(VERSION_OFFSET);
+        if (version != VERSION) {
+            throw new IOException("Unsupported " + FORMAT + " version " + version);
+        }
+        if (image.getInt(LENGTH_OFFSET) != image.capacity()) {
+            throw new IOException("Corrupted " + FORMAT + ", unexpected length " + image.capacity());
+        }
+        depth = image.getInt(DEPTH_OFFSET);
+        CharBuffer delimiters = section(image, DELIMITERS, Character.BYTES).asCharBuffer();
+        tokenizer = new Tokenizer(delimiters.toString());
+        tokenCountNodes = section(image, TOKEN_COUNT_NODES, Integer.BYTES).asIntBuffer();
+        minSimilarTokens = section(image, MIN_SIMILAR_TOKENS, Integer.BYTES).asIntBuffer();
+        nodes = section(image, NODES, Integer.BYTES).asIntBuffer();
+        children = section(image, CHILDREN, Integer.BYTES).asIntBuffer();
+        nodeClusters = section(image, NODE_CLUSTERS, Integer.BYTES).asIntBuffer();
+        clusters = section(image, CLUSTERS, Integer.BYTES).asIntBuffer();
+        clusterIds = section(image, CLUSTER_IDS, Long.BYTES).asLongBuffer();
+        templateTokens = section(image, TEMPLATE_TOKENS, Integer.BYTES).asIntBuffer();
+        tokenOffsets = section(image, TOKEN_OFFSETS, Integer.BYTES).asIntBuffer();
+        tokenChars = section(image, TOKEN_CHARS, Character.BYTES).asCharBuffer();
+        tokenTable = section(image, TOKEN_TABLE, Integer.BYTES).asIntBuffer();
+        if (minSimilarTokens.limit() != tokenCountNodes.limit()
+            || Integer.bitCount(tokenTable.limit()) != 1
+            || tokenOffsets.limit() == 0) {
+            throw new IOException("Corrupted " + FORMAT + ", inconsistent sections");
+        }
+    }
+
+    /**
+     * Maps an image written by {@link #write(FrozenDrain, Path)}.
+     * <p>
+     * Only the header is validated, the tables are read when searching.
+     *
+     * @param path The image file
+     * @return the mapped image
+     * @throws UncheckedIOException if the file can't be mapped, or if it isn't an image
+     */
+    public static DrainImage open(@Nonnull Path path) {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Not a " + FORMAT + ", unexpected size " + size);
+            }
+            // the mapping stays valid after the channel is closed
+            ByteBuffer image = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                                      .order(ByteOrder.LITTLE_ENDIAN);
+            return new DrainImage(image);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes the image of a frozen model.
+     * <p>
+     * The image is written to a temporary file that is then moved to the
+     * path, an existing image is replaced without affecting its readers.
+     *
+     * @param frozenDrain The frozen model
+     * @param path        The image file
+     * @throws IllegalArgumentException if the image would exceed 2 GiB
+     * @throws UncheckedIOException     if the image can't be written
+     */
+    public static void write(@Nonnull FrozenDrain frozenDrain, @Nonnull Path path) {
+        TokenDictionary dictionary = frozenDrain.dictionary;
+        int tokensCount = dictionary.size();
+        int[] tokenOffsets = new int[tokensCount + 1];
+        for (int id = 0; id < tokensCount; id++) {
+            tokenOffsets[id + 1] = tokenOffsets[id] + dictionary.token(id).length();
+        }
+        int[] tokenTable = tokenTable(dictionary);
+        int nodesCount = frozenDrain.childTableOffsets.length;
+        int clustersCount = frozenDrain.clusters.length;
+
+        int[] counts = new int[SECTIONS];
+        int[] widths = new int[SECTIONS];
+        count(counts, widths, DELIMITERS, frozenDrain.delimiters.length(), Character.BYTES);
+        count(counts, widths, TOKEN_COUNT_NODES, frozenDrain.tokenCountNodes.length, Integer.BYTES);
+        count(counts, widths, MIN_SIMILAR_TOKENS, frozenDrain.minSimilarTokens.length, Integer.BYTES);
+        count(counts, widths, NODES, nodesCount * NODE_SIZE, Integer.BYTES);
+        count(counts, widths, CHILDREN, frozenDrain.childKeys.length * CHILD_SIZE, Integer.BYTES);
+        count(counts, widths, NODE_CLUSTERS, frozenDrain.nodeClusters.length, Integer.BYTES);
+        count(counts, widths, CLUSTERS, clustersCount * CLUSTER_SIZE, Integer.BYTES);
+        count(counts, widths, CLUSTER_IDS, clustersCount * 2, Long.BYTES);
+        count(counts, widths, TEMPLATE_TOKENS, frozenDrain.templateTokens.length, Integer.BYTES);
+        count(counts, widths, TOKEN_OFFSETS, tokenOffsets.length, Integer.BYTES);
+        count(counts, widths, TOKEN_CHARS, tokenOffsets[tokensCount], Character.BYTES);
+        count(counts, widths, TOKEN_TABLE, tokenTable.length, Integer.BYTES);
+
+        int[] offsets = new int[SECTIONS];
+        long length = HEADER_SIZE;
+        for (int section = 0; section < SECTIONS; section++) {
+            offsets[section] = (int) length;
+            length = align(length + (long) counts[section] * widths[section]);
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Model too large for a " + FORMAT);
+            }
+        }
+
+        ByteBuffer image = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+        image.putInt(0, MAGIC);
+        image.putInt(VERSION_OFFSET, VERSION);
+        image.putInt(LENGTH_OFFSET, (int) length);
+        image.putInt(DEPTH_OFFSET, frozenDrain.depth);
+        for (int section = 0; section < SECTIONS; section++) {
+            image.putInt(SECTIONS_OFFSET + section * 8, offsets[section]);
+            image.putInt(SECTIONS_OFFSET + section * 8 + 4, counts[section]);
+        }
+
+        image.position(offsets[DELIMITERS]);
+        putChars(image, frozenDrain.delimiters);
+        image.position(offsets[TOKEN_COUNT_NODES]);
+        putInts(image, frozenDrain.tokenCountNodes);
+        image.position(offsets[MIN_SIMILAR_TOKENS]);
+        putInts(image, frozenDrain.minSimilarTokens);
+        image.position(offsets[NODES]);
+        for (int node = 0; node < nodesCount; node++) {
+            image.putInt(frozenDrain.childTableOffsets[node]);
+            image.putInt(frozenDrain.childTableSizes[node]);
+            image.putInt(frozenDrain.clustersStarts[node]);
+            image.putInt(frozenDrain.clustersEnds[node]);
+        }
+        image.position(offsets[CHILDREN]);
+        for (int slot = 0; slot < frozenDrain.childKeys.length; slot++) {
+            image.putInt(frozenDrain.childKeys[slot]);
+            image.putInt(frozenDrain.childNodes[slot]);
+        }
+        image.position(offsets[NODE_CLUSTERS]);
+        putInts(image, frozenDrain.nodeClusters);
+        image.position(offsets[CLUSTERS]);
+        for (int cluster = 0; cluster < clustersCount; cluster++) {
+            int templateOffset = frozenDrain.templateOffsets[cluster];
+            int templateEnd = cluster + 1 < clustersCount
+                              ? frozenDrain.templateOffsets[cluster + 1]
+                              : frozenDrain.templateTokens.length;
+            image.putInt(templateOffset);
+            image.putInt(templateEnd - templateOffset);
+            image.putInt(frozenDrain.paramCounts[cluster]);
+            image.putInt(frozenDrain.clusters[cluster].sightings());
+        }
+        image.position(offsets[CLUSTER_IDS]);
+        for (LogCluster cluster : frozenDrain.clusters) {
+            image.putLong(cluster.clusterId().getMostSignificantBits());
+            image.putLong(cluster.clusterId().getLeastSignificantBits());
+        }
+        image.position(offsets[TEMPLATE_TOKENS]);
+        putInts(image, frozenDrain.templateTokens);
+        image.position(offsets[TOKEN_OFFSETS]);
+        putInts(image, tokenOffsets);
+        image.position(offsets[TOKEN_CHARS]);
+        for (int id = 0; id < tokensCount; id++) {
+            putChars(image, dictionary.token(id));
+        }
+        image.position(offsets[TOKEN_TABLE]);
+        putInts(image, tokenTable);
+        image.clear();
+
+        Path tmp = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+                while (image.hasRemaining()) {
+                    channel.write(image);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Search a matching log cluster given a log message.
+     *
+     * @param message The log message content
+     * @return The matching log cluster or null if no match
+     */
+    public LogCluster searchLogMessage(@Nonnull CharSequence message) {
+        int clusterIndex = searchClusterIndex(message);
+        return clusterIndex == NO_MATCH ? null : new ImageLogCluster(clusterIndex);
+    }
+
+    /**
+     * Search the index of a matching log cluster given a log message.
+     * <p>
+     * Same search as {@link FrozenDrain#searchClusterIndex(CharSequence)},
+     * the cluster indexes are the same as the frozen model of the image.
+     *
+     * @param message The log message content
+     * @return The index of the matching cluster in {@link #clusters()}, or {@link #NO_MATCH}
+     */
+    public int searchClusterIndex(@Nonnull CharSequence message) {
+        ParseContext context = ParseContext.current();
+        int tokensCount = tokenizer.tokenize(message, context.tokens);
+        int[] logTokens = context.tokenIds(tokensCount);
+        CharSequence content = context.tokens.content();
+        for (int i = 0; i < tokensCount; i++) {
+            logTokens[i] = idOf(content, context.tokens.start(i), context.tokens.end(i));
+        }
+
+        // at first level, children are grouped by token (word) count
+        if (tokensCount >= tokenCountNodes.limit() || tokenCountNodes.get(tokensCount) == -1) {
+            return NO_MATCH;
+        }
+        int node = tokenCountNodes.get(tokensCount);
+
+        // handle case of empty log string - return the single cluster in that group
+        if (tokensCount == 0) {
+            int start = nodes.get(node * NODE_SIZE + NODE_CLUSTERS_START);
+            int end = nodes.get(node * NODE_SIZE + NODE_CLUSTERS_END);
+            return start < end ? nodeClusters.get(start) : NO_MATCH;
+        }
+
+        // find the leaf node for this log
+        int currentDepth = 1;
+        for (int token : logTokens) {
+            if (currentDepth == depth || currentDepth == tokensCount) {
+                break;
+            }
+
+            int nextNode = child(node, token);
+            if (nextNode == -1) {
+                nextNode = child(node, TokenDictionary.PARAM_ID);
+            }
+            if (nextNode == -1) {
+                return NO_MATCH;
+            }
+            node = nextNode;
+            currentDepth++;
+        }
+
+        return fastMatch(node, logTokens);
+    }
+
+    /**
+     * @param clusterIndex A cluster index, e.g. returned by {@link #searchClusterIndex(CharSequence)}
+     * @return a view of the cluster in the image
+     */
+    public LogCluster cluster(int clusterIndex) {
+        if (clusterIndex < 0 || clusterIndex >= clustersCount()) {
+            throw new IndexOutOfBoundsException("Unknown cluster " + clusterIndex);
+        }
+        return new ImageLogCluster(clusterIndex);
+    }
+
+    /**
+     * Returns the log clusters of the image.
+     *
+     * @return Non modifiable list view of clusters, indexed by cluster index.
+     */
+    public List<LogCluster> clusters() {
+        return new ClusterList();
+    }
+
+    private int clustersCount() {
+        return clusters.limit() / CLUSTER_SIZE;
+    }
+
+    private int child(int node, int key) {
+        int tableSize = nodes.get(node * NODE_SIZE + NODE_CHILD_TABLE_SIZE);
+        int offset = nodes.get(node * NODE_SIZE + NODE_CHILD_TABLE);
+        int mask = tableSize - 1;
+        int slot = FrozenDrain.mix(key) & mask;
+        // the probes are bounded, a corrupted image must not loop
+        for (int probe = 0; probe < tableSize; probe++, slot = (slot + 1) & mask) {
+            int child = children.get((offset + slot) * CHILD_SIZE + 1);
+            if (child == -1 || children.get((offset + slot) * CHILD_SIZE) == key) {
+                return child;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same pruned search as {@link FrozenDrain}, on the mapped templates.
+     */
+    private int fastMatch(int node, int[] logTokens) {
+        int tokensCount = logTokens.length;
+        int maxSimilar = minSimilarTokens.get(tokensCount) - 1;
+        int maxParamCount = Integer.MAX_VALUE;
+        int maxCluster = NO_MATCH;
+
+        candidates:
+        for (int i = nodes.get(node * NODE_SIZE + NODE_CLUSTERS_START),
+             end = nodes.get(node * NODE_SIZE + NODE_CLUSTERS_END); i < end; i++) {
+            int cluster = nodeClusters.get(i);
+            int offset = clusters.get(cluster * CLUSTER_SIZE + CLUSTER_TEMPLATE);
+            int paramCount = clusters.get(cluster * CLUSTER_SIZE + CLUSTER_PARAMS);
+            // to win the candidate must be more similar, or as similar with more params
+            int minSimilar = paramCount > maxParamCount ? maxSimilar : maxSimilar + 1;
+
+            int reachable = tokensCount - paramCount;
+            if (reachable < minSimilar) {
+                continue;
+            }
+            int similarTokens = 0;
+            for (int t = 0; t < tokensCount; t++) {
+                int token = templateTokens.get(offset + t);
+                if (token == TokenDictionary.PARAM_ID) {
+                    continue;
+                }
+                if (token == logTokens[t]) {
+                    similarTokens++;
+                } else if (--reachable < minSimilar) {
+                    continue candidates;
+                }
+            }
+
+            maxSimilar = similarTokens;
+            maxParamCount = paramCount;
+            maxCluster = cluster;
+            if (similarTokens == tokensCount) {
+                break;
+            }
+        }
+
+        return maxCluster;
+    }
+
+    /**
+     * Same lookup as {@link TokenDictionary}, on the mapped hash table.
+     */
+    private int idOf(CharSequence content, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + content.charAt(i);
+        }
+        int tableSize = tokenTable.limit();
+        int mask = tableSize - 1;
+        int slot = FrozenDrain.mix(h) & mask;
+        for (int probe = 0; probe < tableSize; probe++, slot = (slot + 1) & mask) {
+            int id = tokenTable.get(slot);
+            if (id == TokenDictionary.UNKNOWN_ID) {
+                return TokenDictionary.UNKNOWN_ID;
+            }
+            if (tokenEquals(id, content, start, end)) {
+                return id;
+            }
+        }
+        return TokenDictionary.UNKNOWN_ID;
+    }
+
+    private boolean tokenEquals(int id, CharSequence content, int start, int end) {
+        int tokenStart = tokenOffsets.get(id);
+        int length = end - start;
+        if (tokenOffsets.get(id + 1) - tokenStart != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (tokenChars.get(tokenStart + i) != content.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String token(int id) {
+        return tokenChars.subSequence(tokenOffsets.get(id), tokenOffsets.get(id + 1)).toString();
+    }
+
+    private static int[] tokenTable(TokenDictionary dictionary) {
+        int[] table = new int[FrozenDrain.tableSize(dictionary.size())];
+        Arrays.fill(table, TokenDictionary.UNKNOWN_ID);
+        int mask = table.length - 1;
+        for (int id = 0; id < dictionary.size(); id++) {
+            int slot = FrozenDrain.mix(dictionary.token(id).hashCode()) & mask;
+            while (table[slot] != TokenDictionary.UNKNOWN_ID) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id;
+        }
+        return table;
+    }
+
+    private static ByteBuffer section(ByteBuffer image, int section, int width) throws IOException {
+        int offset = image.getInt(SECTIONS_OFFSET + section * 8);
+        int count = image.getInt(SECTIONS_OFFSET + section * 8 + 4);
+        if (offset < HEADER_SIZE || count < 0 || (long) count * width > image.capacity() - offset) {
+            throw new IOException("Corrupted " + FORMAT + ", section " + section + " out of bounds");
+        }
+        ByteBuffer slice = image.duplicate();
+        slice.position(offset);
+        slice.limit(offset + count * width);
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void count(int[] counts, int[] widths, int section, int count, int width) {
+        counts[section] = count;
+        widths[section] = width;
+    }
+
+    private static void putInts(ByteBuffer image, int[] values) {
+        for (int value : values) {
+            image.putInt(value);
+        }
+    }
+
+    private static void putChars(ByteBuffer image, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            image.putChar(value.charAt(i));
+        }
+    }
+
+    private static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private final class ClusterList extends AbstractList<LogCluster> implements RandomAccess {
+        @Override
+        public LogCluster get(int index) {
+            return cluster(index);
+        }
+
+        @Override
+        public int size() {
+            return clustersCount();
+        }
+    }
+
+    private final class ImageLogCluster implements LogCluster {
+        private final int index;
+
+        ImageLogCluster(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public UUID clusterId() {
+            return new UUID(clusterIds.get(index * 2), clusterIds.get(index * 2 + 1));
+        }
+
+        @Override
+        public List<String> tokens() {
+            return new TemplateList(clusters.get(index * CLUSTER_SIZE + CLUSTER_TEMPLATE),
+                                    clusters.get(index * CLUSTER_SIZE + CLUSTER_LENGTH));
+        }
+
+        @Override
+        public int sightings() {
+            return clusters.get(index * CLUSTER_SIZE + CLUSTER_SIGHTINGS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (size %d): %s",
+                                 clusterId(),
+                                 sightings(),
+                                 String.join(" ", tokens()));
+        }
+    }
+
+    /**
+     * Template tokens, decoded from the image on access.
+     */
+    private final class TemplateList extends AbstractList<String> implements RandomAccess {
+        private final int offset;
+        private final int length;
+
+        TemplateList(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+            }
+            return token(templateTokens.get(offset + index));
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+    }
+}
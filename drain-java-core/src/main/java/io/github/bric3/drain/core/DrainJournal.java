@@ -0,0 +1,607 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import static io.github.bric3.drain.core.BinaryFormat.*;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Incremental persistence of a Drain model.
+ *
+ * <p>
+ * The model is persisted in a directory as a base snapshot, in the format
+ * of {@link DrainBinarySerialization}, and an append-only journal of the
+ * changes since this snapshot: the clusters created, generalized or
+ * evicted, and their sightings. A {@link #checkpoint()} appends the
+ * changes since the previous checkpoint, a few bytes per changed cluster
+ * whatever the size of the model. Once the journal outgrows the snapshot
+ * the checkpoint compacts them in a new snapshot.
+ *
+ * <p>
+ * Opening the journal recovers the model from the snapshot and the
+ * journal, a checkpoint torn by a crash is discarded.
+ *
+ * <p>
+ * Example use:
+ * <pre><code>
+ *     try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder().depth(4))) {
+ *         Drain drain = journal.drain();
+ *         for (String line : lines) {
+ *             drain.parseLogMessage(line);
+ *             if (...) {
+ *                 journal.checkpoint();
+ *             }
+ *         }
+ *     }
+ * </code></pre>
+ *
+ * <p>
+ * A checkpoint may carry metadata, e.g. the read position of the input,
+ * which is recovered with the model of the same checkpoint, see
+ * {@link #checkpoint(String)}.
+ *
+ * <p>
+ * Like the model, the journal is not thread safe, checkpoints must not
+ * run concurrently to the parsing. The message cache size and the max
+ * clusters are not persisted, a recovered model gets those of the
+ * configuration given to {@link #open(Path, Drain.DrainBuilder)}.
+ *
+ * <p>
+ * The journal starts with a magic number, a version and the generation of
+ * its snapshot. Then each checkpoint is a frame, its length and its CRC-32
+ * followed by the records: the created clusters with their id and their
+ * template (version 1 journals hold no cluster id), the
+ * evicted cluster indexes, then the changed clusters with their index,
+ * their sightings and the positions of their params, then the metadata
+ * if it changed.
+ */
+public final class DrainJournal implements Closeable {
+    private static final int MAGIC = 0x44524A4C; // DRJL
+    private static final int VERSION = 2;
+    private static final String FORMAT = "Drain journal";
+    private static final int HEADER_SIZE = 4 + 1 + 8;
+    private static final int FRAME_HEADER_SIZE = 4 + 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long MIN_COMPACTION_SIZE = 1024 * 1024;
+
+    private static final String PREFIX = "drain-";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final int CREATED = 1;
+    private static final int EVICTED = 2;
+    private static final int CHANGED = 3;
+    private static final int METADATA = 4;
+
+    private final Path directory;
+    private Drain drain;
+    private final DrainBinarySerialization serialization = new DrainBinarySerialization();
+
+    // records of the next checkpoint, in the order of the changes
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private final List<InternalLogCluster> changedClusters = new ArrayList<>();
+
+    @Nullable
+    private String metadata;
+    private long generation;
+    private long snapshotSize;
+    private FileChannel journalChannel;
+    private boolean closed;
+
+    private DrainJournal(Path directory, Drain drain, long generation) {
+        this.directory = directory;
+        this.drain = drain;
+        this.generation = generation;
+    }
+
+    /**
+     * Recovers the model persisted in the directory, or starts a new one.
+     *
+     * @param directory The directory of the snapshot and the journal, created if needed
+     * @param newModel  The configuration of a new model, only its message cache size and
+     *                  max clusters apply to a recovered model, clusters over the max
+     *                  are evicted, see {@link Drain.DrainBuilder#maxClusters(int)}
+     * @return the journal of the model, see {@link #drain()}
+     * @throws UncheckedIOException if the files can't be read or written, or if they are corrupted
+     */
+    public static DrainJournal open(@Nonnull Path directory, @Nonnull Drain.DrainBuilder newModel) {
+        try {
+            Files.createDirectories(directory);
+            long generation = latestGeneration(directory);
+            DrainJournal journal;
+            if (generation == 0) {
+                Drain drain = newModel.build();
+                if (drain instanceof ConcurrentDrain) {
+                    throw new IllegalStateException("The journal is not supported by a concurrent Drain");
+                }
+                journal = new DrainJournal(directory, drain, 1);
+                journal.journalChannel = journal.createJournal(1);
+                Files.move(journal.writeSnapshot(1), snapshotPath(directory, 1), ATOMIC_MOVE, REPLACE_EXISTING);
+            } else {
+                Path snapshot = snapshotPath(directory, generation);
+                Drain drain;
+                try (InputStream in = Files.newInputStream(snapshot)) {
+                    drain = new DrainBinarySerialization().loadState(in);
+                }
+                journal = new DrainJournal(directory, drain, generation);
+                journal.snapshotSize = Files.size(snapshot);
+                journal.journalChannel = journal.recoverJournal(generation);
+                // once replayed, as replaying creations must not evict
+                journal.drain = newModel.recover(journal.drain);
+            }
+            deleteOtherGenerations(directory, journal.generation);
+            journal.drain.journal = journal;
+            // journaled, e.g. if the max clusters was lowered since
+            journal.drain.evictOverMaxClusters();
+            return journal;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return the journaled model
+     */
+    public Drain drain() {
+        return drain;
+    }
+
+    /**
+     * @return the metadata of the last checkpoint, or {@code null} if none
+     */
+    @Nullable
+    public String metadata() {
+        return metadata;
+    }
+
+    /**
+     * Appends the changes of the model since the previous checkpoint, and
+     * syncs them to the storage. Compacts the journal once it is larger
+     * than the snapshot.
+     *
+     * @return the number of bytes appended to the journal
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    public long checkpoint() {
+        return checkpoint(metadata);
+    }
+
+    /**
+     * Same as {@link #checkpoint()}, the metadata is recovered with the
+     * model of this checkpoint, e.g. the position of the last parsed line.
+     *
+     * @param metadata The metadata of this checkpoint, {@code null} keeps
+     *                 the metadata of the previous checkpoint
+     * @return the number of bytes appended to the journal
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    public long checkpoint(@Nullable String metadata) {
+        ensureOpen();
+        try {
+            writeChangedClusters();
+            if (metadata != null && !metadata.equals(this.metadata)) {
+                pendingOut.writeByte(METADATA);
+                writeString(pendingOut, metadata);
+            }
+            if (pending.size() == 0) {
+                return 0;
+            }
+
+            long written = writeFrame(journalChannel, pending.toByteArray());
+            pending.reset();
+            if (metadata != null) {
+                this.metadata = metadata;
+            }
+
+            if (journalChannel.size() > Math.max(snapshotSize, MIN_COMPACTION_SIZE)) {
+                compact(this.metadata);
+            }
+            return written;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends and syncs a frame, the channel is left unchanged on failure.
+     *
+     * @return the size of the frame
+     */
+    private static long writeFrame(FileChannel channel, byte[] records) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(records, 0, records.length);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + records.length);
+        frame.putInt(records.length)
+             .putInt((int) crc.getValue())
+             .put(records)
+             .flip();
+
+        long end = channel.size();
+        try {
+            while (frame.hasRemaining()) {
+                channel.write(frame, end + frame.position());
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            // the records are kept for the next checkpoint, a partial frame would hide it
+            channel.truncate(end);
+            throw e;
+        }
+        return frame.capacity();
+    }
+
+    /**
+     * Checkpoints the model in a new snapshot instead of the journal, and
+     * starts a new empty journal.
+     *
+     * @param metadata The metadata of this checkpoint, {@code null} keeps
+     *                 the metadata of the previous checkpoint
+     * @throws UncheckedIOException if the snapshot or the journal can't be written
+     */
+    public void compact(@Nullable String metadata) {
+        ensureOpen();
+        if (metadata == null) {
+            metadata = this.metadata;
+        }
+        try {
+            long nextGeneration = generation + 1;
+            Path snapshot = writeSnapshot(nextGeneration);
+            FileChannel nextJournalChannel = createJournal(nextGeneration);
+            try {
+                if (metadata != null) {
+                    ByteArrayOutputStream records = new ByteArrayOutputStream();
+                    DataOutputStream recordsOut = new DataOutputStream(records);
+                    recordsOut.writeByte(METADATA);
+                    writeString(recordsOut, metadata);
+                    writeFrame(nextJournalChannel, records.toByteArray());
+                }
+                // the new generation is complete once its snapshot is in place
+                Files.move(snapshot, snapshotPath(directory, nextGeneration), ATOMIC_MOVE, REPLACE_EXISTING);
+            } catch (IOException e) {
+                nextJournalChannel.close();
+                throw e;
+            }
+
+            // the snapshot holds the changes
+            pending.reset();
+            for (InternalLogCluster cluster : changedClusters) {
+                cluster.journalPending = false;
+            }
+            changedClusters.clear();
+
+            journalChannel.close();
+            journalChannel = nextJournalChannel;
+            generation = nextGeneration;
+            this.metadata = metadata;
+            deleteOtherGenerations(directory, generation);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Checkpoints the changes, then detaches the journal from the model.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        try {
+            checkpoint();
+        } finally {
+            closed = true;
+            drain.journal = null;
+            try {
+                journalChannel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+    }
+
+    void created(@Nonnull InternalLogCluster cluster) {
+        // the template at creation places the cluster in the prefix tree
+        int[] templateTokens = cluster.internalTokens();
+        try {
+            pendingOut.writeByte(CREATED);
+            pendingOut.writeLong(cluster.clusterId().getMostSignificantBits());
+            pendingOut.writeLong(cluster.clusterId().getLeastSignificantBits());
+            writeVarInt(pendingOut, templateTokens.length);
+            for (int token : templateTokens) {
+                writeString(pendingOut, drain.dictionary.token(token));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    void evicted(@Nonnull InternalLogCluster cluster) {
+        try {
+            pendingOut.writeByte(EVICTED);
+            writeVarInt(pendingOut, cluster.index);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Sightings and generalizations are batched, the cluster is written once
+     * per checkpoint.
+     */
+    void changed(@Nonnull InternalLogCluster cluster) {
+        if (!cluster.journalPending) {
+            cluster.journalPending = true;
+            changedClusters.add(cluster);
+        }
+    }
+
+    /**
+     * Writes the changed clusters after the other records, with their index
+     * once these records are applied.
+     */
+    private void writeChangedClusters() throws IOException {
+        List<InternalLogCluster> clusters = drain.internalClusters();
+        for (InternalLogCluster cluster : changedClusters) {
+            cluster.journalPending = false;
+            if (cluster.index >= clusters.size() || clusters.get(cluster.index) != cluster) {
+                // evicted since
+                continue;
+            }
+            int[] templateTokens = cluster.internalTokens();
+            pendingOut.writeByte(CHANGED);
+            writeVarInt(pendingOut, cluster.index);
+            writeVarInt(pendingOut, cluster.sightings());
+            writeVarInt(pendingOut, cluster.paramCount());
+            for (int i = 0; i < templateTokens.length; i++) {
+                if (templateTokens[i] == TokenDictionary.PARAM_ID) {
+                    writeVarInt(pendingOut, i);
+                }
+            }
+        }
+        changedClusters.clear();
+    }
+
+    /**
+     * @return the temporary file of the snapshot, to move in place
+     */
+    private Path writeSnapshot(long generation) throws IOException {
+        Path snapshot = snapshotPath(directory, generation);
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + TMP_SUFFIX);
+        try (FileChannel channel = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            serialization.saveState(drain, Channels.newOutputStream(channel));
+            channel.force(true);
+            snapshotSize = channel.size();
+        }
+        return tmp;
+    }
+
+    /**
+     * Creates the empty journal of the snapshot generation.
+     */
+    private FileChannel createJournal(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(journalPath(directory, generation), CREATE, TRUNCATE_EXISTING, READ, WRITE);
+        try {
+            writeHeader(channel, generation);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens the journal of the snapshot generation, its checkpoints are
+     * replayed on the model.
+     */
+    private FileChannel recoverJournal(long generation) throws IOException {
+        FileChannel channel = FileChannel.open(journalPath(directory, generation), CREATE, READ, WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                // the header was torn, then nothing follows
+                channel.truncate(0);
+                writeHeader(channel, generation);
+            } else {
+                long end = replay(channel, generation);
+                if (end < channel.size()) {
+                    channel.truncate(end);
+                }
+            }
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(FileChannel channel, long generation) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC)
+              .put((byte) VERSION)
+              .putLong(generation)
+              .flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * @return the end of the last complete checkpoint
+     */
+    private long replay(FileChannel channel, long generation) throws IOException {
+        long size = channel.size();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(0)), BUFFER_SIZE));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a " + FORMAT);
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported " + FORMAT + " version " + version);
+        }
+        if (in.readLong() != generation) {
+            throw new IOException("Corrupted " + FORMAT + ", not the journal of snapshot " + generation);
+        }
+
+        CRC32 crc = new CRC32();
+        long end = HEADER_SIZE;
+        while (end + FRAME_HEADER_SIZE <= size) {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            if (length <= 0 || length > size - end - FRAME_HEADER_SIZE) {
+                break;
+            }
+            byte[] records = new byte[length];
+            in.readFully(records);
+            crc.reset();
+            crc.update(records, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            apply(new DataInputStream(new ByteArrayInputStream(records)), version);
+            end += FRAME_HEADER_SIZE + length;
+        }
+        return end;
+    }
+
+    private void apply(DataInputStream records, int version) throws IOException {
+        List<InternalLogCluster> clusters = drain.internalClusters();
+        while (records.available() > 0) {
+            int record = records.readUnsignedByte();
+            switch (record) {
+                case CREATED: {
+                    UUID clusterId = version == 1 ? UUID.randomUUID() : new UUID(records.readLong(), records.readLong());
+                    int tokensCount = readVarInt(records, FORMAT);
+                    List<String> templateTokens = new ArrayList<>(tokensCount);
+                    for (int i = 0; i < tokensCount; i++) {
+                        templateTokens.add(readString(records, FORMAT));
+                    }
+                    drain.createCluster(clusterId, drain.dictionary.intern(templateTokens));
+                    break;
+                }
+                case EVICTED:
+                    drain.evict(cluster(records, clusters));
+                    break;
+                case CHANGED: {
+                    InternalLogCluster cluster = cluster(records, clusters);
+                    int sightings = readVarInt(records, FORMAT);
+                    int[] templateTokens = cluster.internalTokens();
+                    int[] newTemplateTokens = templateTokens;
+                    for (int i = readVarInt(records, FORMAT); i > 0; i--) {
+                        int position = readVarInt(records, FORMAT);
+                        if (position >= templateTokens.length) {
+                            throw new IOException("Corrupted " + FORMAT + ", unknown template position " + position);
+                        }
+                        if (newTemplateTokens == templateTokens) {
+                            newTemplateTokens = templateTokens.clone();
+                        }
+                        newTemplateTokens[position] = TokenDictionary.PARAM_ID;
+                    }
+                    if (newTemplateTokens != templateTokens) {
+                        cluster.updateTokens(newTemplateTokens);
+                    }
+                    cluster.addSightings(sightings - cluster.sightings());
+                    break;
+                }
+                case METADATA:
+                    metadata = readString(records, FORMAT);
+                    break;
+                default:
+                    throw new IOException("Corrupted " + FORMAT + ", unknown record " + record);
+            }
+        }
+    }
+
+    private static InternalLogCluster cluster(DataInput records, List<InternalLogCluster> clusters) throws IOException {
+        int index = readVarInt(records, FORMAT);
+        if (index >= clusters.size()) {
+            throw new IOException("Corrupted " + FORMAT + ", unknown cluster " + index);
+        }
+        return clusters.get(index);
+    }
+
+    private static Path snapshotPath(Path directory, long generation) {
+        return directory.resolve(PREFIX + generation + SNAPSHOT_SUFFIX);
+    }
+
+    private static Path journalPath(Path directory, long generation) {
+        return directory.resolve(PREFIX + generation + JOURNAL_SUFFIX);
+    }
+
+    /**
+     * @return the generation of the last complete snapshot, 0 if there is none
+     */
+    private static long latestGeneration(Path directory) throws IOException {
+        long latest = 0;
+        try (DirectoryStream<Path> snapshots = Files.newDirectoryStream(directory, PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path snapshot : snapshots) {
+                latest = Math.max(latest, generationOf(snapshot, SNAPSHOT_SUFFIX));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Deletes the files of the older generations, and the files left by a
+     * crash during a compaction.
+     */
+    private static void deleteOtherGenerations(Path directory, long generation) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long fileGeneration = name.endsWith(TMP_SUFFIX) ? generationOf(file, SNAPSHOT_SUFFIX + TMP_SUFFIX) :
+                                      name.endsWith(SNAPSHOT_SUFFIX) ? generationOf(file, SNAPSHOT_SUFFIX) :
+                                      name.endsWith(JOURNAL_SUFFIX) ? generationOf(file, JOURNAL_SUFFIX) :
+                                      0;
+                boolean obsolete = fileGeneration > 0
+                                   && (fileGeneration != generation || name.endsWith(TMP_SUFFIX));
+                if (obsolete) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the generation in the file name, 0 if the file is not one of the journal
+     */
+    private static long generationOf(Path file, String suffix) {
+        String name = file.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0;
+        }
+    }
+}
@@ -17,6 +17,7 @@ class DrainState {
     final int maxChildPerNode;
     final String delimiters;
     final List<InternalLogCluster> clusters;
+    final TokenDictionary dictionary;
     final Node prefixTree;
 
     DrainState(int depth,
@@ -24,12 +25,14 @@ class DrainState {
                int maxChildPerNode,
                String delimiters,
                List<InternalLogCluster> clusters,
+               TokenDictionary dictionary,
                Node prefixTree) {
         this.depth = depth;
         this.similarityThreshold = similarityThreshold;
         this.maxChildPerNode = maxChildPerNode;
         this.delimiters = delimiters;
         this.clusters = clusters;
+        this.dictionary = dictionary;
         this.prefixTree = prefixTree;
     }
 }
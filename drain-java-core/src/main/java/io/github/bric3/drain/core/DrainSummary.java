@@ -0,0 +1,191 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.github.bric3.drain.core.BinaryFormat.*;
+
+/**
+ * Compact summary of the templates of a model, and their sightings.
+ *
+ * <p>
+ * A summary is what's needed to merge a model in another one, e.g.
+ * to fold the models of many hosts in a single model, without the
+ * prefix tree or the raw logs. Templates identify clusters, the same
+ * template has the same {@link LogCluster#templateId() template id} in
+ * any model.
+ *
+ * <p>
+ * Example use:
+ * <pre><code>
+ *     // on each host
+ *     drain.summary().writeTo(out);
+ *
+ *     // on the aggregator
+ *     Drain fleet = Drain.drainBuilder().build();
+ *     fleet.merge(DrainSummary.readFrom(in));
+ * </code></pre>
+ *
+ * <p>
+ * The binary format is: a magic number and a version, then the tokens
+ * used by the templates, then for each template its sightings and its
+ * token indexes. Integers are variable length encoded, tokens are
+ * length prefixed UTF-8.
+ */
+public final class DrainSummary {
+    private static final int MAGIC = 0x4452534D; // DRSM
+    private static final int VERSION = 1;
+    private static final String FORMAT = "Drain summary";
+
+    /**
+     * Tokens used by the templates, the param marker is always the first token.
+     */
+    private final String[] tokens;
+    private final int[][] templates;
+    private final int[] sightings;
+
+    private DrainSummary(String[] tokens, int[][] templates, int[] sightings) {
+        this.tokens = tokens;
+        this.templates = templates;
+        this.sightings = sightings;
+    }
+
+    static DrainSummary of(@Nonnull Drain drain) {
+        List<InternalLogCluster> clusters = drain.internalClusters();
+        TokenDictionary dictionary = drain.dictionary();
+
+        // renumber the tokens by first use, only the tokens of the templates are kept
+        Map<Integer, Integer> tokenIndexes = new HashMap<>();
+        List<String> tokens = new ArrayList<>();
+        tokenIndexes.put(TokenDictionary.PARAM_ID, 0);
+        tokens.add(Drain.PARAM_MARKER);
+
+        int[][] templates = new int[clusters.size()][];
+        int[] sightings = new int[clusters.size()];
+        for (int i = 0; i < templates.length; i++) {
+            InternalLogCluster cluster = clusters.get(i);
+            int[] templateTokens = cluster.internalTokens();
+            int[] template = new int[templateTokens.length];
+            for (int t = 0; t < template.length; t++) {
+                Integer index = tokenIndexes.get(templateTokens[t]);
+                if (index == null) {
+                    index = tokens.size();
+                    tokenIndexes.put(templateTokens[t], index);
+                    tokens.add(dictionary.token(templateTokens[t]));
+                }
+                template[t] = index;
+            }
+            templates[i] = template;
+            sightings[i] = cluster.sightings();
+        }
+        return new DrainSummary(tokens.toArray(new String[0]), templates, sightings);
+    }
+
+    /**
+     * @return the number of templates
+     */
+    public int size() {
+        return templates.length;
+    }
+
+    /**
+     * @param index The template index
+     * @return the tokens of the template, params are {@link Drain#PARAM_MARKER}
+     */
+    public List<String> template(int index) {
+        int[] template = templates[index];
+        String[] templateTokens = new String[template.length];
+        for (int i = 0; i < template.length; i++) {
+            templateTokens[i] = tokens[template[i]];
+        }
+        return Arrays.asList(templateTokens);
+    }
+
+    /**
+     * @param index The template index
+     * @return the sightings of the template
+     */
+    public int sightings(int index) {
+        return sightings[index];
+    }
+
+    /**
+     * Writes this summary, the stream is not closed.
+     *
+     * @param out The output stream
+     */
+    public void writeTo(@Nonnull OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        writeVarInt(data, tokens.length);
+        for (String token : tokens) {
+            writeString(data, token);
+        }
+        writeVarInt(data, templates.length);
+        for (int i = 0; i < templates.length; i++) {
+            writeVarInt(data, sightings[i]);
+            writeVarInt(data, templates[i].length);
+            for (int token : templates[i]) {
+                writeVarInt(data, token);
+            }
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads a summary written by {@link #writeTo(OutputStream)}.
+     *
+     * @param in The input stream, it is not closed
+     * @return the summary
+     * @throws IOException if the stream is not a summary
+     */
+    public static DrainSummary readFrom(@Nonnull InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a Drain summary");
+        }
+        int version = data.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported Drain summary version " + version);
+        }
+
+        String[] tokens = new String[readVarInt(data, FORMAT)];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = readString(data, FORMAT);
+        }
+        if (tokens.length == 0 || !tokens[0].equals(Drain.PARAM_MARKER)) {
+            throw new IOException("Corrupted Drain summary, missing param marker");
+        }
+
+        int templateCount = readVarInt(data, FORMAT);
+        int[][] templates = new int[templateCount][];
+        int[] sightings = new int[templateCount];
+        for (int i = 0; i < templateCount; i++) {
+            sightings[i] = readVarInt(data, FORMAT);
+            int[] template = new int[readVarInt(data, FORMAT)];
+            for (int t = 0; t < template.length; t++) {
+                template[t] = readVarInt(data, FORMAT);
+                if (template[t] >= tokens.length) {
+                    throw new IOException("Corrupted Drain summary, unknown token " + template[t]);
+                }
+            }
+            templates[i] = template;
+        }
+        return new DrainSummary(tokens, templates, sightings);
+    }
+}
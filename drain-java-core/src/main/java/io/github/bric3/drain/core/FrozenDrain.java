@@ -0,0 +1,347 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+
+/**
+ * Read-only snapshot of a {@link Drain} model, compiled for classification.
+ * <p>
+ * The prefix tree and the templates are flattened in immutable arrays:
+ * hashed child tables, contiguous template storage and int cluster
+ * indexes. Instances are safe to share across any number of threads
+ * without locking, and searching a log message doesn't allocate.
+ *
+ * <p>
+ * Example use:
+ * <pre><code>
+ * FrozenDrain frozenDrain = drain.freeze();
+ *
+ * LogCluster logCluster = frozenDrain.searchLogMessage(message);
+ * </code></pre>
+ *
+ * @see Drain#freeze()
+ */
+public final class FrozenDrain {
+    /**
+     * Cluster index returned when no cluster matches.
+     */
+    public static final int NO_MATCH = -1;
+
+    private final double similarityThreshold;
+    private final Tokenizer tokenizer;
+
+    // package-private from here, DrainImage writes these as they are
+    final int depth;
+    final String delimiters;
+    final TokenDictionary dictionary;
+
+    /**
+     * Node index of the first level nodes, indexed by token count.
+     */
+    final int[] tokenCountNodes;
+
+    // nodes
+    final int[] childTableOffsets;
+    final int[] childTableSizes;
+    final int[] clustersStarts;
+    final int[] clustersEnds;
+
+    // child tables, by slices of each node
+    final int[] childKeys;
+    final int[] childNodes;
+
+    // cluster indexes of the nodes, by slices of each node
+    final int[] nodeClusters;
+
+    // clusters
+    final int[] templateOffsets;
+    final int[] templateTokens;
+    final int[] paramCounts;
+    final LogCluster[] clusters;
+
+    /**
+     * Minimum similar tokens to reach the similarity threshold, indexed by token count.
+     */
+    final int[] minSimilarTokens;
+
+    FrozenDrain(@Nonnull Drain drain) {
+        this.depth = drain.depth;
+        this.similarityThreshold = drain.similarityThreshold;
+        this.delimiters = drain.delimiters;
+        this.tokenizer = new Tokenizer(delimiters);
+        this.dictionary = drain.dictionary.copy();
+
+        // clusters and contiguous templates
+        List<InternalLogCluster> internalClusters = drain.internalClusters();
+        IdentityHashMap<InternalLogCluster, Integer> clusterIndexes = new IdentityHashMap<>();
+        clusters = new LogCluster[internalClusters.size()];
+        templateOffsets = new int[internalClusters.size()];
+        paramCounts = new int[internalClusters.size()];
+        int templatesLength = 0;
+        for (InternalLogCluster cluster : internalClusters) {
+            templatesLength += cluster.internalTokens().length;
+        }
+        templateTokens = new int[templatesLength];
+        int templateOffset = 0;
+        for (int i = 0; i < clusters.length; i++) {
+            InternalLogCluster cluster = internalClusters.get(i);
+            int[] tokens = cluster.internalTokens();
+            clusterIndexes.put(cluster, i);
+            clusters[i] = new FrozenLogCluster(cluster.clusterId(),
+                                               dictionary.tokens(tokens),
+                                               cluster.sightings());
+            templateOffsets[i] = templateOffset;
+            paramCounts[i] = cluster.paramCount();
+            System.arraycopy(tokens, 0, templateTokens, templateOffset, tokens.length);
+            templateOffset += tokens.length;
+        }
+
+        // number the nodes breadth first
+        List<Node> nodes = new ArrayList<>();
+        IdentityHashMap<Node, Integer> nodeIndexes = new IdentityHashMap<>();
+        Map<Integer, Node> tokenCounts = drain.prefixTree().childMappings();
+        int maxTokenCount = -1;
+        for (Node node : tokenCounts.values()) {
+            maxTokenCount = Math.max(maxTokenCount, node.key);
+            nodeIndexes.put(node, nodes.size());
+            nodes.add(node);
+        }
+        for (int i = 0; i < nodes.size(); i++) {
+            for (Node child : nodes.get(i).childMappings().values()) {
+                nodeIndexes.put(child, nodes.size());
+                nodes.add(child);
+            }
+        }
+
+        tokenCountNodes = new int[maxTokenCount + 1];
+        minSimilarTokens = new int[maxTokenCount + 1];
+        for (int tokensCount = 1; tokensCount <= maxTokenCount; tokensCount++) {
+            minSimilarTokens[tokensCount] = drain.minSimilarTokens(tokensCount);
+        }
+        Arrays.fill(tokenCountNodes, -1);
+        for (Node node : tokenCounts.values()) {
+            tokenCountNodes[node.key] = nodeIndexes.get(node);
+        }
+
+        // flatten child tables and node clusters
+        childTableOffsets = new int[nodes.size()];
+        childTableSizes = new int[nodes.size()];
+        clustersStarts = new int[nodes.size()];
+        clustersEnds = new int[nodes.size()];
+        int childTablesLength = 0;
+        int nodeClustersLength = 0;
+        for (Node node : nodes) {
+            childTablesLength += tableSize(node.childrenCount());
+            nodeClustersLength += node.clustersCount();
+        }
+        childKeys = new int[childTablesLength];
+        childNodes = new int[childTablesLength];
+        Arrays.fill(childNodes, -1);
+        nodeClusters = new int[nodeClustersLength];
+
+        int childTableOffset = 0;
+        int clustersOffset = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            Node node = nodes.get(n);
+            int tableSize = tableSize(node.childrenCount());
+            childTableOffsets[n] = childTableOffset;
+            childTableSizes[n] = tableSize;
+            for (Node child : node.childMappings().values()) {
+                int mask = tableSize - 1;
+                int slot = mix(child.key) & mask;
+                while (childNodes[childTableOffset + slot] != -1) {
+                    slot = (slot + 1) & mask;
+                }
+                childKeys[childTableOffset + slot] = child.key;
+                childNodes[childTableOffset + slot] = nodeIndexes.get(child);
+            }
+            childTableOffset += tableSize;
+
+            clustersStarts[n] = clustersOffset;
+            InternalLogCluster[] clusters = node.clusters();
+            for (int i = 0; i < node.clustersCount(); i++) {
+                nodeClusters[clustersOffset++] = clusterIndexes.get(clusters[i]);
+            }
+            clustersEnds[n] = clustersOffset;
+        }
+    }
+
+    /**
+     * Search a matching log cluster given a log message.
+     *
+     * @param message The log message content
+     * @return The matching log cluster or null if no match
+     */
+    public LogCluster searchLogMessage(@Nonnull CharSequence message) {
+        int clusterIndex = searchClusterIndex(message);
+        return clusterIndex == NO_MATCH ? null : clusters[clusterIndex];
+    }
+
+    /**
+     * Search the index of a matching log cluster given a log message.
+     *
+     * @param message The log message content
+     * @return The index of the matching cluster in {@link #clusters()}, or {@link #NO_MATCH}
+     */
+    public int searchClusterIndex(@Nonnull CharSequence message) {
+        ParseContext context = ParseContext.current();
+        int tokensCount = tokenizer.tokenize(message, context.tokens);
+        int[] logTokens = context.tokenIds(tokensCount);
+        dictionary.idsOf(context.tokens, logTokens);
+
+        // at first level, children are grouped by token (word) count
+        if (tokensCount >= tokenCountNodes.length || tokenCountNodes[tokensCount] == -1) {
+            return NO_MATCH;
+        }
+        int node = tokenCountNodes[tokensCount];
+
+        // handle case of empty log string - return the single cluster in that group
+        if (tokensCount == 0) {
+            return clustersStarts[node] < clustersEnds[node] ? nodeClusters[clustersStarts[node]] : NO_MATCH;
+        }
+
+        // find the leaf node for this log
+        int currentDepth = 1;
+        for (int token : logTokens) {
+            if (currentDepth == depth || currentDepth == tokensCount) {
+                break;
+            }
+
+            int nextNode = child(node, token);
+            if (nextNode == -1) {
+                nextNode = child(node, TokenDictionary.PARAM_ID);
+            }
+            if (nextNode == -1) {
+                return NO_MATCH;
+            }
+            node = nextNode;
+            currentDepth++;
+        }
+
+        return fastMatch(node, logTokens);
+    }
+
+    private int child(int node, int key) {
+        int tableSize = childTableSizes[node];
+        if (tableSize == 0) {
+            return -1;
+        }
+        int offset = childTableOffsets[node];
+        int mask = tableSize - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int child = childNodes[offset + slot];
+            if (child == -1 || childKeys[offset + slot] == key) {
+                return child;
+            }
+        }
+    }
+
+    /**
+     * Same pruned search as {@link Drain}, on the flattened templates.
+     */
+    private int fastMatch(int node, int[] logTokens) {
+        int tokensCount = logTokens.length;
+        int maxSimilar = minSimilarTokens[tokensCount] - 1;
+        int maxParamCount = Integer.MAX_VALUE;
+        int maxCluster = NO_MATCH;
+
+        candidates:
+        for (int i = clustersStarts[node], end = clustersEnds[node]; i < end; i++) {
+            int cluster = nodeClusters[i];
+            int offset = templateOffsets[cluster];
+            int paramCount = paramCounts[cluster];
+            // to win the candidate must be more similar, or as similar with more params
+            int minSimilar = paramCount > maxParamCount ? maxSimilar : maxSimilar + 1;
+
+            int reachable = tokensCount - paramCount;
+            if (reachable < minSimilar) {
+                continue;
+            }
+            int similarTokens = 0;
+            for (int t = 0; t < tokensCount; t++) {
+                int token = templateTokens[offset + t];
+                if (token == TokenDictionary.PARAM_ID) {
+                    continue;
+                }
+                if (token == logTokens[t]) {
+                    similarTokens++;
+                } else if (--reachable < minSimilar) {
+                    continue candidates;
+                }
+            }
+
+            maxSimilar = similarTokens;
+            maxParamCount = paramCount;
+            maxCluster = cluster;
+            if (similarTokens == tokensCount) {
+                break;
+            }
+        }
+
+        return maxCluster;
+    }
+
+    /**
+     * Returns the log clusters, as they were when this instance was frozen.
+     *
+     * @return Non modifiable list of clusters, indexed by cluster index.
+     */
+    public List<LogCluster> clusters() {
+        return Collections.unmodifiableList(Arrays.asList(clusters));
+    }
+
+    static int tableSize(int count) {
+        return count == 0 ? 0 : Integer.highestOneBit(count * 2 - 1) << 1;
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static final class FrozenLogCluster implements LogCluster {
+        private final UUID clusterId;
+        private final List<String> tokens;
+        private final int sightings;
+
+        FrozenLogCluster(UUID clusterId, List<String> tokens, int sightings) {
+            this.clusterId = clusterId;
+            this.tokens = Collections.unmodifiableList(new ArrayList<>(tokens));
+            this.sightings = sightings;
+        }
+
+        @Override
+        public UUID clusterId() {
+            return clusterId;
+        }
+
+        @Override
+        public List<String> tokens() {
+            return tokens;
+        }
+
+        @Override
+        public int sightings() {
+            return sightings;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (size %d): %s",
+                                 clusterId,
+                                 sightings,
+                                 String.join(" ", tokens));
+        }
+    }
+}
@@ -11,6 +11,7 @@ package io.github.bric3.drain.core;
 
 
 import javax.annotation.Nonnull;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 /**
@@ -25,22 +26,43 @@ import java.util.*;
  * @license MIT
  */
 class InternalLogCluster implements LogCluster {
+    private final TokenDictionary dictionary;
     private final UUID clusterId;
+    private volatile TemplateId templateId;
     private int sightings = 1;
-    private List<String> logTemplateTokens;
+    private volatile int[] logTemplateTokens;
+    private int paramCount;
 
-    InternalLogCluster(@Nonnull List<String> logTemplateTokens) {
-        this.clusterId = UUID.randomUUID();
-        this.logTemplateTokens = logTemplateTokens;
+    // maintained by Drain, to evict the cluster in O(1)
+    int index;
+    Node leaf;
+    int leafSlot;
+    InternalLogCluster lruPrevious;
+    InternalLogCluster lruNext;
+
+    // maintained by DrainJournal, whether the cluster changed since the last checkpoint
+    boolean journalPending;
+
+    InternalLogCluster(@Nonnull TokenDictionary dictionary,
+                       @Nonnull int[] logTemplateTokens) {
+        this(dictionary, UUID.randomUUID(), logTemplateTokens);
     }
 
-    // for deserialization
-    private InternalLogCluster(UUID clusterId,
-                               int sightings,
-                               List<String> logTemplateTokens) {
+    InternalLogCluster(@Nonnull TokenDictionary dictionary,
+                       @Nonnull UUID clusterId,
+                       @Nonnull int[] logTemplateTokens) {
+        this.dictionary = dictionary;
         this.clusterId = clusterId;
+        updateTokens(logTemplateTokens);
+    }
+
+    // for deserialization
+    InternalLogCluster(@Nonnull TokenDictionary dictionary,
+                       @Nonnull UUID clusterId,
+                       int sightings,
+                       int[] logTemplateTokens) {
+        this(dictionary, clusterId, logTemplateTokens);
         this.sightings = sightings;
-        this.logTemplateTokens = logTemplateTokens;
     }
 
     /**
@@ -53,10 +75,54 @@ class InternalLogCluster implements LogCluster {
         return clusterId;
     }
 
-    List<String> internalTokens() {
+    /**
+     * The template identifier, computed on demand for each version of the template.
+     *
+     * @return template identifier.
+     */
+    @Override
+    public UUID templateId() {
+        int[] tokens = logTemplateTokens;
+        TemplateId id = templateId;
+        if (id == null || id.tokens != tokens) {
+            id = templateId = new TemplateId(tokens, templateId(dictionary.tokens(tokens)));
+        }
+        return id.templateId;
+    }
+
+    /**
+     * @param tokens The template tokens
+     * @return the name based identifier of the template
+     */
+    static UUID templateId(@Nonnull List<String> tokens) {
+        // tokens never contain a space, the joined tokens identify the template
+        return UUID.nameUUIDFromBytes(String.join(" ", tokens).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Identifier of a version of the template, computed on demand.
+     */
+    private static final class TemplateId {
+        final int[] tokens;
+        final UUID templateId;
+
+        TemplateId(int[] tokens, UUID templateId) {
+            this.tokens = tokens;
+            this.templateId = templateId;
+        }
+    }
+
+    int[] internalTokens() {
         return logTemplateTokens;
     }
 
+    /**
+     * @return the number of param markers in the template.
+     */
+    int paramCount() {
+        return paramCount;
+    }
+
     /**
      * List of the tokens for this LogCLuster
      *
@@ -64,38 +130,117 @@ class InternalLogCluster implements LogCluster {
      */
     @Override
     public List<String> tokens() {
-        return Collections.unmodifiableList(logTemplateTokens);
+        // a copy, the token ids are remapped when the dictionary is compacted
+        int[] templateTokens = logTemplateTokens;
+        String[] tokens = new String[templateTokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = dictionary.token(templateTokens[i]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(tokens));
+    }
+
+    /**
+     * Maps the template tokens to their new ids, after a compaction of the dictionary.
+     * <p>
+     * In place, the template is the same, only its token ids change.
+     */
+    void remapTokens(int[] ids) {
+        int[] templateTokens = logTemplateTokens;
+        for (int i = 0; i < templateTokens.length; i++) {
+            templateTokens[i] = ids[templateTokens[i]];
+        }
     }
 
-    void updateTokens(List<String> newTemplateTokens) {
+    void updateTokens(int[] newTemplateTokens) {
+        int newParamCount = 0;
+        for (int token : newTemplateTokens) {
+            if (token == TokenDictionary.PARAM_ID) {
+                newParamCount++;
+            }
+        }
+        paramCount = newParamCount;
         logTemplateTokens = newTemplateTokens;
     }
 
-    void newSighting(List<String> contentTokens) {
-        List<String> newTemplateTokens = updateTemplate(contentTokens, logTemplateTokens);
-        if (!newTemplateTokens.equals(logTemplateTokens)) {
+    /**
+     * Records a sighting of a log message, generalizing the template if necessary.
+     *
+     * @return whether the template changed.
+     */
+    boolean newSighting(int[] contentTokens) {
+        int[] newTemplateTokens = updateTemplate(contentTokens, logTemplateTokens);
+        boolean updated = newTemplateTokens != logTemplateTokens;
+        if (updated) {
             updateTokens(newTemplateTokens);
         }
 
+        newSighting();
+        return updated;
+    }
+
+    /**
+     * Records a sighting of a log message that doesn't change the template.
+     */
+    void newSighting() {
         sightings++;
     }
 
-    @Nonnull
-    List<String> updateTemplate(@Nonnull List<String> contentTokens,
-                                @Nonnull List<String> templateTokens) {
-        assert contentTokens.size() == templateTokens.size();
-        List<String> newTemplate = new ArrayList<String>(contentTokens.size());
-
-        for (int i = 0, tokensSize = contentTokens.size(); i < tokensSize; i++) {
-            String contentToken = contentTokens.get(i);
-            String templateToken = templateTokens.get(i);
-            // TODO change to replace value at index
-            if (contentToken.equals(templateToken)) {
-                newTemplate.add(contentToken);
-            } else {
-                newTemplate.add(Drain.PARAM_MARKER); // replace contentToken by a marker
+    /**
+     * Records the sightings of a template from another model, generalizing
+     * the template if necessary.
+     *
+     * @return whether the template changed.
+     */
+    boolean merge(int[] templateTokens, int sightings) {
+        int[] newTemplateTokens = updateTemplate(templateTokens, logTemplateTokens);
+        boolean updated = newTemplateTokens != logTemplateTokens;
+        if (updated) {
+            updateTokens(newTemplateTokens);
+        }
+
+        addSightings(sightings);
+        return updated;
+    }
+
+    void addSightings(int count) {
+        sightings += count;
+    }
+
+    /**
+     * @return whether the content tokens are equal to the template tokens, or to a param marker.
+     */
+    boolean isTemplateOf(@Nonnull int[] contentTokens) {
+        int[] templateTokens = logTemplateTokens;
+        if (templateTokens.length != contentTokens.length) {
+            return false;
+        }
+        for (int i = 0; i < templateTokens.length; i++) {
+            if (templateTokens[i] != TokenDictionary.PARAM_ID && templateTokens[i] != contentTokens[i]) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    /**
+     * Generalize the template tokens that differ from the content tokens.
+     *
+     * @return the template tokens if they are unchanged, a new template otherwise.
+     */
+    @Nonnull
+    int[] updateTemplate(@Nonnull int[] contentTokens,
+                         @Nonnull int[] templateTokens) {
+        assert contentTokens.length == templateTokens.length;
+        int[] newTemplate = templateTokens;
 
+        for (int i = 0, tokensSize = contentTokens.length; i < tokensSize; i++) {
+            if (templateTokens[i] != TokenDictionary.PARAM_ID
+                && contentTokens[i] != templateTokens[i]) {
+                if (newTemplate == templateTokens) {
+                    newTemplate = templateTokens.clone();
+                }
+                newTemplate[i] = TokenDictionary.PARAM_ID; // replace contentToken by a marker
+            }
         }
 
         return newTemplate;
@@ -114,9 +259,9 @@ class InternalLogCluster implements LogCluster {
     @Override
     public String toString() {
         return String.format("%s (size %d): %s",
-                             clusterId,
-                             sightings,
-                             String.join(" ", logTemplateTokens));
+                             clusterId(),
+                             sightings(),
+                             String.join(" ", tokens()));
     }
 
     @Override
@@ -124,11 +269,11 @@ class InternalLogCluster implements LogCluster {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         InternalLogCluster that = (InternalLogCluster) o;
-        return sightings == that.sightings && clusterId.equals(that.clusterId) && logTemplateTokens.equals(that.logTemplateTokens);
+        return sightings() == that.sightings() && Arrays.equals(logTemplateTokens, that.logTemplateTokens);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(clusterId, sightings, logTemplateTokens);
+        return Objects.hash(sightings(), Arrays.hashCode(logTemplateTokens));
     }
 }
@@ -10,10 +10,23 @@ import java.util.UUID;
  */
 public interface LogCluster {
     /**
-     * @return the cluster identifier.
+     * @return the cluster identifier, stable for the life of the cluster, even when its template is generalized.
      */
     UUID clusterId();
 
+    /**
+     * The template identifier, derived from the template tokens.
+     * <p>
+     * The same template has the same identifier in any model, e.g. to
+     * match the patterns of different hosts. The identifier changes when
+     * the template is generalized, and clusters may share a template.
+     *
+     * @return the template identifier.
+     */
+    default UUID templateId() {
+        return InternalLogCluster.templateId(tokens());
+    }
+
     /**
      * @return the list of tokens.
      */
@@ -0,0 +1,160 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Bounded cache of the cluster matched by an exact log message.
+ * <p>
+ * Entries are grouped in sets of {@link #WAYS} slots selected by the
+ * message hash, each set evicts with its own CLOCK hand, so lookups and
+ * insertions are O(1) and the memory is bounded by the capacity.
+ *
+ * <p>
+ * An entry records the version of the token count subtree of the message,
+ * see {@link Node#version()}. When a cluster of this subtree is created
+ * or when a template is generalized, the tree search could yield another
+ * result, so the entry becomes stale.
+ */
+class MessageCache {
+    private static final int WAYS = 8;
+
+    private final int setMask;
+    private final int[] hashes;
+    private final String[] messages;
+    private final InternalLogCluster[] clusters;
+    private final Node[] subtrees;
+    private final int[] versions;
+    private final boolean[] referenced;
+    private final int[] hands;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * @param capacity The maximum number of cached messages, rounded up to a power of two
+     */
+    MessageCache(int capacity) {
+        int sets = Math.max(1, Integer.highestOneBit(Math.max(1, capacity - 1) << 1) / WAYS);
+        setMask = sets - 1;
+        hashes = new int[sets * WAYS];
+        messages = new String[sets * WAYS];
+        clusters = new InternalLogCluster[sets * WAYS];
+        subtrees = new Node[sets * WAYS];
+        versions = new int[sets * WAYS];
+        referenced = new boolean[sets * WAYS];
+        hands = new int[sets];
+    }
+
+    /**
+     * Same hash as {@link String#hashCode()} on the message.
+     */
+    static int hash(@Nonnull CharSequence message) {
+        if (message instanceof String) {
+            return message.hashCode();
+        }
+        int h = 0;
+        for (int i = 0, length = message.length(); i < length; i++) {
+            h = 31 * h + message.charAt(i);
+        }
+        return h;
+    }
+
+    /**
+     * @param message The log message
+     * @param hash    The log message hash
+     * @return the cluster previously matched by this exact message, or null
+     */
+    @Nullable
+    InternalLogCluster get(@Nonnull CharSequence message, int hash) {
+        int set = set(hash);
+        for (int slot = set * WAYS, end = slot + WAYS; slot < end; slot++) {
+            if (hashes[slot] == hash && messages[slot] != null && contentEquals(messages[slot], message)) {
+                if (subtrees[slot].version() == versions[slot]) {
+                    referenced[slot] = true;
+                    hits++;
+                    return clusters[slot];
+                }
+                clear(slot);
+                break;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Cache the matched cluster of a message, the message must not be cached already.
+     *
+     * @param message The log message
+     * @param hash    The log message hash
+     * @param cluster The matched cluster
+     * @param subtree The token count subtree of the message
+     */
+    void put(@Nonnull CharSequence message, int hash, @Nonnull InternalLogCluster cluster, @Nonnull Node subtree) {
+        int set = set(hash);
+        int base = set * WAYS;
+        int hand = hands[set];
+        int slot;
+        while (true) {
+            slot = base + hand;
+            hand = (hand + 1) & (WAYS - 1);
+            if (messages[slot] == null || !referenced[slot]) {
+                break;
+            }
+            referenced[slot] = false;
+        }
+        hands[set] = hand;
+
+        hashes[slot] = hash;
+        messages[slot] = message.toString();
+        clusters[slot] = cluster;
+        subtrees[slot] = subtree;
+        versions[slot] = subtree.version();
+        referenced[slot] = false;
+    }
+
+    private void clear(int slot) {
+        messages[slot] = null;
+        clusters[slot] = null;
+        subtrees[slot] = null;
+        referenced[slot] = false;
+    }
+
+    private int set(int hash) {
+        int h = hash * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & setMask;
+    }
+
+    private static boolean contentEquals(String cached, CharSequence message) {
+        if (message instanceof String) {
+            return cached.equals(message);
+        }
+        return cached.contentEquals(message);
+    }
+
+    long hits() {
+        return hits;
+    }
+
+    long misses() {
+        return misses;
+    }
+
+    /**
+     * @return the ratio of lookups that found a valid entry, 0 if there was no lookup
+     */
+    double hitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0d : (double) hits / lookups;
+    }
+}
@@ -11,59 +11,274 @@ package io.github.bric3.drain.core;
 
 import java.util.*;
 
+/**
+ * Prefix tree node.
+ * <p>
+ * At depth 1 the key is the token count of the log messages, deeper
+ * the key is a token id of the {@link TokenDictionary}.
+ * Children are stored in a primitive open addressing table to avoid
+ * boxing the int keys.
+ *
+ * <p>
+ * Adding a child or a cluster copies the children table or the clusters
+ * array on write, and publishes it through a volatile field. So lookups
+ * concurrent to an addition, e.g. under an optimistic read, always see a
+ * consistent snapshot of a node.
+ *
+ * <p>
+ * Removals only happen on eviction, which has no concurrent readers.
+ * They modify the arrays in place so an eviction costs O(1): the last
+ * cluster of the node takes the slot of the removed one, and the removed
+ * child is deleted from the children table by shifting back the following
+ * entries of its probe sequence. The clusters array then keeps free
+ * trailing slots, the next added cluster takes the first one in place.
+ */
 class Node {
+    static final int ROOT_KEY = -1;
+    private static final Node[] NO_NODES = new Node[0];
+    private static final InternalLogCluster[] NO_CLUSTERS = new InternalLogCluster[0];
+
     final int depth;
-    final Object key;
-    private final HashMap<Object, Node> keyToChildNode;
-    private final List<InternalLogCluster> clusters;
+    int key;
+    private Node parent;
+    private volatile Node[] children;
+    private int childrenCount;
+    private volatile InternalLogCluster[] clusters;
+    private int clustersCount;
+    private int version;
 
-    public Node(Object key, int depth) {
+    public Node(int key, int depth) {
         this.key = key;
         this.depth = depth;
-        this.keyToChildNode = new HashMap<>();
-        this.clusters = new ArrayList<>();
+        this.children = NO_NODES;
+        this.clusters = NO_CLUSTERS;
     }
 
-    Node(Object key, int depth, HashMap<Object, Node> keyToChildNode, List<InternalLogCluster> clusters) {
-        this.depth = depth;
-        this.key = key;
-        this.keyToChildNode = keyToChildNode;
-        this.clusters = clusters;
+    Node(int key, int depth, Collection<Node> children, Collection<InternalLogCluster> clusters) {
+        this(key, depth);
+        InternalLogCluster[] array = clusters.toArray(NO_CLUSTERS);
+        for (int i = 0; i < array.length; i++) {
+            array[i].leafSlot = i;
+        }
+        this.clusters = array;
+        this.clustersCount = array.length;
+        Node[] table = new Node[tableSize(children.size())];
+        for (Node child : children) {
+            if (insert(table, child)) {
+                childrenCount++;
+            }
+            child.parent = this;
+        }
+        this.children = table;
+    }
+
+    public Node get(int key) {
+        Node[] table = children;
+        int mask = table.length - 1;
+        for (int slot = mix(key) & mask, probe = 0; probe < table.length; slot = (slot + 1) & mask, probe++) {
+            Node child = table[slot];
+            if (child == null || child.key == key) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    public Node getOrCreateChild(int key) {
+        Node child = get(key);
+        if (child == null) {
+            child = new Node(key, depth + 1);
+            child.parent = this;
+            putChild(child);
+        }
+        return child;
+    }
+
+    private void putChild(Node child) {
+        Node[] table = new Node[tableSize(childrenCount + 1)];
+        for (Node existing : children) {
+            if (existing != null) {
+                insert(table, existing);
+            }
+        }
+        if (insert(table, child)) {
+            childrenCount++;
+        }
+        children = table;
+    }
+
+    /**
+     * Removes a child in place, the entries of its probe sequence that
+     * follow are shifted back so lookups don't need tombstones.
+     * <p>
+     * Only for eviction, there must be no concurrent lookups.
+     */
+    void removeChild(int key) {
+        Node[] table = children;
+        int mask = table.length - 1;
+        int free = -1;
+        for (int slot = mix(key) & mask, probe = 0; probe < table.length; slot = (slot + 1) & mask, probe++) {
+            if (table[slot] == null) {
+                return;
+            }
+            if (table[slot].key == key) {
+                free = slot;
+                break;
+            }
+        }
+        if (free == -1) {
+            return;
+        }
+        for (int slot = (free + 1) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+            int home = mix(table[slot].key) & mask;
+            // the entry can move back unless its home slot lies after the free slot
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                table[free] = table[slot];
+                free = slot;
+            }
+        }
+        table[free] = null;
+        childrenCount--;
+    }
+
+    /**
+     * Maps the token id keys of this subtree to their new ids, after a
+     * compaction of the dictionary, the children tables are rebuilt.
+     * <p>
+     * Only for eviction, there must be no concurrent lookups.
+     */
+    void remapKeys(int[] ids) {
+        Node[] table = new Node[children.length];
+        for (Node child : children) {
+            if (child != null) {
+                // token counts at depth 1, token ids deeper
+                if (child.depth > 1) {
+                    child.key = ids[child.key];
+                }
+                child.remapKeys(ids);
+                insert(table, child);
+            }
+        }
+        children = table;
     }
 
-    public Node get(Object key) {
-        return keyToChildNode.get(key);
+    /**
+     * @return the parent node, or null for the root or a detached node
+     */
+    Node parent() {
+        return parent;
     }
 
-    public <T extends String> Node getOrCreateChild(Object key) {
-        return keyToChildNode.computeIfAbsent(
-                key,
-                k -> new Node(k, depth + 1)
-        );
+    /**
+     * @return a power of two table size that keeps the load factor under 0.5
+     */
+    private static int tableSize(int count) {
+        return count == 0 ? 0 : Integer.highestOneBit(count * 2 - 1) << 1;
+    }
+
+    private static boolean insert(Node[] table, Node child) {
+        int mask = table.length - 1;
+        int slot = mix(child.key) & mask;
+        while (table[slot] != null && table[slot].key != child.key) {
+            slot = (slot + 1) & mask;
+        }
+        boolean added = table[slot] == null;
+        table[slot] = child;
+        return added;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
     InternalLogCluster clusterOf(int tokenCount) {
-        return clusters.get(tokenCount);
+        InternalLogCluster[] clusters = this.clusters;
+        return tokenCount < clusters.length ? clusters[tokenCount] : null;
     }
 
-    List<InternalLogCluster> clusters() {
+    /**
+     * @return the clusters of this node, free trailing slots are {@code null}, this array must not be modified.
+     */
+    InternalLogCluster[] clusters() {
         return clusters;
     }
 
+    int clustersCount() {
+        return clustersCount;
+    }
+
     void appendCluster(InternalLogCluster cluster) {
-        clusters.add(cluster);
+        cluster.leafSlot = clustersCount;
+        if (clustersCount < clusters.length) {
+            // a slot freed by an eviction, there are no concurrent readers
+            clusters[clustersCount++] = cluster;
+            return;
+        }
+        InternalLogCluster[] newClusters = Arrays.copyOf(clusters, clustersCount + 1);
+        newClusters[clustersCount++] = cluster;
+        clusters = newClusters;
+    }
+
+    /**
+     * Version of the templates of this subtree, only maintained on
+     * the token count nodes.
+     *
+     * @return the version, incremented each time a cluster of this subtree is created or generalized.
+     */
+    int version() {
+        return version;
     }
 
-    public boolean contains(String key) {
-        return keyToChildNode.containsKey(key);
+    void incrementVersion() {
+        version++;
+    }
+
+    /**
+     * Removes a cluster in place, the last cluster takes its slot.
+     * <p>
+     * Only for eviction, there must be no concurrent lookups.
+     */
+    void removeCluster(InternalLogCluster cluster) {
+        InternalLogCluster[] clusters = this.clusters;
+        int slot = cluster.leafSlot;
+        assert clusters[slot] == cluster : "cluster not in this node: " + cluster;
+        InternalLogCluster last = clusters[--clustersCount];
+        clusters[slot] = last;
+        last.leafSlot = slot;
+        clusters[clustersCount] = null;
+    }
+
+    /**
+     * @return whether this node has neither children nor clusters
+     */
+    boolean isEmpty() {
+        return childrenCount == 0 && clustersCount == 0;
+    }
+
+    public boolean contains(int key) {
+        return get(key) != null;
     }
 
     public int childrenCount() {
-        return keyToChildNode.size();
+        return childrenCount;
+    }
+
+    /**
+     * @return the children table, free slots are {@code null}, this array must not be modified.
+     */
+    Node[] childrenTable() {
+        return children;
     }
 
-    Map<Object, Node> childMappings() {
-        return Collections.unmodifiableMap(new HashMap<>(keyToChildNode));
+    Map<Integer, Node> childMappings() {
+        HashMap<Integer, Node> mappings = new HashMap<>();
+        for (Node child : children) {
+            if (child != null) {
+                mappings.put(child.key, child);
+            }
+        }
+        return Collections.unmodifiableMap(mappings);
     }
 
     @Override
@@ -71,12 +286,32 @@ class Node {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Node node = (Node) o;
-        return depth == node.depth && Objects.equals(key, node.key) && Objects.equals(keyToChildNode, node.keyToChildNode) && Objects.equals(clusters, node.clusters);
+        if (depth != node.depth || key != node.key
+            || childrenCount != node.childrenCount || clustersCount != node.clustersCount) {
+            return false;
+        }
+        for (Node child : children) {
+            if (child != null && !child.equals(node.get(child.key))) {
+                return false;
+            }
+        }
+        for (int i = 0; i < clustersCount; i++) {
+            if (!clusters[i].equals(node.clusters[i])) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(depth, key, keyToChildNode, clusters);
+        int childrenHash = 0;
+        for (Node child : children) {
+            if (child != null) {
+                childrenHash += child.hashCode();
+            }
+        }
+        return Objects.hash(depth, key, childrenHash, Arrays.hashCode(Arrays.copyOf(clusters, clustersCount)));
     }
 
     @Override
@@ -84,8 +319,8 @@ class Node {
         return "Node{" +
                "depth=" + depth +
                ", key=" + key +
-               ", keyToChildNode=" + keyToChildNode +
-               ", clusters=" + clusters +
+               ", keyToChildNode=" + childMappings() +
+               ", clusters=" + Arrays.toString(Arrays.copyOf(clusters, clustersCount)) +
                '}';
     }
 }
@@ -0,0 +1,52 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * Per-thread buffers used while parsing a log message.
+ * <p>
+ * The token id buffers are only valid until the next message is parsed
+ * on the same thread, they must never be retained, e.g. as a template.
+ */
+class ParseContext {
+    private static final ThreadLocal<ParseContext> CONTEXT = ThreadLocal.withInitial(ParseContext::new);
+
+    final Tokenizer.Tokens tokens = new Tokenizer.Tokens();
+
+    final ParseResult result = new ParseResult();
+
+    /**
+     * Token id buffers indexed by token count.
+     */
+    private int[][] tokenIds = new int[32][];
+
+    static ParseContext current() {
+        return CONTEXT.get();
+    }
+
+    /**
+     * @param count The token count
+     * @return a reusable token id buffer of exactly {@code count} elements
+     */
+    int[] tokenIds(int count) {
+        if (count >= tokenIds.length) {
+            tokenIds = Arrays.copyOf(tokenIds, count + 1);
+        }
+        int[] ids = tokenIds[count];
+        if (ids == null) {
+            ids = tokenIds[count] = new int[count];
+        }
+        return ids;
+    }
+}
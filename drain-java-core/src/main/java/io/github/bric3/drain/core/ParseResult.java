@@ -0,0 +1,96 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import javax.annotation.Nonnull;
+import java.util.UUID;
+
+/**
+ * Outcome of {@link Drain#parseLogMessage(CharSequence)}.
+ * <p>
+ * This is a reusable handle, each thread gets its own instance which is
+ * overwritten by the next parsed log message on this thread. So parsing
+ * doesn't allocate, but values must be read, or the cluster retained,
+ * before parsing the next log message.
+ */
+public final class ParseResult {
+    /**
+     * How the parsed log message changed the clusters.
+     */
+    public enum Status {
+        /**
+         * A new cluster was created from the log message.
+         */
+        CREATED,
+
+        /**
+         * The log message matched a cluster and generalized its template.
+         */
+        UPDATED,
+
+        /**
+         * The log message matched a cluster without changing its template.
+         */
+        UNCHANGED
+    }
+
+    private InternalLogCluster cluster;
+    private Status status;
+
+    ParseResult() {
+    }
+
+    ParseResult set(@Nonnull InternalLogCluster cluster, @Nonnull Status status) {
+        this.cluster = cluster;
+        this.status = status;
+        return this;
+    }
+
+    /**
+     * @return the cluster of the log message.
+     */
+    @Nonnull
+    public LogCluster cluster() {
+        return cluster;
+    }
+
+    InternalLogCluster internalCluster() {
+        return cluster;
+    }
+
+    /**
+     * @return how the log message changed the clusters.
+     */
+    @Nonnull
+    public Status status() {
+        return status;
+    }
+
+    /**
+     * @return the identifier of the cluster of the log message.
+     */
+    @Nonnull
+    public UUID clusterId() {
+        return cluster.clusterId();
+    }
+
+    /**
+     * @return the identifier of the template of the cluster, see {@link LogCluster#templateId()}.
+     */
+    @Nonnull
+    public UUID templateId() {
+        return cluster.templateId();
+    }
+
+    @Override
+    public String toString() {
+        return status + " " + cluster;
+    }
+}
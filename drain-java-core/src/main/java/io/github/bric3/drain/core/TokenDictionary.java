@@ -0,0 +1,358 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Token dictionary.
+ * <p>
+ * Interns each distinct token to an int identifier, so templates and
+ * the prefix tree work on {@code int[]} instead of lists of strings.
+ * The {@link Drain#PARAM_MARKER} is always registered with the id
+ * {@link #PARAM_ID}.
+ *
+ * <p>
+ * Only template tokens are interned, looking up a log message tokens
+ * doesn't grow the dictionary, unknown tokens are mapped to {@link #UNKNOWN_ID}
+ * which never matches any template token.
+ *
+ * <p>
+ * Lookups tolerate a concurrent interning, they never throw and always
+ * terminate, but the result is only meaningful if no token was interned
+ * in the meantime, see {@link ConcurrentTokenDictionary}.
+ */
+class TokenDictionary {
+    /**
+     * Identifier of the {@link Drain#PARAM_MARKER}.
+     */
+    static final int PARAM_ID = 0;
+
+    /**
+     * Identifier of a token that isn't part of the dictionary.
+     */
+    static final int UNKNOWN_ID = -1;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Tokens indexed by their id.
+     */
+    private String[] tokens;
+
+    /**
+     * Whether the token contains a digit, indexed by token id.
+     */
+    private boolean[] hasNumbers;
+
+    /**
+     * Open addressing table of token ids, {@link #UNKNOWN_ID} for free slots.
+     */
+    private int[] table;
+
+    private int size;
+
+    TokenDictionary() {
+        tokens = new String[INITIAL_CAPACITY];
+        hasNumbers = new boolean[INITIAL_CAPACITY];
+        table = new int[INITIAL_CAPACITY * 2];
+        Arrays.fill(table, UNKNOWN_ID);
+
+        int paramId = register(Drain.PARAM_MARKER, 0, Drain.PARAM_MARKER.length());
+        assert paramId == PARAM_ID;
+    }
+
+    private TokenDictionary(TokenDictionary source) {
+        tokens = source.tokens.clone();
+        hasNumbers = source.hasNumbers.clone();
+        table = source.table.clone();
+        size = source.size;
+    }
+
+    /**
+     * @return a non thread safe copy of this dictionary
+     */
+    TokenDictionary copy() {
+        return new TokenDictionary(this);
+    }
+
+    /**
+     * Lookup the id of a token without registering it.
+     *
+     * @param token The token
+     * @return the token id or {@link #UNKNOWN_ID} if the token is unknown
+     */
+    int idOf(@Nonnull String token) {
+        return idOf(token, 0, token.length());
+    }
+
+    /**
+     * Lookup the id of a token without registering it.
+     *
+     * @param content The content containing the token
+     * @param start   The start offset (inclusive) of the token
+     * @param end     The end offset (exclusive) of the token
+     * @return the token id or {@link #UNKNOWN_ID} if the token is unknown
+     */
+    int idOf(@Nonnull CharSequence content, int start, int end) {
+        return lookup(content, start, end);
+    }
+
+    /**
+     * Lookup the ids of the tokens without registering them.
+     *
+     * @param tokens The tokens of a log message
+     * @param ids    The token ids, unknown tokens are mapped to {@link #UNKNOWN_ID}
+     */
+    void idsOf(@Nonnull Tokenizer.Tokens tokens, @Nonnull int[] ids) {
+        assert ids.length == tokens.count();
+        CharSequence content = tokens.content();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = lookup(content, tokens.start(i), tokens.end(i));
+        }
+    }
+
+    private int lookup(@Nonnull CharSequence content, int start, int end) {
+        int[] table = this.table;
+        String[] tokens = this.tokens;
+        int mask = table.length - 1;
+        int slot = mix(hash(content, start, end)) & mask;
+        for (int probe = 0; probe < table.length; probe++, slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id == UNKNOWN_ID) {
+                return UNKNOWN_ID;
+            }
+            // bounds and null checks are only relevant for a racy read
+            if (id >= 0 && id < tokens.length
+                && tokens[id] != null
+                && contentEquals(tokens[id], content, start, end)) {
+                return id;
+            }
+        }
+        return UNKNOWN_ID;
+    }
+
+    /**
+     * Returns the id of the token, registering it if necessary.
+     *
+     * @param token The token
+     * @return the token id
+     */
+    int intern(@Nonnull String token) {
+        return intern(token, 0, token.length());
+    }
+
+    /**
+     * Returns the id of the token, registering it if necessary.
+     *
+     * @param content The content containing the token
+     * @param start   The start offset (inclusive) of the token
+     * @param end     The end offset (exclusive) of the token
+     * @return the token id
+     */
+    int intern(@Nonnull CharSequence content, int start, int end) {
+        return register(content, start, end);
+    }
+
+    private int register(@Nonnull CharSequence content, int start, int end) {
+        int mask = table.length - 1;
+        int slot = mix(hash(content, start, end)) & mask;
+        for (; ; slot = (slot + 1) & mask) {
+            int id = table[slot];
+            if (id == UNKNOWN_ID) {
+                break;
+            }
+            if (contentEquals(tokens[id], content, start, end)) {
+                return id;
+            }
+        }
+
+        String token = content.subSequence(start, end).toString();
+        int id = size++;
+        if (id == tokens.length) {
+            tokens = Arrays.copyOf(tokens, id * 2);
+            hasNumbers = Arrays.copyOf(hasNumbers, id * 2);
+        }
+        tokens[id] = token;
+        hasNumbers[id] = token.chars().anyMatch(Character::isDigit);
+        table[slot] = id;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return id;
+    }
+
+    /**
+     * Returns the ids of the tokens, registering them if necessary.
+     *
+     * @param tokens The tokens of a log message
+     * @return the token ids
+     */
+    int[] intern(@Nonnull Tokenizer.Tokens tokens) {
+        int[] ids = new int[tokens.count()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = intern(tokens.content(), tokens.start(i), tokens.end(i));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the ids of the tokens, registering them if necessary.
+     *
+     * @param tokens The tokens
+     * @return the token ids
+     */
+    int[] intern(@Nonnull List<String> tokens) {
+        int[] ids = new int[tokens.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = intern(tokens.get(i));
+        }
+        return ids;
+    }
+
+    /**
+     * @param id A token id
+     * @return the token of this id
+     */
+    String token(int id) {
+        assert id >= 0 && id < size : "unknown token id " + id;
+        return tokens[id];
+    }
+
+    /**
+     * @param ids Token ids
+     * @return a non modifiable list view of the tokens
+     */
+    List<String> tokens(int[] ids) {
+        return new TokenList(ids);
+    }
+
+    /**
+     * @param id A token id
+     * @return whether the token contains a digit
+     */
+    boolean hasNumber(int id) {
+        return hasNumbers[id];
+    }
+
+    /**
+     * @return the number of registered tokens, including the param marker
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Drops the tokens that are no longer referenced. The remaining tokens
+     * keep their order, so the param marker keeps the id {@link #PARAM_ID}.
+     * <p>
+     * Not thread safe, the ids held elsewhere must be remapped.
+     *
+     * @param live Whether each token is still referenced, indexed by token id
+     * @return the new id of each token, indexed by the previous id, {@link #UNKNOWN_ID} for dropped tokens
+     */
+    int[] compact(boolean[] live) {
+        assert live[PARAM_ID];
+        int[] ids = new int[size];
+        int newSize = 0;
+        for (int id = 0; id < size; id++) {
+            if (live[id]) {
+                tokens[newSize] = tokens[id];
+                hasNumbers[newSize] = hasNumbers[id];
+                ids[id] = newSize++;
+            } else {
+                ids[id] = UNKNOWN_ID;
+            }
+        }
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < newSize) {
+            capacity *= 2;
+        }
+        tokens = Arrays.copyOf(tokens, capacity);
+        hasNumbers = Arrays.copyOf(hasNumbers, capacity);
+        Arrays.fill(tokens, newSize, capacity, null);
+        size = newSize;
+        rehash(capacity * 2);
+        return ids;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] newTable = new int[newCapacity];
+        Arrays.fill(newTable, UNKNOWN_ID);
+        int mask = newCapacity - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(tokens[id].hashCode()) & mask;
+            while (newTable[slot] != UNKNOWN_ID) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id;
+        }
+        table = newTable;
+    }
+
+    /**
+     * Same hash as {@link String#hashCode()} on the token.
+     */
+    private static int hash(CharSequence content, int start, int end) {
+        if (start == 0 && end == content.length() && content instanceof String) {
+            return content.hashCode();
+        }
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + content.charAt(i);
+        }
+        return h;
+    }
+
+    private static boolean contentEquals(String token, CharSequence content, int start, int end) {
+        int length = end - start;
+        if (token.length() != length) {
+            return false;
+        }
+        if (content instanceof String) {
+            return token.regionMatches(0, (String) content, start, length);
+        }
+        for (int i = 0; i < length; i++) {
+            if (token.charAt(i) != content.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private class TokenList extends AbstractList<String> implements RandomAccess {
+        private final int[] ids;
+
+        TokenList(int[] ids) {
+            this.ids = ids;
+        }
+
+        @Override
+        public String get(int index) {
+            return token(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
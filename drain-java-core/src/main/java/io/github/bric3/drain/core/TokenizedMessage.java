@@ -0,0 +1,47 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * A log message tokenized ahead of parsing.
+ * <p>
+ * Tokenizing is the costly part of parsing a log message that doesn't
+ * need the model, it can be done on other threads with
+ * {@link Drain#tokenize(CharSequence, TokenizedMessage)}, while a single
+ * thread updates the model with {@link Drain#parseLogMessage(TokenizedMessage)}.
+ * <p>
+ * Instances are reusable, they hold token offsets in the message, not
+ * copies of the tokens. A tokenized message must not be modified
+ * concurrently, it is handed from the tokenizing thread to the parsing
+ * thread, e.g. through a queue.
+ */
+public final class TokenizedMessage {
+    final Tokenizer.Tokens tokens = new Tokenizer.Tokens();
+    int hash;
+
+    /**
+     * @return the tokenized log message
+     */
+    @Nonnull
+    public CharSequence message() {
+        return tokens.content();
+    }
+
+    /**
+     * @return the number of tokens
+     */
+    public int tokensCount() {
+        return tokens.count();
+    }
+}
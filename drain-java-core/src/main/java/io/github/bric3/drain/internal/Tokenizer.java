@@ -10,24 +10,175 @@
 package io.github.bric3.drain.internal;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.StringTokenizer;
 
 /**
  * Simple string tokenizer.
+ * <p>
+ * Splits a {@link CharSequence} on a set of delimiters, then trims
+ * each token like {@link String#trim()} and ignores empty tokens.
+ * Delimiters are looked up in a precomputed bit table, and tokens are
+ * recorded as offsets in a reusable {@link Tokens} instance, so
+ * tokenizing doesn't allocate.
  */
 public class Tokenizer {
+    private final long[] delimiters;
+    private final int limit;
+
+    /**
+     * @param delimiters The delimiting characters
+     */
+    public Tokenizer(String delimiters) {
+        int maxChar = 0;
+        for (int i = 0; i < delimiters.length(); i++) {
+            maxChar = Math.max(maxChar, delimiters.charAt(i));
+        }
+        this.delimiters = new long[(maxChar >>> 6) + 1];
+        for (int i = 0; i < delimiters.length(); i++) {
+            char c = delimiters.charAt(i);
+            this.delimiters[c >>> 6] |= 1L << c;
+        }
+        this.limit = this.delimiters.length << 6;
+    }
+
+    /**
+     * @param c A character
+     * @return whether this character is a delimiter
+     */
+    public boolean isDelimiter(char c) {
+        return c < limit && (delimiters[c >>> 6] & (1L << c)) != 0;
+    }
+
+    /**
+     * Tokenize the content.
+     *
+     * @param content The content to tokenize
+     * @param tokens  The tokens holder, it is reset before use
+     * @return the number of tokens
+     */
+    public int tokenize(CharSequence content, Tokens tokens) {
+        tokens.reset(content);
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && isDelimiter(content.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !isDelimiter(content.charAt(i))) {
+                i++;
+            }
+            int end = i;
+
+            // same as String.trim()
+            while (start < end && content.charAt(start) <= ' ') {
+                start++;
+            }
+            while (start < end && content.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (start < end) {
+                tokens.add(start, end);
+            }
+        }
+        return tokens.count;
+    }
+
+    /**
+     * Tokenize the content in a new list.
+     *
+     * @param content    The content to tokenize
+     * @param delimiters The delimiting characters
+     * @return the tokens
+     */
     public static List<String> tokenize(String content, String delimiters) {
-        StringTokenizer stringTokenizer = new StringTokenizer(content, delimiters);
+        Tokens tokens = new Tokens();
+        int count = new Tokenizer(delimiters).tokenize(content, tokens);
+
+        List<String> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(tokens.token(i));
+        }
+        return list;
+    }
+
+    /**
+     * Reusable token offsets of a tokenized content.
+     */
+    public static class Tokens {
+        private CharSequence content;
+        private int count;
+        private int[] starts = new int[32];
+        private int[] ends = new int[32];
+
+        void reset(CharSequence content) {
+            this.content = content;
+            this.count = 0;
+        }
 
-        List<String> tokens = new ArrayList<>(stringTokenizer.countTokens());
-        while (stringTokenizer.hasMoreTokens()) {
-            String trimmedToken = stringTokenizer.nextToken().trim();
-            if (!trimmedToken.isEmpty()) {
-                tokens.add(trimmedToken);
+        void add(int start, int end) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
             }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
         }
 
-        return tokens;
+        /**
+         * Copies the token offsets of another instance, the content is shared.
+         *
+         * @param other The tokens to copy
+         */
+        public void copyFrom(Tokens other) {
+            if (starts.length < other.count) {
+                starts = new int[other.starts.length];
+                ends = new int[other.ends.length];
+            }
+            System.arraycopy(other.starts, 0, starts, 0, other.count);
+            System.arraycopy(other.ends, 0, ends, 0, other.count);
+            content = other.content;
+            count = other.count;
+        }
+
+        /**
+         * @return the tokenized content
+         */
+        public CharSequence content() {
+            return content;
+        }
+
+        /**
+         * @return the number of tokens
+         */
+        public int count() {
+            return count;
+        }
+
+        /**
+         * @param index The token index
+         * @return the start offset (inclusive) of the token in the content
+         */
+        public int start(int index) {
+            return starts[index];
+        }
+
+        /**
+         * @param index The token index
+         * @return the end offset (exclusive) of the token in the content
+         */
+        public int end(int index) {
+            return ends[index];
+        }
+
+        /**
+         * @param index The token index
+         * @return a new string of the token
+         */
+        public String token(int index) {
+            return content.subSequence(starts[index], ends[index]).toString();
+        }
     }
 }
@@ -0,0 +1,88 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConcurrentDrainTest {
+
+    @Test
+    void concurrent_parsing_records_all_sightings() throws Exception {
+        List<String> lines = generateLines(100_000);
+        Drain drain = Drain.drainBuilder()
+                           .additionalDelimiters("_")
+                           .depth(4)
+                           .concurrent(true)
+                           .build();
+
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = offset; i < lines.size(); i += threads) {
+                        drain.parseLogMessage(lines.get(i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(drain.clusters().stream().mapToInt(LogCluster::sightings).sum()).isEqualTo(lines.size());
+        assertThat(templates(drain)).containsExactlyInAnyOrder(
+                "sent <*> bytes to <*>",
+                "received <*> bytes from <*> in <*> ms",
+                "Connection closed by <*> [preauth]"
+        );
+        assertThat(drain.searchLogMessage("sent 42 bytes to 10.0.0.1")).isNotNull();
+    }
+
+    private static List<String> templates(Drain drain) {
+        return drain.clusters()
+                    .stream()
+                    .map(c -> String.join(" ", c.tokens()))
+                    .collect(Collectors.toList());
+    }
+
+    private static List<String> generateLines(int count) {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String ip = "10.0." + random.nextInt(256) + "." + random.nextInt(256);
+            switch (i % 3) {
+                case 0:
+                    lines.add("sent " + random.nextInt(10_000) + " bytes to " + ip);
+                    break;
+                case 1:
+                    lines.add("received " + random.nextInt(10_000) + " bytes from " + ip + " in " + random.nextInt(500) + " ms");
+                    break;
+                default:
+                    lines.add("Connection closed by " + ip + " [preauth]");
+            }
+        }
+        return lines;
+    }
+}
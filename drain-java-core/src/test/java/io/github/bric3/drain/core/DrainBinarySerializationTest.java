@@ -0,0 +1,88 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class DrainBinarySerializationTest {
+    private final DrainBinarySerialization serde = new DrainBinarySerialization();
+
+    @Test
+    void serde_should_result_in_same_state() {
+        Drain drain = Drain.drainBuilder()
+                           .additionalDelimiters("_")
+                           .depth(4)
+                           .similarityThreshold(0.5)
+                           .build();
+        Stream.of("sent 550 bytes",
+                  "sent 110 bytes",
+                  "received 1000 bytes",
+                  "received 250 bytes",
+                  "user_id=42 logged in from 10.0.0.1",
+                  "Connection closed by peer",
+                  "café ouvert à 8h"
+        ).forEach(drain::parseLogMessage);
+
+        Drain drainReloaded = serde(drain);
+
+        assertThat(drainReloaded.depth).isEqualTo(drain.depth);
+        assertThat(drainReloaded.similarityThreshold).isEqualTo(drain.similarityThreshold);
+        assertThat(drainReloaded.delimiters).isEqualTo(drain.delimiters);
+        assertThat(drainReloaded.maxChildPerNode).isEqualTo(drain.maxChildPerNode);
+        assertThat(drainReloaded.clusters()).isEqualTo(drain.clusters());
+        assertThat(drainReloaded.clusters()).extracting(LogCluster::clusterId)
+                .containsExactlyElementsOf(drain.clusters().stream().map(LogCluster::clusterId).collect(Collectors.toList()));
+        assertThat(drainReloaded.prefixTree()).isEqualTo(drain.prefixTree());
+
+        // resumes mining
+        assertThat(drainReloaded.parseLogMessage("sent 42 bytes").status()).isEqualTo(ParseResult.Status.UNCHANGED);
+        assertThat(drainReloaded.parseLogMessage("café fermé à 20h").status()).isEqualTo(ParseResult.Status.UPDATED);
+        assertThat(drainReloaded.clusters()).hasSize(drain.clusters().size());
+    }
+
+    @Test
+    void empty_model_round_trip() {
+        Drain drain = Drain.drainBuilder().build();
+
+        assertThat(serde(drain).prefixTree()).isEqualTo(drain.prefixTree());
+    }
+
+    @Test
+    void reading_garbage_or_truncated_snapshot_fails() {
+        assertThatExceptionOfType(UncheckedIOException.class).isThrownBy(
+                () -> serde.loadState(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}))
+        );
+
+        Drain drain = Drain.drainBuilder().build();
+        drain.parseLogMessage("sent 550 bytes");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serde.saveState(drain, out);
+        byte[] truncated = Arrays.copyOf(out.toByteArray(), out.size() - 1);
+        assertThatExceptionOfType(UncheckedIOException.class).isThrownBy(
+                () -> serde.loadState(new ByteArrayInputStream(truncated))
+        );
+    }
+
+    private Drain serde(Drain drain) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serde.saveState(drain, out);
+        return serde.loadState(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DrainFastMatchTest {
+    private static final int MAX_TOKENS = 8;
+
+    @Test
+    void pruned_scan_picks_the_same_cluster_as_the_full_scan() {
+        TokenDictionary dictionary = new TokenDictionary();
+        // a tiny vocabulary, so leaves are full of ties on similarity and on param count
+        int[] vocabulary = {
+                TokenDictionary.PARAM_ID,
+                dictionary.intern("a"),
+                dictionary.intern("b"),
+                dictionary.intern("c")
+        };
+        Random random = new Random(42);
+
+        for (double threshold : boundaryThresholds()) {
+            Drain drain = Drain.drainBuilder().similarityThreshold(threshold).build();
+            for (int round = 0; round < 2_000; round++) {
+                int tokensCount = 1 + random.nextInt(MAX_TOKENS);
+                InternalLogCluster[] leaf = new InternalLogCluster[1 + random.nextInt(12)];
+                for (int i = 0; i < leaf.length; i++) {
+                    int[] template = new int[tokensCount];
+                    for (int t = 0; t < tokensCount; t++) {
+                        template[t] = vocabulary[random.nextInt(vocabulary.length)];
+                    }
+                    leaf[i] = new InternalLogCluster(dictionary, template);
+                }
+                int[] logTokens = new int[tokensCount];
+                for (int t = 0; t < tokensCount; t++) {
+                    // the param marker is replaced by a token that isn't in the dictionary
+                    int token = vocabulary[random.nextInt(vocabulary.length)];
+                    logTokens[t] = token == TokenDictionary.PARAM_ID ? TokenDictionary.UNKNOWN_ID : token;
+                }
+
+                assertThat(drain.fastMatch(leaf, logTokens))
+                        .describedAs("threshold %s, round %d", threshold, round)
+                        .isSameAs(fullScan(leaf, logTokens, threshold));
+            }
+        }
+    }
+
+    @Test
+    void frozen_drain_matches_like_the_model_at_boundary_thresholds() {
+        Random random = new Random(42);
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            int tokensCount = 1 + random.nextInt(MAX_TOKENS);
+            StringBuilder message = new StringBuilder();
+            for (int t = 0; t < tokensCount; t++) {
+                message.append(t == 0 ? "" : " ").append((char) ('a' + random.nextInt(4)));
+            }
+            messages.add(message.toString());
+        }
+
+        for (double threshold : boundaryThresholds()) {
+            Drain drain = Drain.drainBuilder().similarityThreshold(threshold).build();
+            messages.subList(0, 1_000).forEach(drain::parseLogMessage);
+            FrozenDrain frozenDrain = drain.freeze();
+
+            for (String message : messages) {
+                LogCluster expected = drain.searchLogMessage(message);
+                int clusterIndex = frozenDrain.searchClusterIndex(message);
+                assertThat(clusterIndex == FrozenDrain.NO_MATCH ? null : frozenDrain.clusters().get(clusterIndex).clusterId())
+                        .describedAs("threshold %s, message '%s'", threshold, message)
+                        .isEqualTo(expected == null ? null : expected.clusterId());
+            }
+        }
+    }
+
+    /**
+     * Thresholds landing exactly on a similar token count of some token
+     * count, and just around it.
+     */
+    private static List<Double> boundaryThresholds() {
+        List<Double> thresholds = new ArrayList<>();
+        for (int tokensCount = 1; tokensCount <= MAX_TOKENS; tokensCount++) {
+            for (int similar = 1; similar <= tokensCount; similar++) {
+                double threshold = (double) similar / tokensCount;
+                if (threshold > 0.1d && !thresholds.contains(threshold)) {
+                    thresholds.add(threshold);
+                    thresholds.add(Math.nextDown(threshold));
+                    thresholds.add(Math.nextUp(threshold));
+                }
+            }
+        }
+        thresholds.removeIf(threshold -> threshold > 1d);
+        return thresholds;
+    }
+
+    /**
+     * The scan before pruning: the most similar cluster, on par the one
+     * with the most params, if its similarity reaches the threshold.
+     */
+    private static InternalLogCluster fullScan(InternalLogCluster[] clusters, int[] logTokens, double threshold) {
+        double maxSimilarity = -1;
+        int maxParamCount = -1;
+        InternalLogCluster maxCluster = null;
+        for (InternalLogCluster cluster : clusters) {
+            int[] templateTokens = cluster.internalTokens();
+            double similarity = (double) similarTokens(templateTokens, logTokens) / templateTokens.length;
+            int paramCount = cluster.paramCount();
+            if (similarity > maxSimilarity
+                || (similarity == maxSimilarity && paramCount > maxParamCount)) {
+                maxSimilarity = similarity;
+                maxParamCount = paramCount;
+                maxCluster = cluster;
+            }
+        }
+        return maxSimilarity >= threshold ? maxCluster : null;
+    }
+
+    /**
+     * Count the template tokens equal to the log tokens, param markers
+     * are not counted.
+     */
+    private static int similarTokens(int[] templateTokens, int[] logTokens) {
+        int similarTokens = 0;
+        for (int i = 0; i < templateTokens.length; i++) {
+            int token = templateTokens[i];
+            if (token == logTokens[i] && token != TokenDictionary.PARAM_ID) {
+                similarTokens++;
+            }
+        }
+        return similarTokens;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DrainImageTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void image_matches_like_the_frozen_model() {
+        Drain drain = Drain.drainBuilder()
+                           .additionalDelimiters("_")
+                           .depth(4)
+                           .build();
+        Stream.of("sent 550 bytes",
+                  "sent 110 bytes",
+                  "received 1000 bytes",
+                  "received 250 bytes",
+                  "Connection closed by 10.0.0.1 [preauth]",
+                  "user_id=42 logged in",
+                  ""
+        ).forEach(drain::parseLogMessage);
+        FrozenDrain frozenDrain = drain.freeze();
+
+        Path path = directory.resolve("drain.image");
+        DrainImage.write(frozenDrain, path);
+        DrainImage image = DrainImage.open(path);
+
+        assertThat(image.clusters()).hasSameSizeAs(frozenDrain.clusters());
+        for (int i = 0; i < frozenDrain.clusters().size(); i++) {
+            LogCluster expected = frozenDrain.clusters().get(i);
+            LogCluster actual = image.clusters().get(i);
+            assertThat(actual.clusterId()).isEqualTo(expected.clusterId());
+            assertThat(actual.tokens()).isEqualTo(expected.tokens());
+            assertThat(actual.sightings()).isEqualTo(expected.sightings());
+        }
+        Stream.of("sent 42 bytes",
+                  "received 42 bytes",
+                  "Connection closed by 10.0.0.2 [preauth]",
+                  "user_id=7 logged in",
+                  "Connection reset by peer",
+                  "unknown",
+                  ""
+        ).forEach(message -> {
+            assertThat(image.searchClusterIndex(message)).isEqualTo(frozenDrain.searchClusterIndex(message));
+            LogCluster expected = frozenDrain.searchLogMessage(message);
+            LogCluster actual = image.searchLogMessage(message);
+            if (expected == null) {
+                assertThat(actual).isNull();
+            } else {
+                assertThat(actual.clusterId()).isEqualTo(expected.clusterId());
+                assertThat(actual.tokens()).isEqualTo(expected.tokens());
+            }
+        });
+    }
+
+    @Test
+    void written_image_replaces_the_mapped_one_without_affecting_it() {
+        Drain drain = Drain.drainBuilder().build();
+        drain.parseLogMessage("sent 550 bytes");
+        Path path = directory.resolve("drain.image");
+        DrainImage.write(drain.freeze(), path);
+        DrainImage image = DrainImage.open(path);
+
+        drain.parseLogMessage("Connection reset by peer");
+        DrainImage.write(drain.freeze(), path);
+
+        assertThat(image.clusters()).hasSize(1);
+        assertThat(image.searchLogMessage("Connection reset by peer")).isNull();
+        assertThat(DrainImage.open(path).searchLogMessage("Connection reset by peer")).isNotNull();
+    }
+
+    @Test
+    void other_files_are_rejected() throws IOException {
+        Path path = Files.write(directory.resolve("drain.image"), new byte[256]);
+
+        assertThatThrownBy(() -> DrainImage.open(path))
+                .isInstanceOf(UncheckedIOException.class)
+                .hasMessageContaining("Not a Drain image");
+    }
+}
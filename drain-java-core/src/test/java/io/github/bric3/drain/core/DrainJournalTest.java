@@ -0,0 +1,183 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class DrainJournalTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void model_is_recovered_from_the_snapshot_and_the_journal() {
+        Drain drain;
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder().maxClusters(3))) {
+            drain = journal.drain();
+            Stream.of("sent 550 bytes",
+                      "Connection closed by peer",
+                      "sent 110 bytes",
+                      "received 1000 bytes"
+            ).forEach(drain::parseLogMessage);
+            journal.checkpoint();
+
+            Stream.of("Accepted publickey for root",
+                      "sent 42 bytes",
+                      "received 250 bytes",
+                      "Accepted password for admin"
+            ).forEach(drain::parseLogMessage);
+        }
+
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            Drain recovered = journal.drain();
+
+            assertThat(recovered.clusters()).isEqualTo(drain.clusters());
+            assertThat(recovered.clusters()).extracting(LogCluster::clusterId)
+                    .containsExactlyElementsOf(drain.clusters().stream().map(LogCluster::clusterId).collect(Collectors.toList()));
+            assertThat(recovered.prefixTree()).isEqualTo(drain.prefixTree());
+            assertThat(recovered.parseLogMessage("sent 7 bytes").status()).isEqualTo(ParseResult.Status.UNCHANGED);
+        }
+    }
+
+    @Test
+    void recovery_stops_at_the_last_complete_checkpoint() throws IOException {
+        Drain checkpointed;
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            Drain drain = journal.drain();
+            drain.parseLogMessage("sent 550 bytes");
+            drain.parseLogMessage("sent 110 bytes");
+            journal.checkpoint();
+            checkpointed = copy(drain);
+
+            drain.parseLogMessage("Connection closed by peer");
+            journal.checkpoint();
+        }
+        // a crash while writing the last checkpoint
+        Path journalFile = directory.resolve("drain-1.journal");
+        try (RandomAccessFile file = new RandomAccessFile(journalFile.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            assertThat(journal.drain().clusters()).isEqualTo(checkpointed.clusters());
+            assertThat(journal.drain().prefixTree()).isEqualTo(checkpointed.prefixTree());
+        }
+    }
+
+    @Test
+    void compaction_folds_the_journal_in_a_new_snapshot() throws IOException {
+        Drain drain;
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            drain = journal.drain();
+            drain.parseLogMessage("sent 550 bytes");
+            journal.checkpoint();
+            journal.compact(null);
+            drain.parseLogMessage("sent 110 bytes");
+
+            assertThat(journal.checkpoint()).isPositive();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            assertThat(files).extracting(file -> file.getFileName().toString())
+                             .containsExactlyInAnyOrder("drain-2.snapshot", "drain-2.journal");
+        }
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            assertThat(journal.drain().clusters()).isEqualTo(drain.clusters());
+            assertThat(journal.checkpoint()).isZero();
+        }
+    }
+
+    @Test
+    void checkpoint_metadata_is_recovered_with_the_model() {
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            assertThat(journal.metadata()).isNull();
+            journal.drain().parseLogMessage("sent 550 bytes");
+            journal.checkpoint("position=15");
+            journal.compact(null);
+            assertThat(journal.metadata()).isEqualTo("position=15");
+
+            journal.drain().parseLogMessage("sent 110 bytes");
+            journal.checkpoint("position=30");
+            journal.drain().parseLogMessage("sent 42 bytes");
+            journal.checkpoint(null);
+            assertThat(journal.metadata()).isEqualTo("position=30");
+        }
+
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            assertThat(journal.metadata()).isEqualTo("position=30");
+            assertThat(journal.drain().clusters()).extracting(LogCluster::sightings).containsExactly(3);
+
+            journal.drain().parseLogMessage("sent 7 bytes");
+            journal.compact("position=45");
+        }
+
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            assertThat(journal.metadata()).isEqualTo("position=45");
+            assertThat(journal.drain().clusters()).extracting(LogCluster::sightings).containsExactly(4);
+        }
+    }
+
+    @Test
+    void recovered_model_gets_the_max_clusters_and_the_message_cache() {
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder().maxClusters(3))) {
+            Stream.of("sent 550 bytes",
+                      "Connection closed by peer",
+                      "Accepted publickey for root"
+            ).forEach(journal.drain()::parseLogMessage);
+        }
+
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder().maxClusters(2).messageCacheSize(16))) {
+            Drain recovered = journal.drain();
+            assertThat(recovered.clusters()).hasSize(2);
+            assertThat(recovered.searchLogMessage("sent 550 bytes")).isNull();
+
+            recovered.parseLogMessage("Failed password for admin");
+            recovered.parseLogMessage("Failed password for admin");
+            recovered.parseLogMessage("Failed password for admin");
+
+            assertThat(recovered.clusters())
+                    .extracting(LogCluster::tokens)
+                    .extracting(tokens -> String.join(" ", tokens))
+                    .containsExactlyInAnyOrder("Accepted publickey for root",
+                                               "Failed password for admin");
+            assertThat(recovered.messageCacheHitRatio()).isPositive();
+        }
+
+        try (DrainJournal journal = DrainJournal.open(directory, Drain.drainBuilder())) {
+            assertThat(journal.drain().clusters()).hasSize(2);
+        }
+    }
+
+    @Test
+    void concurrent_drain_is_not_supported() {
+        assertThatIllegalStateException().isThrownBy(
+                () -> DrainJournal.open(directory, Drain.drainBuilder().concurrent(true))
+        );
+    }
+
+    private static Drain copy(Drain drain) {
+        DrainBinarySerialization serde = new DrainBinarySerialization();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serde.saveState(drain, out);
+        return serde.loadState(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DrainMaxChildPerNodeTest {
+
+    @Test
+    void last_child_of_a_full_node_is_the_param_node() {
+        Drain drain = Drain.drainBuilder().maxChildPerNode(3).build();
+
+        // no digit, so each first token is a candidate child of the token count node
+        Stream.of("alpha request served",
+                  "beta request served",
+                  "gamma request served",
+                  "delta request served"
+        ).forEach(drain::parseLogMessage);
+
+        Node tokenCountNode = drain.prefixTree().get(3);
+        assertThat(tokenCountNode.childrenCount()).isEqualTo(3);
+        assertThat(tokenCountNode.childMappings()).containsOnlyKeys(drain.dictionary().idOf("alpha"),
+                                                                    drain.dictionary().idOf("beta"),
+                                                                    TokenDictionary.PARAM_ID);
+        assertThat(drain.clusters())
+                .extracting(cluster -> cluster.sightings() + " " + String.join(" ", cluster.tokens()))
+                .containsExactlyInAnyOrder("1 alpha request served",
+                                           "1 beta request served",
+                                           "2 <*> request served");
+    }
+
+    @Test
+    void full_node_without_param_child_gets_one() {
+        Drain drain = Drain.drainBuilder().maxChildPerNode(2).build();
+        drain.parseLogMessage("alpha request served");
+
+        // a tree saved by an older version could fill a node with token children only
+        Node tokenCountNode = drain.prefixTree().get(3);
+        tokenCountNode.getOrCreateChild(drain.dictionary().intern("beta"));
+        assertThat(tokenCountNode.childMappings()).doesNotContainKey(TokenDictionary.PARAM_ID);
+
+        drain.parseLogMessage("gamma request served");
+
+        assertThat(tokenCountNode.childMappings()).containsKey(TokenDictionary.PARAM_ID);
+        assertThat(drain.searchLogMessage("gamma request served")).isNotNull();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DrainMaxClustersTest {
+
+    @Test
+    void least_recently_matched_cluster_is_evicted() {
+        Drain drain = Drain.drainBuilder().maxClusters(2).build();
+        drain.parseLogMessage("sent 550 bytes");
+        drain.parseLogMessage("Connection closed by peer");
+        drain.parseLogMessage("sent 110 bytes");
+
+        drain.parseLogMessage("Accepted publickey for root");
+
+        assertThat(drain.clusters())
+                .extracting(LogCluster::tokens)
+                .extracting(tokens -> String.join(" ", tokens))
+                .containsExactlyInAnyOrder("sent <*> bytes",
+                                           "Accepted publickey for root");
+        assertThat(drain.searchLogMessage("Connection closed by peer")).isNull();
+        assertThat(drain.prefixTree().get(4).childMappings()).containsOnlyKeys(drain.dictionary().idOf("Accepted"));
+    }
+
+    @Test
+    void last_cluster_of_the_leaf_takes_the_evicted_slot() {
+        Drain drain = Drain.drainBuilder().maxClusters(3).build();
+        LogCluster alpha = drain.parseLogMessage("user login alpha bravo charlie delta").cluster();
+        drain.parseLogMessage("user login echo foxtrot golf hotel");
+        LogCluster india = drain.parseLogMessage("user login india juliet kilo lima").cluster();
+        drain.parseLogMessage("user login alpha bravo charlie delta");
+
+        LogCluster mike = drain.parseLogMessage("user login mike november oscar papa").cluster();
+
+        Node leaf = ((InternalLogCluster) alpha).leaf;
+        InternalLogCluster[] clusters = leaf.clusters();
+        assertThat(leaf.clustersCount()).isEqualTo(3);
+        assertThat(clusters).containsExactly(alpha, mike, india, null);
+        assertThat(drain.searchLogMessage("user login echo foxtrot golf hotel")).isNull();
+
+        LogCluster quebec = drain.parseLogMessage("user login quebec romeo sierra tango").cluster();
+
+        assertThat(leaf.clusters()).isSameAs(clusters)
+                                   .containsExactly(alpha, mike, quebec, null);
+        assertThat(drain.searchLogMessage("user login india juliet kilo lima")).isNull();
+    }
+
+    @Test
+    void evicted_children_leave_the_other_children_reachable() {
+        Drain drain = Drain.drainBuilder().maxClusters(8).build();
+        for (int i = 0; i < 40; i++) {
+            drain.parseLogMessage("" + (char) ('a' + i % 26) + (char) ('a' + i / 26) + " connected");
+        }
+
+        assertThat(drain.prefixTree().get(2).childrenCount()).isEqualTo(8);
+        for (LogCluster cluster : drain.clusters()) {
+            assertThat(drain.searchLogMessage(String.join(" ", cluster.tokens()))).isSameAs(cluster);
+        }
+    }
+
+    @Test
+    void dictionary_drops_the_tokens_of_evicted_clusters() {
+        Drain drain = Drain.drainBuilder().maxClusters(10).build();
+
+        for (int i = 0; i < 10_000; i++) {
+            drain.parseLogMessage("job" + i + " done w" + i + " x" + i);
+        }
+
+        assertThat(drain.dictionary().size()).isLessThan(100);
+        assertThat(drain.searchLogMessage("job9999 done w9999 x9999").tokens())
+                .containsExactly("job9999", "done", "w9999", "x9999");
+        for (LogCluster cluster : drain.clusters()) {
+            assertThat(drain.searchLogMessage(String.join(" ", cluster.tokens()))).isSameAs(cluster);
+        }
+    }
+
+    @Test
+    void cluster_count_stays_bounded() {
+        Drain drain = Drain.drainBuilder().maxClusters(10).build();
+
+        for (int i = 0; i < 1_000; i++) {
+            drain.parseLogMessage("event" + i + " occurred in module m" + (i % 7) + " " + "step" + (i % 3));
+            drain.parseLogMessage("unique_" + i);
+        }
+
+        assertThat(drain.clusters()).hasSizeLessThanOrEqualTo(10);
+        assertThat(drain.prefixTree().childrenCount()).isLessThanOrEqualTo(10);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.synthetic.SyntheticLogs;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+
+class DrainMergeTest {
+
+    @Test
+    void merge_adds_sightings_and_generalizes_templates() {
+        Drain drain = Drain.drainBuilder().build();
+        drain.parseLogMessage("sent 550 bytes");
+        drain.parseLogMessage("sent 550 bytes");
+        drain.parseLogMessage("Connection closed by peer");
+
+        Drain other = Drain.drainBuilder().build();
+        other.parseLogMessage("sent 110 bytes");
+        other.parseLogMessage("Accepted publickey for root");
+
+        drain.merge(other);
+
+        assertThat(templates(drain)).containsOnly(
+                entry("sent <*> bytes", 3),
+                entry("Connection closed by peer", 1),
+                entry("Accepted publickey for root", 1)
+        );
+        assertThat(drain.searchLogMessage("sent 42 bytes")).isNotNull();
+        assertThat(templates(other)).containsOnly(
+                entry("sent 110 bytes", 1),
+                entry("Accepted publickey for root", 1)
+        );
+    }
+
+    @Test
+    void merged_shards_recover_the_templates_of_a_single_model() {
+        SyntheticLogs logs = SyntheticLogs.builder().seed(3).templates(100).build();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            lines.add(logs.nextLine());
+        }
+
+        Drain single = Drain.drainBuilder().build();
+        lines.forEach(single::parseLogMessage);
+
+        Drain merged = Drain.drainBuilder().build();
+        int shardSize = lines.size() / 4;
+        for (int shard = 0; shard < 4; shard++) {
+            Drain drain = Drain.drainBuilder().build();
+            lines.subList(shard * shardSize, (shard + 1) * shardSize).forEach(drain::parseLogMessage);
+            merged.merge(drain);
+        }
+
+        assertThat(templates(merged)).isEqualTo(templates(single));
+    }
+
+    private static Map<String, Integer> templates(Drain drain) {
+        return drain.clusters()
+                    .stream()
+                    .collect(Collectors.toMap(cluster -> String.join(" ", cluster.tokens()),
+                                              LogCluster::sightings));
+    }
+}
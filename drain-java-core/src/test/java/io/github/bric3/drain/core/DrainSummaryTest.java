@@ -0,0 +1,74 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+class DrainSummaryTest {
+
+    @Test
+    void same_template_has_same_template_id_in_any_model() {
+        Drain drain = Drain.drainBuilder().build();
+        drain.parseLogMessage("sent 550 bytes");
+        drain.parseLogMessage("sent 110 bytes");
+
+        Drain other = Drain.drainBuilder().build();
+        other.parseLogMessage("Connection closed by peer");
+        other.parseLogMessage("sent 42 bytes");
+        other.parseLogMessage("sent 7 bytes");
+
+        assertThat(drain.searchLogMessage("sent 1 bytes").templateId())
+                .isEqualTo(other.searchLogMessage("sent 1 bytes").templateId());
+        assertThat(drain.searchLogMessage("sent 1 bytes").clusterId())
+                .isNotEqualTo(other.searchLogMessage("sent 1 bytes").clusterId());
+    }
+
+    @Test
+    void summary_round_trip_can_be_merged() throws IOException {
+        Drain drain = Drain.drainBuilder().build();
+        Stream.of("sent 550 bytes",
+                  "sent 110 bytes",
+                  "received 1000 bytes",
+                  "Connection closed by peer"
+        ).forEach(drain::parseLogMessage);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        drain.summary().writeTo(out);
+        DrainSummary summary = DrainSummary.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+        assertThat(summary.size()).isEqualTo(3);
+        assertThat(summary.template(0)).containsExactly("sent", "<*>", "bytes");
+        assertThat(summary.sightings(0)).isEqualTo(2);
+
+        Drain aggregate = Drain.drainBuilder().build();
+        aggregate.merge(summary);
+        aggregate.merge(summary);
+
+        assertThat(aggregate.clusters()).hasSize(3);
+        assertThat(aggregate.searchLogMessage("sent 1 bytes").sightings()).isEqualTo(4);
+        assertThat(aggregate.searchLogMessage("sent 1 bytes").templateId())
+                .isEqualTo(drain.searchLogMessage("sent 1 bytes").templateId());
+    }
+
+    @Test
+    void reading_garbage_fails() {
+        assertThatExceptionOfType(IOException.class).isThrownBy(
+                () -> DrainSummary.readFrom(new ByteArrayInputStream(new byte[]{1, 2, 3, 4, 5}))
+        );
+    }
+}
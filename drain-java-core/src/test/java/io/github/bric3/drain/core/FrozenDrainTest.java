@@ -0,0 +1,70 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FrozenDrainTest {
+
+    @Test
+    void frozen_drain_matches_like_the_model() {
+        Drain drain = Drain.drainBuilder()
+                           .additionalDelimiters("_")
+                           .depth(4)
+                           .build();
+        Stream.of("sent 550 bytes",
+                  "sent 110 bytes",
+                  "received 1000 bytes",
+                  "received 250 bytes",
+                  "Connection closed by 10.0.0.1 [preauth]",
+                  ""
+        ).forEach(drain::parseLogMessage);
+
+        FrozenDrain frozenDrain = drain.freeze();
+
+        assertThat(frozenDrain.clusters()).hasSameSizeAs(drain.clusters());
+        Stream.of("sent 42 bytes",
+                  "received 42 bytes",
+                  "Connection closed by 10.0.0.2 [preauth]",
+                  "Connection reset by peer",
+                  "unknown",
+                  ""
+        ).forEach(message -> {
+            LogCluster expected = drain.searchLogMessage(message);
+            LogCluster actual = frozenDrain.searchLogMessage(message);
+            if (expected == null) {
+                assertThat(actual).isNull();
+                assertThat(frozenDrain.searchClusterIndex(message)).isEqualTo(FrozenDrain.NO_MATCH);
+            } else {
+                assertThat(actual.clusterId()).isEqualTo(expected.clusterId());
+                assertThat(actual.tokens()).isEqualTo(expected.tokens());
+            }
+        });
+    }
+
+    @Test
+    void frozen_drain_is_not_affected_by_later_updates() {
+        Drain drain = Drain.drainBuilder().build();
+        drain.parseLogMessage("sent 550 bytes");
+
+        FrozenDrain frozenDrain = drain.freeze();
+        drain.parseLogMessage("sent 110 bytes");
+        drain.parseLogMessage("Connection reset by peer");
+
+        assertThat(frozenDrain.clusters()).hasSize(1);
+        assertThat(frozenDrain.clusters().get(0).tokens()).containsExactly("sent", "550", "bytes");
+        assertThat(frozenDrain.clusters().get(0).sightings()).isEqualTo(1);
+        assertThat(frozenDrain.searchLogMessage("Connection reset by peer")).isNull();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+class MessageCacheTest {
+
+    @Test
+    void cached_drain_finds_the_same_clusters() {
+        List<String> messages = Stream.of("sent 550 bytes",
+                                          "sent 550 bytes",
+                                          "sent 550 bytes",
+                                          "sent 110 bytes",
+                                          "sent 550 bytes",
+                                          "received 1000 bytes",
+                                          "received 1000 bytes",
+                                          "received 1000 bytes from 10.0.0.1",
+                                          "received 250 bytes",
+                                          "received 1000 bytes",
+                                          "",
+                                          "")
+                                      .collect(Collectors.toList());
+        Drain drain = Drain.drainBuilder().build();
+        Drain cachedDrain = Drain.drainBuilder().messageCacheSize(16).build();
+
+        messages.forEach(drain::parseLogMessage);
+        messages.forEach(cachedDrain::parseLogMessage);
+
+        assertThat(cachedDrain.clusters())
+                .extracting(LogCluster::tokens, LogCluster::sightings)
+                .containsExactlyElementsOf(drain.clusters()
+                                                .stream()
+                                                .map(c -> tuple(c.tokens(), c.sightings()))
+                                                .collect(Collectors.toList()));
+        assertThat(cachedDrain.messageCacheHitRatio()).isGreaterThan(0d);
+    }
+
+    @Test
+    void cached_entries_are_invalidated_when_the_subtree_changes() {
+        Drain drain = Drain.drainBuilder().messageCacheSize(16).build();
+        drain.parseLogMessage("sent 550 bytes");
+        drain.parseLogMessage("sent 550 bytes");
+        LogCluster cluster = drain.searchLogMessage("sent 550 bytes");
+        assertThat(cluster.tokens()).containsExactly("sent", "550", "bytes");
+
+        // generalizes the template
+        drain.parseLogMessage("sent 110 bytes");
+        drain.parseLogMessage("sent 550 bytes");
+
+        assertThat(drain.clusters()).hasSize(1);
+        assertThat(cluster.tokens()).containsExactly("sent", "<*>", "bytes");
+        assertThat(cluster.sightings()).isEqualTo(4);
+    }
+
+    @Test
+    void searching_a_similar_message_does_not_cache_it() {
+        Drain drain = Drain.drainBuilder().messageCacheSize(16).build();
+        drain.parseLogMessage("connect from host alpha port 22");
+
+        assertThat(drain.searchLogMessage("connect from host beta port 22")).isNotNull();
+        ParseResult result = drain.parseLogMessage("connect from host beta port 22");
+
+        assertThat(result.status()).isEqualTo(ParseResult.Status.UPDATED);
+        assertThat(result.cluster().tokens()).containsExactly("connect", "from", "host", "<*>", "port", "22");
+    }
+
+    @Test
+    void cache_is_bounded() {
+        MessageCache cache = new MessageCache(16);
+        Node subtree = new Node(1, 1);
+        InternalLogCluster cluster = new InternalLogCluster(new TokenDictionary(), new int[]{0});
+
+        for (int i = 0; i < 1000; i++) {
+            String message = "message " + i;
+            assertThat(cache.get(message, MessageCache.hash(message))).isNull();
+            cache.put(message, MessageCache.hash(message), cluster, subtree);
+        }
+
+        int hits = 0;
+        for (int i = 0; i < 1000; i++) {
+            String message = "message " + i;
+            if (cache.get(message, MessageCache.hash(message)) != null) {
+                hits++;
+            }
+        }
+        assertThat(hits).isPositive().isLessThanOrEqualTo(16);
+
+        subtree.incrementVersion();
+        assertThat(cache.get("message 999", MessageCache.hash("message 999"))).isNull();
+    }
+}
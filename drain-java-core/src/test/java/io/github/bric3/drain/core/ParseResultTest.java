@@ -0,0 +1,78 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ParseResultTest {
+
+    @Test
+    void parse_result_reports_the_cluster_and_its_change() {
+        Drain drain = Drain.drainBuilder().build();
+
+        ParseResult result = drain.parseLogMessage("sent 550 bytes");
+        assertThat(result.status()).isEqualTo(ParseResult.Status.CREATED);
+        LogCluster cluster = result.cluster();
+        UUID clusterId = result.clusterId();
+        UUID templateId = result.templateId();
+
+        result = drain.parseLogMessage("sent 110 bytes");
+        assertThat(result.status()).isEqualTo(ParseResult.Status.UPDATED);
+        assertThat(result.cluster()).isSameAs(cluster);
+        assertThat(result.cluster().tokens()).containsExactly("sent", "<*>", "bytes");
+        // the cluster id is stable, the template id follows the template
+        assertThat(result.clusterId()).isEqualTo(clusterId);
+        assertThat(result.templateId()).isNotEqualTo(templateId);
+        templateId = result.templateId();
+
+        result = drain.parseLogMessage("sent 42 bytes");
+        assertThat(result.status()).isEqualTo(ParseResult.Status.UNCHANGED);
+        assertThat(result.clusterId()).isEqualTo(clusterId);
+        assertThat(result.templateId()).isEqualTo(templateId);
+        assertThat(result.cluster()).isSameAs(drain.searchLogMessage("sent 42 bytes"));
+    }
+
+    @Test
+    void cached_message_is_reported_unchanged() {
+        Drain drain = Drain.drainBuilder().messageCacheSize(16).build();
+
+        assertThat(drain.parseLogMessage("sent 550 bytes").status()).isEqualTo(ParseResult.Status.CREATED);
+        assertThat(drain.parseLogMessage("sent 550 bytes").status()).isEqualTo(ParseResult.Status.UNCHANGED);
+        assertThat(drain.parseLogMessage("sent 550 bytes").status()).isEqualTo(ParseResult.Status.UNCHANGED);
+        assertThat(drain.messageCacheHitRatio()).isPositive();
+    }
+
+    @Test
+    void tokenized_message_is_parsed_like_the_message() {
+        for (Drain drain : new Drain[]{
+                Drain.drainBuilder().messageCacheSize(16).build(),
+                Drain.drainBuilder().concurrent(true).build()
+        }) {
+            TokenizedMessage first = drain.tokenize("sent 550 bytes", new TokenizedMessage());
+            TokenizedMessage second = drain.tokenize("sent 110 bytes", new TokenizedMessage());
+            assertThat(first.tokensCount()).isEqualTo(3);
+
+            assertThat(drain.parseLogMessage(first).status()).isEqualTo(ParseResult.Status.CREATED);
+            assertThat(drain.parseLogMessage(second).status()).isEqualTo(ParseResult.Status.UPDATED);
+            assertThat(drain.parseLogMessage(second).status()).isEqualTo(ParseResult.Status.UNCHANGED);
+            assertThat(drain.parseLogMessage("sent 42 bytes").status()).isEqualTo(ParseResult.Status.UNCHANGED);
+
+            // the holder is reusable
+            drain.tokenize("Connection closed by 10.0.0.1", first);
+            assertThat(drain.parseLogMessage(first).status()).isEqualTo(ParseResult.Status.CREATED);
+            assertThat(drain.clusters()).hasSize(2);
+            assertThat(drain.clusters().get(0).sightings()).isEqualTo(4);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenDictionaryTest {
+
+    @Test
+    void param_marker_has_reserved_id() {
+        TokenDictionary dictionary = new TokenDictionary();
+
+        assertThat(dictionary.idOf(Drain.PARAM_MARKER)).isEqualTo(TokenDictionary.PARAM_ID);
+        assertThat(dictionary.token(TokenDictionary.PARAM_ID)).isEqualTo(Drain.PARAM_MARKER);
+        assertThat(dictionary.size()).isEqualTo(1);
+    }
+
+    @Test
+    void lookup_does_not_register_tokens() {
+        TokenDictionary dictionary = new TokenDictionary();
+
+        assertThat(dictionary.idOf("sent")).isEqualTo(TokenDictionary.UNKNOWN_ID);
+        assertThat(dictionary.size()).isEqualTo(1);
+
+        int id = dictionary.intern("sent");
+        assertThat(dictionary.idOf("sent")).isEqualTo(id);
+        assertThat(dictionary.intern("sent")).isEqualTo(id);
+        assertThat(dictionary.size()).isEqualTo(2);
+    }
+
+    @Test
+    void intern_many_tokens() {
+        TokenDictionary dictionary = new TokenDictionary();
+
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(dictionary.intern("token-" + i)).isEqualTo(i + 1);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(dictionary.idOf("token-" + i)).isEqualTo(i + 1);
+            assertThat(dictionary.token(i + 1)).isEqualTo("token-" + i);
+            assertThat(dictionary.hasNumber(i + 1)).isTrue();
+        }
+    }
+
+    @Test
+    void template_tokens_view() {
+        TokenDictionary dictionary = new TokenDictionary();
+
+        int[] ids = dictionary.intern(Arrays.asList("sent", "<*>", "bytes"));
+
+        assertThat(ids).containsExactly(1, TokenDictionary.PARAM_ID, 2);
+        assertThat(dictionary.tokens(ids)).containsExactly("sent", "<*>", "bytes");
+        assertThat(dictionary.hasNumber(ids[0])).isFalse();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.internal;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenizerTest {
+
+    @Test
+    void split_on_delimiters_and_trim_tokens() {
+        assertThat(Tokenizer.tokenize("  Connection closed_by\t 10.0.0.1 [preauth] ", " _"))
+                .containsExactly("Connection", "closed", "by", "10.0.0.1", "[preauth]");
+        assertThat(Tokenizer.tokenize("", " ")).isEmpty();
+        assertThat(Tokenizer.tokenize(" \t ", " ")).isEmpty();
+    }
+
+    @Test
+    void non_ascii_delimiters() {
+        assertThat(Tokenizer.tokenize("a→b c", " →")).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    void reuse_tokens_offsets() {
+        Tokenizer tokenizer = new Tokenizer(" ");
+        Tokenizer.Tokens tokens = new Tokenizer.Tokens();
+
+        StringBuilder content = new StringBuilder("sent 550 bytes");
+        assertThat(tokenizer.tokenize(content, tokens)).isEqualTo(3);
+        assertThat(tokens.start(1)).isEqualTo(5);
+        assertThat(tokens.end(1)).isEqualTo(8);
+        assertThat(tokens.token(2)).isEqualTo("bytes");
+
+        assertThat(tokenizer.tokenize("a b c d e f g h i j k l m n o p q r s t u v w x y z 0 1 2 3 4 5 6 7 8 9", tokens)).isEqualTo(36);
+        assertThat(tokens.token(35)).isEqualTo("9");
+    }
+}
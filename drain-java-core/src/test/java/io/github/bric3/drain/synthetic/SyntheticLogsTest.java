@@ -0,0 +1,96 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.synthetic;
+
+import io.github.bric3.drain.core.Drain;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class SyntheticLogsTest {
+
+    @Test
+    void same_seed_generates_same_lines() {
+        SyntheticLogs logs = SyntheticLogs.builder().seed(7).templates(50).build();
+        SyntheticLogs sameLogs = SyntheticLogs.builder().seed(7).templates(50).build();
+
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(logs.nextLine()).isEqualTo(sameLogs.nextLine());
+            assertThat(logs.lastTemplateId()).isEqualTo(sameLogs.lastTemplateId());
+        }
+    }
+
+    @Test
+    void lines_are_instances_of_their_template() {
+        SyntheticLogs logs = SyntheticLogs.builder().templates(100).tokens(2, 6).build();
+
+        for (int i = 0; i < 1_000; i++) {
+            String[] tokens = logs.nextLine().split(" ");
+            String[] template = logs.template(logs.lastTemplateId()).split(" ");
+
+            assertThat(tokens).hasSameSizeAs(template);
+            for (int t = 0; t < tokens.length; t++) {
+                if (!template[t].equals(SyntheticLogs.PARAM)) {
+                    assertThat(tokens[t]).isEqualTo(template[t]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void more_distinct_values_than_possible_are_rejected() {
+        // 26 words of one letter
+        assertThatIllegalArgumentException().isThrownBy(
+                () -> SyntheticLogs.builder().vocabulary(27, 1, 1).build()
+        );
+        // 2 words followed by a word or a parameter, 2 * 3 templates of 2 tokens
+        assertThatIllegalArgumentException().isThrownBy(
+                () -> SyntheticLogs.builder().vocabulary(2, 3, 3).tokens(2, 2).templates(7).build()
+        );
+
+        SyntheticLogs logs = SyntheticLogs.builder().vocabulary(2, 3, 3).tokens(2, 2).templates(6).build();
+        Set<String> templates = new HashSet<>();
+        for (int t = 0; t < logs.templateCount(); t++) {
+            templates.add(logs.template(t));
+        }
+        assertThat(templates).hasSize(6);
+    }
+
+    @Test
+    void frequent_templates_follow_zipf_ranks() {
+        SyntheticLogs logs = SyntheticLogs.builder().templates(100).zipfExponent(1.5).build();
+
+        int[] counts = new int[logs.templateCount()];
+        for (int i = 0; i < 10_000; i++) {
+            counts[logs.nextTemplateId()]++;
+        }
+
+        assertThat(counts[0]).isGreaterThan(counts[1]);
+        assertThat(counts[1]).isGreaterThan(counts[10]);
+    }
+
+    @Test
+    void drain_recovers_the_ground_truth() {
+        SyntheticLogs logs = SyntheticLogs.builder().seed(1).templates(200).build();
+        Drain drain = Drain.drainBuilder().build();
+
+        Map<UUID, Set<Integer>> templatesByCluster = new HashMap<>();
+        for (int i = 0; i < 50_000; i++) {
+            UUID clusterId = drain.parseLogMessage(logs.nextLine()).clusterId();
+            templatesByCluster.computeIfAbsent(clusterId, k -> new HashSet<>()).add(logs.lastTemplateId());
+        }
+
+        // a cluster never mixes templates
+        assertThat(templatesByCluster.values()).allSatisfy(templates -> assertThat(templates).hasSize(1));
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.synthetic;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Deterministic generator of synthetic log lines.
+ * <p>
+ * Templates are made of constant words and parameters, each line is an
+ * instance of a template chosen with a Zipf distribution, so a few
+ * templates are very frequent and most are rare. The same seed always
+ * produces the same templates and the same lines, and the template of
+ * each line is known, which gives the ground truth of the clustering.
+ *
+ * <p>
+ * Example use:
+ * <pre><code>
+ * SyntheticLogs logs = SyntheticLogs.builder()
+ *                                   .seed(42)
+ *                                   .templates(10_000)
+ *                                   .build();
+ * String line = logs.nextLine();
+ * int templateId = logs.lastTemplateId();
+ * </code></pre>
+ *
+ * <p>
+ * Or from the command line, see {@link #main(String[])}.
+ */
+public final class SyntheticLogs {
+    /**
+     * Marker of the parameters in the templates, same as the Drain param marker.
+     */
+    public static final String PARAM = "<*>";
+
+    private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String[][] templates;
+    private final int[][] paramKinds;
+    private final int paramCardinality;
+    private final double[] cumulativeFrequencies;
+    private final SplittableRandom random;
+    private final StringBuilder line = new StringBuilder(256);
+    private int lastTemplateId = -1;
+
+    private SyntheticLogs(Builder builder) {
+        SplittableRandom templateRandom = new SplittableRandom(builder.seed);
+        this.random = templateRandom.split();
+        this.paramCardinality = builder.paramCardinality;
+
+        String[] vocabulary = vocabulary(templateRandom, builder.vocabularySize, builder.minWordLength, builder.maxWordLength);
+        Set<String> distinctTemplates = new HashSet<>();
+        templates = new String[builder.templates][];
+        paramKinds = new int[builder.templates][];
+        for (int t = 0; t < templates.length; t++) {
+            String[] template;
+            int[] kinds;
+            do {
+                int tokenCount = builder.minTokens + templateRandom.nextInt(builder.maxTokens - builder.minTokens + 1);
+                template = new String[tokenCount];
+                kinds = new int[tokenCount];
+                for (int i = 0; i < tokenCount; i++) {
+                    // the first word is never a parameter, like a logger or an action
+                    if (i > 0 && templateRandom.nextDouble() < builder.paramRatio) {
+                        template[i] = PARAM;
+                        kinds[i] = 1 + templateRandom.nextInt(ParamKind.COUNT);
+                    } else {
+                        template[i] = vocabulary[templateRandom.nextInt(vocabulary.length)];
+                    }
+                }
+            } while (!distinctTemplates.add(String.join(" ", template)));
+            templates[t] = template;
+            paramKinds[t] = kinds;
+        }
+
+        // Zipf frequencies, the template id is the rank
+        cumulativeFrequencies = new double[templates.length];
+        double sum = 0;
+        for (int rank = 0; rank < templates.length; rank++) {
+            sum += 1d / Math.pow(rank + 1, builder.zipfExponent);
+            cumulativeFrequencies[rank] = sum;
+        }
+        for (int rank = 0; rank < templates.length; rank++) {
+            cumulativeFrequencies[rank] /= sum;
+        }
+    }
+
+    private static String[] vocabulary(SplittableRandom random, int size, int minLength, int maxLength) {
+        Set<String> words = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder(maxLength);
+        while (words.size() < size) {
+            word.setLength(0);
+            int length = minLength + random.nextInt(maxLength - minLength + 1);
+            for (int i = 0; i < length; i++) {
+                word.append(LETTERS[random.nextInt(LETTERS.length)]);
+            }
+            // constant words have no digit, parameters have
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Kinds of parameter values, each value is derived from an index
+     * bounded by the parameter cardinality.
+     */
+    private static final class ParamKind {
+        static final int NUMBER = 1;
+        static final int HEX_ID = 2;
+        static final int IP = 3;
+        static final int NAMED = 4;
+        static final int COUNT = 4;
+    }
+
+    /**
+     * @return the number of templates
+     */
+    public int templateCount() {
+        return templates.length;
+    }
+
+    /**
+     * @param templateId The template id
+     * @return the template, parameters are replaced by {@link #PARAM}
+     */
+    public String template(int templateId) {
+        return String.join(" ", templates[templateId]);
+    }
+
+    /**
+     * @return a template id following the Zipf distribution
+     */
+    public int nextTemplateId() {
+        int index = Arrays.binarySearch(cumulativeFrequencies, random.nextDouble());
+        int templateId = index >= 0 ? index : -index - 1;
+        return Math.min(templateId, templates.length - 1);
+    }
+
+    /**
+     * Generates the next line, its template is given by {@link #lastTemplateId()}.
+     *
+     * @return the next line
+     */
+    public String nextLine() {
+        lastTemplateId = nextTemplateId();
+        line.setLength(0);
+        appendLine(lastTemplateId, line);
+        return line.toString();
+    }
+
+    /**
+     * @return the template id of the last generated line, or -1
+     */
+    public int lastTemplateId() {
+        return lastTemplateId;
+    }
+
+    /**
+     * Appends an instance of the template, parameter values are random.
+     *
+     * @param templateId The template id
+     * @param line       The line to append to
+     */
+    public void appendLine(int templateId, StringBuilder line) {
+        String[] template = templates[templateId];
+        int[] kinds = paramKinds[templateId];
+        for (int i = 0; i < template.length; i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            if (kinds[i] == 0) {
+                line.append(template[i]);
+            } else {
+                appendParam(kinds[i], random.nextInt(paramCardinality), line);
+            }
+        }
+    }
+
+    private static void appendParam(int kind, int value, StringBuilder line) {
+        switch (kind) {
+            case ParamKind.NUMBER:
+                line.append(value);
+                break;
+            case ParamKind.HEX_ID:
+                line.append("0x");
+                int h = value * 0x9E3779B9;
+                for (int shift = 28; shift >= 0; shift -= 4) {
+                    line.append(HEX[(h >>> shift) & 0xF]);
+                }
+                break;
+            case ParamKind.IP:
+                line.append("10.")
+                    .append((value >>> 16) & 0xFF).append('.')
+                    .append((value >>> 8) & 0xFF).append('.')
+                    .append(value & 0xFF);
+                break;
+            case ParamKind.NAMED:
+                line.append("user").append(value);
+                break;
+            default:
+                throw new IllegalStateException("Unknown param kind " + kind);
+        }
+    }
+
+    /**
+     * Writes lines in a log file, and optionally the template id of
+     * each line in a ground truth file, one id per line.
+     *
+     * @param lineCount The number of lines to write
+     * @param logFile   The log file
+     * @param truthFile The ground truth file, or null
+     */
+    public void write(long lineCount, Path logFile, Path truthFile) {
+        try (BufferedWriter log = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8);
+             BufferedWriter truth = truthFile == null ? null : Files.newBufferedWriter(truthFile, StandardCharsets.UTF_8)) {
+            for (long i = 0; i < lineCount; i++) {
+                int templateId = nextTemplateId();
+                line.setLength(0);
+                appendLine(templateId, line);
+                line.append('\n');
+                log.append(line);
+                if (truth != null) {
+                    truth.write(Integer.toString(templateId));
+                    truth.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes a synthetic log file.
+     *
+     * <pre><code>
+     * SyntheticLogs &lt;log file&gt; [lines] [templates] [seed] [ground truth file]
+     * </code></pre>
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticLogs <log file> [lines] [templates] [seed] [ground truth file]");
+            System.exit(1);
+        }
+        long lines = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        int templates = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        Path truth = args.length > 4 ? Paths.get(args[4]) : null;
+
+        builder().seed(seed)
+                 .templates(templates)
+                 .build()
+                 .write(lines, Paths.get(args[0]), truth);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder for {@link SyntheticLogs}.
+     */
+    public static class Builder {
+        private long seed = 42;
+        private int templates = 1_000;
+        private int minTokens = 3;
+        private int maxTokens = 20;
+        private double paramRatio = 0.25;
+        private int paramCardinality = 10_000;
+        private int vocabularySize = 5_000;
+        private int minWordLength = 3;
+        private int maxWordLength = 10;
+        private double zipfExponent = 1.1;
+
+        /**
+         * Default value is 42.
+         *
+         * @param seed The random seed
+         * @return this
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Default value is 1000.
+         *
+         * @param templates The number of distinct templates
+         * @return this
+         */
+        public Builder templates(int templates) {
+            assert templates > 0;
+            this.templates = templates;
+            return this;
+        }
+
+        /**
+         * Token counts are uniformly distributed in this range.
+         *
+         * Default value is 3 to 20.
+         *
+         * @param minTokens The minimum token count of a template
+         * @param maxTokens The maximum token count of a template
+         * @return this
+         */
+        public Builder tokens(int minTokens, int maxTokens) {
+            assert minTokens > 0 && minTokens <= maxTokens;
+            this.minTokens = minTokens;
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        /**
+         * Ratio of the template tokens that are parameters, the first
+         * token is never a parameter.
+         *
+         * Default value is 0.25.
+         *
+         * @param paramRatio The parameter ratio
+         * @return this
+         */
+        public Builder paramRatio(double paramRatio) {
+            assert paramRatio >= 0 && paramRatio <= 1;
+            this.paramRatio = paramRatio;
+            return this;
+        }
+
+        /**
+         * Number of distinct values of each parameter.
+         *
+         * Default value is 10000.
+         *
+         * @param paramCardinality The parameter cardinality
+         * @return this
+         */
+        public Builder paramCardinality(int paramCardinality) {
+            assert paramCardinality > 0;
+            this.paramCardinality = paramCardinality;
+            return this;
+        }
+
+        /**
+         * Number of distinct constant words, and their length which
+         * drives the line length.
+         *
+         * Default value is 5000 words of 3 to 10 letters.
+         *
+         * @param vocabularySize The number of distinct words
+         * @param minWordLength  The minimum word length
+         * @param maxWordLength  The maximum word length
+         * @return this
+         */
+        public Builder vocabulary(int vocabularySize, int minWordLength, int maxWordLength) {
+            assert vocabularySize > 0 && minWordLength > 0 && minWordLength <= maxWordLength;
+            this.vocabularySize = vocabularySize;
+            this.minWordLength = minWordLength;
+            this.maxWordLength = maxWordLength;
+            return this;
+        }
+
+        /**
+         * Skew of the template frequencies, the frequency of the template
+         * of rank {@code r} is proportional to {@code 1 / r^exponent}.
+         * 0 gives uniform frequencies.
+         *
+         * Default value is 1.1.
+         *
+         * @param zipfExponent The Zipf exponent
+         * @return this
+         */
+        public Builder zipfExponent(double zipfExponent) {
+            assert zipfExponent >= 0;
+            this.zipfExponent = zipfExponent;
+            return this;
+        }
+
+        /**
+         * @return the generator
+         * @throws IllegalArgumentException if the vocabulary or the templates
+         *                                  can't have that many distinct values
+         */
+        public SyntheticLogs build() {
+            // the generator draws until it gets distinct values, it would never end
+            long distinctWords = sumOfPowers(LETTERS.length, minWordLength, maxWordLength);
+            if (vocabularySize > distinctWords) {
+                throw new IllegalArgumentException("Only " + distinctWords + " distinct words of "
+                                                   + minWordLength + " to " + maxWordLength + " letters, not " + vocabularySize);
+            }
+            // the first token is a word, the next ones are a word or a parameter
+            int choices = paramRatio == 0 ? vocabularySize : paramRatio == 1 ? 1 : vocabularySize + 1;
+            long followingTokens = sumOfPowers(choices, minTokens - 1, maxTokens - 1);
+            long distinctTemplates = followingTokens > Long.MAX_VALUE / vocabularySize ? Long.MAX_VALUE : vocabularySize * followingTokens;
+            if (templates > distinctTemplates) {
+                throw new IllegalArgumentException("Only " + distinctTemplates + " distinct templates of "
+                                                   + minTokens + " to " + maxTokens + " tokens, not " + templates);
+            }
+            return new SyntheticLogs(this);
+        }
+
+        /**
+         * @return the sum of {@code base^exponent} over the exponent range, capped to {@code Long.MAX_VALUE}
+         */
+        private static long sumOfPowers(long base, int minExponent, int maxExponent) {
+            long sum = 0;
+            long power = 1;
+            for (int exponent = 0; exponent <= maxExponent; exponent++) {
+                if (exponent >= minExponent) {
+                    sum += power;
+                    if (sum < 0) {
+                        return Long.MAX_VALUE;
+                    }
+                }
+                if (power > Long.MAX_VALUE / base) {
+                    return exponent < maxExponent ? Long.MAX_VALUE : sum;
+                }
+                power *= base;
+            }
+            return sum;
+        }
+    }
+}
@@ -9,12 +9,9 @@
  */
 package io.github.bric3.drain.core;
 
-import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -23,9 +20,12 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.io.Writer;
-import java.util.*;
-import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 /**
  * Simple and Drain state serialization mechanism.
@@ -51,29 +51,48 @@ import java.util.stream.Collectors;
  *     Drain drain = serde.loadState(reader);
  * </code></pre>
  *
+ * <p>
+ * The state is written and read as a stream of JSON tokens, the document
+ * is never held in memory as a tree. Reading expects the tokens before the
+ * clusters, and the clusters before the prefix tree, as they are written.
+ *
  * @author brice.dutheil@gmail.com
  */
 public class DrainJsonSerialization {
+    private static final String ROOT_KEY_NAME = "(ROOT)";
 
     public static final JsonMapper JSON_MAPPER =
             JsonMapper.builder()
                       .addModule(new SimpleModule()
                                          .addSerializer(Drain.class, new DrainSerializer())
-                                         .addDeserializer(Drain.class, new DrainDeserializer())
-                                         .addSerializer(Node.class, new TreeNodeSerializer())
-                                         .addDeserializer(Node.class, new TreeNodeDeserializer()))
-                      .visibility(PropertyAccessor.FIELD, Visibility.ANY)
-                      .addMixIn(InternalLogCluster.class, LogClusterMixin.class)
+                                         .addDeserializer(Drain.class, new DrainDeserializer()))
                       .build();
 
+    private final boolean prettyPrint;
+
+    /**
+     * Serialization in pretty printed JSON.
+     */
+    public DrainJsonSerialization() {
+        this(true);
+    }
+
+    /**
+     * @param prettyPrint Whether the JSON is indented, otherwise it is compact,
+     *                    which is smaller and faster to write for big models
+     */
+    public DrainJsonSerialization(boolean prettyPrint) {
+        this.prettyPrint = prettyPrint;
+    }
+
     /**
      * Drain-object exporting functionality which saves a drain model
      * in a json file at given path.
      */
     public void saveState(Drain drain, Writer writer) {
         try {
-            JSON_MAPPER.writerWithDefaultPrettyPrinter()
-                       .writeValue(writer, drain);
+            (prettyPrint ? JSON_MAPPER.writerWithDefaultPrettyPrinter() : JSON_MAPPER.writer())
+                    .writeValue(writer, drain);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
@@ -81,47 +100,87 @@ public class DrainJsonSerialization {
 
     public Drain loadState(Reader reader) {
         try {
-            return JSON_MAPPER.reader()
-                              .withAttribute(ClustersRef.class, new ClustersRef())
-                              .readValue(reader, Drain.class);
+            return JSON_MAPPER.readValue(reader, Drain.class);
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    private static class TreeNodeSerializer extends JsonSerializer<Node> {
+    private static class DrainSerializer extends JsonSerializer<Drain> {
         @Override
-        public void serialize(Node value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        public void serialize(Drain value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
             gen.writeStartObject();
-            gen.writeNumberField("depth", value.depth);
-            gen.writeObjectField("key", value.key);
-            gen.writeObjectField("children", value.childMappings());
-            gen.writeArrayFieldStart("clusters");
+            gen.writeNumberField("effective-depth", value.depth);
+            gen.writeNumberField("similarity-threshold", value.similarityThreshold);
+            gen.writeNumberField("max-child-per-node", value.maxChildPerNode);
+            gen.writeStringField("delimiters", value.delimiters);
+
+            final TokenDictionary dictionary = value.dictionary();
+            gen.writeArrayFieldStart("tokens");
+            for (int id = 0; id < dictionary.size(); id++) {
+                gen.writeString(dictionary.token(id));
+            }
+            gen.writeEndArray();
 
-            for (InternalLogCluster c : value.clusters()) {
-                gen.writeString(ClustersRef.toRef(c.clusterId()));
+            gen.writeArrayFieldStart("clusters");
+            for (InternalLogCluster cluster : value.internalClusters()) {
+                writeCluster(gen, dictionary, cluster);
             }
             gen.writeEndArray();
+
+            gen.writeFieldName("prefix-tree");
+            writeNode(gen, dictionary, value.prefixTree());
             gen.writeEndObject();
         }
 
-        @Override
-        public Class<Node> handledType() {
-            return Node.class;
+        private static void writeCluster(JsonGenerator gen, TokenDictionary dictionary, InternalLogCluster cluster) throws IOException {
+            gen.writeStartObject();
+            gen.writeStringField("clusterId", cluster.clusterId().toString());
+            gen.writeNumberField("sightings", cluster.sightings());
+            gen.writeArrayFieldStart("logTemplateTokens");
+            for (int token : cluster.internalTokens()) {
+                gen.writeString(dictionary.token(token));
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
         }
-    }
 
-    private static class DrainSerializer extends JsonSerializer<Drain> {
-        @Override
-        public void serialize(Drain value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        private static void writeNode(JsonGenerator gen, TokenDictionary dictionary, Node node) throws IOException {
             gen.writeStartObject();
-            gen.writeNumberField("effective-depth", value.depth);
-            gen.writeNumberField("similarity-threshold", value.similarityThreshold);
-            gen.writeNumberField("max-child-per-node", value.maxChildPerNode);
-            gen.writeStringField("delimiters", value.delimiters);
-            gen.writeObjectField("clusters", value.clusters());
-            gen.writeObjectField("prefix-tree", value.prefixTree());
+            gen.writeNumberField("depth", node.depth);
+            if (node.depth == 1) {
+                gen.writeNumberField("key", node.key);
+            } else {
+                gen.writeStringField("key", keyName(dictionary, node.depth, node.key));
+            }
+            gen.writeObjectFieldStart("children");
+            for (Node child : node.childrenTable()) {
+                if (child != null) {
+                    gen.writeFieldName(keyName(dictionary, child.depth, child.key));
+                    writeNode(gen, dictionary, child);
+                }
+            }
             gen.writeEndObject();
+
+            // clusters are referenced by their index, as different clusters may have the same template
+            gen.writeArrayFieldStart("clusters");
+            InternalLogCluster[] clusters = node.clusters();
+            for (int i = 0; i < node.clustersCount(); i++) {
+                gen.writeNumber(clusters[i].index);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+        }
+
+        private static String keyName(TokenDictionary dictionary, int depth, int key) {
+            switch (depth) {
+                case 0:
+                    return ROOT_KEY_NAME;
+                case 1:
+                    return Integer.toString(key);
+                default:
+                    return dictionary.token(key);
+            }
         }
 
         @Override
@@ -133,63 +192,184 @@ public class DrainJsonSerialization {
     private static class DrainDeserializer extends JsonDeserializer<Drain> {
         @Override
         public Drain deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            ObjectCodec codec = p.getCodec();
-            JsonNode jsonNode = codec.readTree(p);
+            expect(p, JsonToken.START_OBJECT);
 
-            final ArrayList<InternalLogCluster> clusters = codec.readValue(
-                    codec.treeAsTokens(jsonNode.get("clusters")),
-                    ctxt.getTypeFactory().constructCollectionType(ArrayList.class, InternalLogCluster.class));
+            // files saved before the token dictionary was introduced don't have
+            // the tokens field, in this case tokens are interned while reading
+            final TokenDictionary dictionary = new TokenDictionary();
+            Integer depth = null;
+            Double similarityThreshold = null;
+            Integer maxChildPerNode = null;
+            String delimiters = null;
+            ClustersRef clusters = null;
+            Node prefixTree = null;
 
-            ((ClustersRef) ctxt.getAttribute(ClustersRef.class)).hold(clusters);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.currentName();
+                p.nextToken();
+                switch (field) {
+                    case "effective-depth":
+                        depth = p.getValueAsInt();
+                        break;
+                    case "similarity-threshold":
+                        similarityThreshold = p.getValueAsDouble();
+                        break;
+                    case "max-child-per-node":
+                        maxChildPerNode = p.getValueAsInt();
+                        break;
+                    case "delimiters":
+                        delimiters = p.getValueAsString();
+                        break;
+                    case "tokens":
+                        readTokens(p, dictionary);
+                        break;
+                    case "clusters":
+                        clusters = readClusters(p, dictionary);
+                        break;
+                    case "prefix-tree":
+                        if (clusters == null) {
+                            throw new JsonMappingException(p, "The prefix tree must come after the clusters");
+                        }
+                        prefixTree = readNode(p, dictionary, clusters);
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+            expect(p, JsonToken.END_OBJECT);
+            if (depth == null || similarityThreshold == null || maxChildPerNode == null
+                || delimiters == null || clusters == null || prefixTree == null) {
+                throw new JsonMappingException(p, "Incomplete Drain state");
+            }
 
             return new Drain(new DrainState(
-                    jsonNode.get("effective-depth").asInt(),
-                    jsonNode.get("similarity-threshold").asDouble(),
-                    jsonNode.get("max-child-per-node").asInt(),
-                    jsonNode.get("delimiters").asText(),
-                    clusters,
-                    ctxt.readValue(codec.treeAsTokens(jsonNode.get("prefix-tree")), Node.class)
+                    depth,
+                    similarityThreshold,
+                    maxChildPerNode,
+                    delimiters,
+                    clusters.clusters,
+                    dictionary,
+                    prefixTree
             ));
         }
 
-        @Override
-        public Class<Drain> handledType() {
-            return Drain.class;
+        private static void readTokens(JsonParser p, TokenDictionary dictionary) throws IOException {
+            expect(p, JsonToken.START_ARRAY);
+            int id = 0;
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                final String token = p.getText();
+                if (dictionary.intern(token) != id++) {
+                    throw new JsonMappingException(p, "Unexpected token dictionary entry: " + token);
+                }
+            }
         }
-    }
 
-    private static class TreeNodeDeserializer extends JsonDeserializer<Node> {
-        @Override
-        public Node deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-            final ClustersRef clustersRef = (ClustersRef) ctxt.getAttribute(ClustersRef.class);
-            final ObjectCodec codec = p.getCodec();
-            final JsonNode jsonNode = codec.readTree(p);
-
-            final ArrayList<InternalLogCluster> nodeClusters = new ArrayList<>();
-            for (JsonNode clusterId : jsonNode.get("clusters")) {
-                nodeClusters.add(clustersRef.get(clusterId.textValue()));
-            }
-
-            final int depth = jsonNode.get("depth").asInt();
-
-            final JsonParser jsonParser = codec.treeAsTokens(jsonNode.get("children"));
-            // This json parser starts with JsonTokenId.ID_NO_TOKEN,
-            // the map deserializer expects the parser to have already
-            // advanced to the first token otherwise this fails with
-            // "Unexpected end-of-input ...", to avoid that this parser
-            // is advanced to the first token
-            jsonParser.nextToken();
-            final HashMap<Object, Node> children = ctxt.readValue(
-                    jsonParser,
-                    ctxt.getTypeFactory()
-                        .constructMapType(HashMap.class,
-                                          depth == 0 ? int.class : String.class,
-                                          Node.class)
-            );
+        private static ClustersRef readClusters(JsonParser p, TokenDictionary dictionary) throws IOException {
+            expect(p, JsonToken.START_ARRAY);
+            final ClustersRef clusters = new ClustersRef();
+            final List<Integer> templateTokens = new ArrayList<>();
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                String clusterId = null;
+                int sightings = 0;
+                templateTokens.clear();
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    final String field = p.currentName();
+                    p.nextToken();
+                    switch (field) {
+                        case "clusterId":
+                            clusterId = p.getValueAsString();
+                            break;
+                        case "sightings":
+                            sightings = p.getValueAsInt();
+                            break;
+                        case "logTemplateTokens":
+                            expect(p, JsonToken.START_ARRAY);
+                            while (p.nextToken() != JsonToken.END_ARRAY) {
+                                templateTokens.add(dictionary.intern(p.getText()));
+                            }
+                            break;
+                        default:
+                            p.skipChildren();
+                    }
+                }
 
-            Object key = depth == 1 ?
-                         Integer.valueOf(jsonNode.get("key").asInt()) :
-                         jsonNode.get("key").asText();
+                final int[] tokens = new int[templateTokens.size()];
+                for (int i = 0; i < tokens.length; i++) {
+                    tokens[i] = templateTokens.get(i);
+                }
+                clusters.add(new InternalLogCluster(dictionary, toUuid(clusterId), sightings, tokens), clusterId);
+            }
+            expect(p, JsonToken.END_ARRAY);
+            return clusters;
+        }
+
+        /**
+         * Older files may hold ids that are not UUIDs, these get a name based one.
+         */
+        private static UUID toUuid(String clusterId) {
+            if (clusterId == null) {
+                return UUID.randomUUID();
+            }
+            try {
+                return UUID.fromString(clusterId);
+            } catch (IllegalArgumentException e) {
+                return UUID.nameUUIDFromBytes(clusterId.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        private static Node readNode(JsonParser p, TokenDictionary dictionary, ClustersRef clusters) throws IOException {
+            expect(p, JsonToken.START_OBJECT);
+            int depth = -1;
+            String keyName = null;
+            int keyNumber = 0;
+            final List<Node> children = new ArrayList<>();
+            final List<InternalLogCluster> nodeClusters = new ArrayList<>();
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = p.currentName();
+                final JsonToken value = p.nextToken();
+                switch (field) {
+                    case "depth":
+                        depth = p.getValueAsInt();
+                        break;
+                    case "key":
+                        if (value == JsonToken.VALUE_NUMBER_INT) {
+                            keyNumber = p.getIntValue();
+                        } else {
+                            keyName = p.getText();
+                        }
+                        break;
+                    case "children":
+                        expect(p, JsonToken.START_OBJECT);
+                        while (p.nextToken() == JsonToken.FIELD_NAME) {
+                            p.nextToken();
+                            children.add(readNode(p, dictionary, clusters));
+                        }
+                        break;
+                    case "clusters":
+                        expect(p, JsonToken.START_ARRAY);
+                        while (p.nextToken() != JsonToken.END_ARRAY) {
+                            nodeClusters.add(clusters.get(p));
+                        }
+                        break;
+                    default:
+                        p.skipChildren();
+                }
+            }
+
+            final int key;
+            switch (depth) {
+                case 0:
+                    key = Node.ROOT_KEY;
+                    break;
+                case 1:
+                    key = keyName == null ? keyNumber : Integer.parseInt(keyName);
+                    break;
+                default:
+                    if (depth < 0 || keyName == null) {
+                        throw new JsonMappingException(p, "Incomplete prefix tree node");
+                    }
+                    key = dictionary.intern(keyName);
+            }
 
             return new Node(
                     key,
@@ -198,37 +378,65 @@ public class DrainJsonSerialization {
                     nodeClusters
             );
         }
-    }
 
+        private static void expect(JsonParser p, JsonToken token) throws IOException {
+            if (p.currentToken() != token) {
+                throw new JsonMappingException(p, "Expected " + token + " but was " + p.currentToken());
+            }
+        }
+
+        @Override
+        public Class<Drain> handledType() {
+            return Drain.class;
+        }
+    }
 
     static class ClustersRef {
-        private List<InternalLogCluster> clusters;
+        private final List<InternalLogCluster> clusters = new ArrayList<>();
+        private final List<String> clusterIds = new ArrayList<>();
         private Map<String, InternalLogCluster> clusterIndex;
 
-        public static String toRef(UUID clusterId) {
+        public static String toRef(String clusterId) {
             return "clusterId-" + clusterId;
         }
 
-        public void hold(List<InternalLogCluster> clusters) {
-            this.clusters = clusters;
-            this.clusterIndex = clusters.stream().collect(Collectors.toMap(
-                    logCluster -> toRef(logCluster.clusterId()),
-                    Function.identity()
-            ));
+        /**
+         * @param cluster   The deserialized cluster
+         * @param clusterId The stored id, it resolves the references of files
+         *                  saved before clusters were referenced by index
+         */
+        void add(InternalLogCluster cluster, String clusterId) {
+            clusters.add(cluster);
+            clusterIds.add(clusterId);
         }
 
-        public InternalLogCluster get(String clusterId) {
-            final InternalLogCluster logCluster = clusterIndex.get(clusterId);
-            assert logCluster != null : "id:" + clusterId + " size:" + clusters.size() + "\n" + clusters;
+        /**
+         * @param p The parser, on a cluster index or a cluster id reference
+         */
+        InternalLogCluster get(JsonParser p) throws IOException {
+            final InternalLogCluster logCluster;
+            if (p.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+                final int index = p.getIntValue();
+                logCluster = index >= 0 && index < clusters.size() ? clusters.get(index) : null;
+            } else {
+                logCluster = legacyClusterIndex().get(p.getText());
+            }
+            if (logCluster == null) {
+                throw new JsonMappingException(p, "Unknown cluster reference: " + p.getText());
+            }
             return logCluster;
         }
-    }
 
-    private static class LogClusterMixin {
-        public LogClusterMixin(
-                @JsonProperty("clusterId") UUID clusterId,
-                @JsonProperty("sightings") int sightings,
-                @JsonProperty("logTemplateTokens") List<String> logTemplateTokens) {
+        private Map<String, InternalLogCluster> legacyClusterIndex() {
+            if (clusterIndex == null) {
+                clusterIndex = new HashMap<>();
+                for (int i = 0; i < clusters.size(); i++) {
+                    if (clusterIds.get(i) != null) {
+                        clusterIndex.put(toRef(clusterIds.get(i)), clusters.get(i));
+                    }
+                }
+            }
+            return clusterIndex;
         }
     }
 }
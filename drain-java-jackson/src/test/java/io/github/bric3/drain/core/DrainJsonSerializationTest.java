@@ -12,6 +12,8 @@ package io.github.bric3.drain.core;
 import io.github.bric3.drain.utils.TestPaths;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -87,6 +89,67 @@ class DrainJsonSerializationTest {
         assertThat(drainReloaded.clusters()).hasSize(drain.clusters().size() + 1);
     }
 
+    @Test
+    void json_and_binary_snapshots_load_the_same_state() throws IOException {
+        Drain drain = initDrain("Unity.log", l -> l.substring(l.indexOf(": ") + 2));
+
+        final DrainBinarySerialization binarySerde = new DrainBinarySerialization();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        binarySerde.saveState(drain, out);
+        final Drain binaryReloaded = binarySerde.loadState(new ByteArrayInputStream(out.toByteArray()));
+        final Drain jsonReloaded = serde(drain);
+
+        assertThat(binaryReloaded.depth).isEqualTo(jsonReloaded.depth);
+        assertThat(binaryReloaded.similarityThreshold).isEqualTo(jsonReloaded.similarityThreshold);
+        assertThat(binaryReloaded.delimiters).isEqualTo(jsonReloaded.delimiters);
+        assertThat(binaryReloaded.maxChildPerNode).isEqualTo(jsonReloaded.maxChildPerNode);
+        assertThat(binaryReloaded.clusters()).isEqualTo(jsonReloaded.clusters());
+        assertThat(binaryReloaded.prefixTree()).isEqualTo(jsonReloaded.prefixTree());
+        assertThat(out.size()).isLessThan(jsonSize(drain));
+    }
+
+    @Test
+    void compact_json_loads_the_same_state() throws IOException {
+        Drain drain = initDrain("Unity.log", l -> l.substring(l.indexOf(": ") + 2));
+
+        final DrainJsonSerialization compactSerde = new DrainJsonSerialization(false);
+        final StringWriter writer = new StringWriter();
+        compactSerde.saveState(drain, writer);
+        final Drain drainReloaded = compactSerde.loadState(new StringReader(writer.toString()));
+
+        assertThat(writer.toString()).doesNotContain("\n");
+        assertThat(writer.toString().length()).isLessThan(jsonSize(drain));
+        assertThat(drainReloaded.clusters()).isEqualTo(drain.clusters());
+        assertThat(drainReloaded.prefixTree()).isEqualTo(drain.prefixTree());
+    }
+
+    @Test
+    void state_without_token_dictionary_and_with_cluster_id_references_can_be_loaded() {
+        final String legacyState = "{" +
+                                   "\"effective-depth\":2," +
+                                   "\"similarity-threshold\":0.4," +
+                                   "\"max-child-per-node\":100," +
+                                   "\"delimiters\":\" _\"," +
+                                   "\"clusters\":[{\"clusterId\":\"c1\",\"sightings\":3,\"logTemplateTokens\":[\"sent\",\"<*>\",\"bytes\"]}]," +
+                                   "\"prefix-tree\":{\"depth\":0,\"key\":\"(ROOT)\",\"clusters\":[],\"children\":{" +
+                                   "\"3\":{\"depth\":1,\"key\":3,\"clusters\":[],\"children\":{" +
+                                   "\"sent\":{\"depth\":2,\"key\":\"sent\",\"children\":{},\"clusters\":[\"clusterId-c1\"]}}}}}" +
+                                   "}";
+
+        final Drain drain = new DrainJsonSerialization().loadState(new StringReader(legacyState));
+
+        assertThat(drain.clusters()).hasSize(1);
+        assertThat(drain.clusters().get(0).sightings()).isEqualTo(3);
+        assertThat(drain.parseLogMessage("sent 42 bytes").cluster().sightings()).isEqualTo(4);
+        assertThat(drain.clusters()).hasSize(1);
+    }
+
+    private static int jsonSize(Drain drain) {
+        final StringWriter writer = new StringWriter();
+        new DrainJsonSerialization().saveState(drain, writer);
+        return writer.toString().getBytes(UTF_8).length;
+    }
+
     private Drain initDrain(String logFile, Function<String, String> normalizingFunction) throws IOException {
         Drain drain = Drain.drainBuilder()
                            .additionalDelimiters("_")
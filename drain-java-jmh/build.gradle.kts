@@ -0,0 +1,55 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+description = "JMH benchmarks of drain-java"
+
+dependencies {
+    jmhImplementation(projects.drainJavaCore)
+    jmhImplementation(projects.drainJavaJackson)
+    jmhImplementation(projects.tailer)
+    jmhImplementation(testFixtures(projects.drainJavaCore))
+    jmhImplementation(libs.jmh.core)
+    jmhAnnotationProcessor(libs.jmh.generator.annprocess)
+}
+
+// the tailer benchmarks require the same Java version as the tailer
+val JAVA_VERSION = 21
+
+java {
+    toolchain {
+        languageVersion.set(JavaLanguageVersion.of(JAVA_VERSION))
+    }
+}
+
+tasks {
+    withType(JavaCompile::class) {
+        options.release.set(JAVA_VERSION)
+    }
+}
+
+// Run with: ./gradlew :drain-java-jmh:jmh
+// or a subset with: ./gradlew :drain-java-jmh:jmh -Pjmh.includes=Tokenizer
+// Benchmarks use a synthetic log, unless given a log file with -Pjmh.log=build/SSH.log
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    includes.addAll(providers.gradleProperty("jmh.includes").map { listOf(it) }.orElse(emptyList()))
+    // ops/s with the allocation rate per operation (gc.alloc.rate.norm in bytes/op)
+    profilers.add("gc")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    providers.gradleProperty("jmh.log").orNull?.let {
+        jvmArgsAppend.add("-Ddrain.jmh.log=${rootProject.file(it)}")
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.synthetic.SyntheticLogs;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Log lines shared by the benchmarks.
+ * <p>
+ * The log file is given by the {@code drain.jmh.log} system property,
+ * otherwise a synthetic log is generated, its size is controlled by
+ * the {@code drain.jmh.lines} and {@code drain.jmh.templates} system
+ * properties.
+ */
+public final class BenchmarkLogs {
+    public static final String LOG_PROPERTY = "drain.jmh.log";
+    public static final String LINES_PROPERTY = "drain.jmh.lines";
+    public static final String TEMPLATES_PROPERTY = "drain.jmh.templates";
+
+    private static Path syntheticLog;
+
+    private BenchmarkLogs() {
+    }
+
+    public static synchronized Path path() {
+        var log = System.getProperty(LOG_PROPERTY);
+        if (log != null && !log.isBlank()) {
+            return Path.of(log);
+        }
+        if (syntheticLog == null) {
+            try {
+                var path = Files.createTempFile("drain-jmh-", ".log");
+                path.toFile().deleteOnExit();
+                SyntheticLogs.builder()
+                             .templates(Integer.getInteger(TEMPLATES_PROPERTY, 1_000))
+                             .build()
+                             .write(Long.getLong(LINES_PROPERTY, 200_000L), path, null);
+                syntheticLog = path;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return syntheticLog;
+    }
+
+    public static List<String> lines() {
+        try {
+            return Files.readAllLines(path(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return a Drain trained on all the lines
+     */
+    public static Drain trainedDrain(List<String> lines) {
+        var drain = Drain.drainBuilder()
+                         .additionalDelimiters("_")
+                         .depth(4)
+                         .build();
+        lines.forEach(drain::parseLogMessage);
+        return drain;
+    }
+}
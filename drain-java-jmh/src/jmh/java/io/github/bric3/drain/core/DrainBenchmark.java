@@ -0,0 +1,72 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and searching log messages.
+ * <p>
+ * The warm benchmarks work on a tree already trained with all the lines,
+ * one line per operation, the cold benchmark trains a new tree with all
+ * the lines per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DrainBenchmark {
+    private List<String> lineList;
+    private String[] lines;
+    private int next;
+    private Drain drain;
+
+    @Setup
+    public void setup() {
+        lineList = BenchmarkLogs.lines();
+        lines = lineList.toArray(new String[0]);
+        drain = BenchmarkLogs.trainedDrain(lineList);
+    }
+
+    private String nextLine() {
+        var line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return line;
+    }
+
+    @Benchmark
+    public ParseResult parseWarm() {
+        return drain.parseLogMessage(nextLine());
+    }
+
+    @Benchmark
+    public LogCluster searchWarm() {
+        return drain.searchLogMessage(nextLine());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void parseCold(Blackhole blackhole) {
+        var coldDrain = Drain.drainBuilder()
+                             .additionalDelimiters("_")
+                             .depth(4)
+                             .build();
+        for (String line : lines) {
+            blackhole.consume(coldDrain.parseLogMessage(line));
+        }
+    }
+}
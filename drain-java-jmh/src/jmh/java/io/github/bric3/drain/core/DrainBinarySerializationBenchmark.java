@@ -0,0 +1,52 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading a trained model in the binary snapshot format,
+ * to compare with {@link DrainJsonSerializationBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DrainBinarySerializationBenchmark {
+    private final DrainBinarySerialization serialization = new DrainBinarySerialization();
+    private Drain drain;
+    private byte[] snapshot;
+
+    @Setup
+    public void setup() {
+        drain = BenchmarkLogs.trainedDrain(BenchmarkLogs.lines());
+        var out = new ByteArrayOutputStream();
+        serialization.saveState(drain, out);
+        snapshot = out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] save() {
+        var out = new ByteArrayOutputStream(snapshot.length);
+        serialization.saveState(drain, out);
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Drain load() {
+        return serialization.loadState(new ByteArrayInputStream(snapshot));
+    }
+}
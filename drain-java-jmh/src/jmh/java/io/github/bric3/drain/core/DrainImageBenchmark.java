@@ -0,0 +1,75 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opening and searching a trained model image, to compare with
+ * {@link DrainBinarySerializationBenchmark#load()} and the frozen model.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DrainImageBenchmark {
+    private String[] lines;
+    private int next;
+    private Path path;
+    private FrozenDrain frozenDrain;
+    private DrainImage image;
+
+    @Setup
+    public void setup() throws IOException {
+        var lineList = BenchmarkLogs.lines();
+        lines = lineList.toArray(new String[0]);
+        frozenDrain = BenchmarkLogs.trainedDrain(lineList).freeze();
+        path = Files.createTempFile("drain-", ".image");
+        DrainImage.write(frozenDrain, path);
+        image = DrainImage.open(path);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private String nextLine() {
+        var line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return line;
+    }
+
+    @Benchmark
+    public DrainImage open() {
+        return DrainImage.open(path);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int searchFrozen() {
+        return frozenDrain.searchClusterIndex(nextLine());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public int searchImage() {
+        return image.searchClusterIndex(nextLine());
+    }
+}
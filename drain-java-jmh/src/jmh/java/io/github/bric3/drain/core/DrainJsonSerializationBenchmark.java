@@ -0,0 +1,55 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving and loading a trained model in JSON.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DrainJsonSerializationBenchmark {
+    @Param({"true", "false"})
+    public boolean prettyPrint;
+
+    private DrainJsonSerialization serialization;
+    private Drain drain;
+    private String json;
+
+    @Setup
+    public void setup() {
+        serialization = new DrainJsonSerialization(prettyPrint);
+        drain = BenchmarkLogs.trainedDrain(BenchmarkLogs.lines());
+        var writer = new StringWriter();
+        serialization.saveState(drain, writer);
+        json = writer.toString();
+    }
+
+    @Benchmark
+    public String save() {
+        var writer = new StringWriter(json.length());
+        serialization.saveState(drain, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public Drain load() {
+        return serialization.loadState(new StringReader(json));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Leaf scan of a log message, and the pruned similar token count against
+ * the template of its cluster, one message per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FastMatchBenchmark {
+    private Drain drain;
+    private InternalLogCluster[][] leaves;
+    private int[][] templates;
+    private int[] paramCounts;
+    private int[] minSimilars;
+    private int[][] messages;
+    private int next;
+
+    @Setup
+    public void setup() {
+        var lines = BenchmarkLogs.lines();
+        drain = BenchmarkLogs.trainedDrain(lines);
+        var tokens = new Tokenizer.Tokens();
+
+        var leafList = new ArrayList<InternalLogCluster[]>();
+        var templateList = new ArrayList<int[]>();
+        var paramCountList = new ArrayList<Integer>();
+        var messageList = new ArrayList<int[]>();
+        for (String line : lines) {
+            var cluster = (InternalLogCluster) drain.searchLogMessage(line);
+            if (cluster == null) {
+                continue;
+            }
+            drain.tokenizer.tokenize(line, tokens);
+            var ids = new int[tokens.count()];
+            drain.dictionary().idsOf(tokens, ids);
+            leafList.add(cluster.leaf.clusters());
+            templateList.add(cluster.internalTokens());
+            paramCountList.add(cluster.paramCount());
+            messageList.add(ids);
+        }
+        leaves = leafList.toArray(new InternalLogCluster[0][]);
+        templates = templateList.toArray(new int[0][]);
+        messages = messageList.toArray(new int[0][]);
+        paramCounts = new int[templates.length];
+        minSimilars = new int[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            paramCounts[i] = paramCountList.get(i);
+            minSimilars[i] = drain.minSimilarTokens(templates[i].length);
+        }
+    }
+
+    @Benchmark
+    public Object fastMatch() {
+        var i = nextMessage();
+        return drain.fastMatch(leaves[i], messages[i]);
+    }
+
+    @Benchmark
+    public int similarTokens() {
+        var i = nextMessage();
+        return Drain.similarTokens(templates[i], messages[i], paramCounts[i], minSimilars[i]);
+    }
+
+    private int nextMessage() {
+        var i = next;
+        next = next + 1 == messages.length ? 0 : next + 1;
+        return i;
+    }
+}
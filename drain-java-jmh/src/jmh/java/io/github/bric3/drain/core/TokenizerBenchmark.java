@@ -0,0 +1,49 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.drain.core;
+
+import io.github.bric3.drain.internal.Tokenizer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tokenization of a log line, one line per operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenizerBenchmark {
+    private String[] lines;
+    private int next;
+    private Tokenizer tokenizer;
+    private Tokenizer.Tokens tokens;
+
+    @Setup
+    public void setup() {
+        lines = BenchmarkLogs.lines().toArray(new String[0]);
+        tokenizer = new Tokenizer(" _");
+        tokens = new Tokenizer.Tokens();
+    }
+
+    private String nextLine() {
+        var line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return line;
+    }
+
+    @Benchmark
+    public int tokenize() {
+        return tokenizer.tokenize(nextLine(), tokens);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import io.github.bric3.drain.core.BenchmarkLogs;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading all the lines of the log file, the auxiliary counters report
+ * the line and byte throughput.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MappedFileLineReaderBenchmark {
+    private FileChannel channel;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long lines;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        channel = FileChannel.open(BenchmarkLogs.path(), StandardOpenOption.READ);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        channel.close();
+    }
+
+    @Benchmark
+    public void lineConsumer(Throughput throughput, Blackhole blackhole) throws IOException {
+        var lineConsumer = new MappedFileLineReader.LineConsumer(line -> {
+            throughput.lines++;
+            blackhole.consume(line);
+        }, StandardCharsets.UTF_8);
+        throughput.bytes += lineConsumer.apply(channel, 0);
+    }
+
+    @Benchmark
+    public void mappedLineConsumer(Throughput throughput, Blackhole blackhole) throws IOException {
+        var lineConsumer = new MappedFileLineReader.MappedLineConsumer(line -> {
+            throughput.lines++;
+            blackhole.consume(line);
+        }, StandardCharsets.UTF_8);
+        throughput.bytes += lineConsumer.apply(channel, 0);
+    }
+}
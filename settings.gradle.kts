@@ -20,6 +20,7 @@ include(
     "drain-java-bom",
     "drain-java-core",
     "drain-java-jackson",
+    "drain-java-jmh",
     "tailer"
 )
 
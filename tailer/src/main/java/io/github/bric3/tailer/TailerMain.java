@@ -14,13 +14,26 @@ import io.github.bric3.tailer.config.FromLine;
 import io.github.bric3.tailer.config.FromLine.StartFromLineConverter;
 import io.github.bric3.tailer.drain.DrainFile;
 import io.github.bric3.tailer.tail.TailFile;
+import io.github.bric3.tailer.file.Compression;
+import io.github.bric3.tailer.file.Globs;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 
 @Command(
@@ -39,13 +52,18 @@ public class TailerMain implements Runnable {
     public static final int ERR_IO_TAILING_FILE = 2;
     public static final int ERR_IO_WATCHING_FILE = 3;
 
+    private static final String STDIN = "-";
+
     public static void main(String[] args) {
         System.exit(new CommandLine(new TailerMain()).execute(args));
     }
 
-    @Parameters(description = "log file",
-                paramLabel = "FILE")
-    Path file;
+    @Parameters(description = "log files, or globs like 'logs/*.log', or - to read the" +
+                              " standard input; several files or a stream can only be" +
+                              " read with DRAIN",
+                paramLabel = "FILE",
+                arity = "1..*")
+    List<String> files;
 
     @Option(names = {"-d", "--drain"},
             description = "use DRAIN to extract log patterns")
@@ -62,6 +80,27 @@ public class TailerMain implements Runnable {
             paramLabel = "COLUMN")
     int parseAfterCol = 0;
 
+    @Option(names = {"-j", "--jobs"},
+            description = "when using DRAIN without --follow, parse the file in JOBS" +
+                          " parallel shards, then merge them; with --follow, tokenize" +
+                          " lines on JOBS threads (default: ${DEFAULT-VALUE})",
+            paramLabel = "JOBS",
+            defaultValue = "1")
+    int jobs;
+
+    @Option(names = {"--checkpoint"},
+            description = "when using DRAIN on a single file, save the model and the" +
+                          " read position in DIR at intervals and on exit, then resume" +
+                          " from them; lines are parsed on a single thread",
+            paramLabel = "DIR")
+    Path checkpoint;
+
+    @Option(names = {"--checkpoint-interval"},
+            description = "seconds between checkpoints (default: ${DEFAULT-VALUE})",
+            paramLabel = "SECONDS",
+            defaultValue = "5")
+    long checkpointInterval;
+
     @Option(names = {"-f", "--follow"},
             description = "output appended data as the file grows")
     boolean follow;
@@ -85,18 +124,89 @@ public class TailerMain implements Runnable {
 
     @Override
     public void run() {
-        if (!Files.isRegularFile(file)) {
-            System.err.println("Expects a file path to tail!");
+        var config = new Config(verbose,
+                                parseAfterStr,
+                                parseAfterCol,
+                                Math.max(1, jobs),
+                                checkpoint,
+                                Duration.ofSeconds(Math.max(0, checkpointInterval)));
+        if (checkpoint != null && !drain) {
+            System.err.println("Checkpoints are only supported with DRAIN!");
             System.exit(ERR_NO_FILEPATH);
         }
 
-        var config = new Config(verbose, parseAfterStr, parseAfterCol);
+        if (files.size() == 1 && isStream(files.get(0))) {
+            if (!drain) {
+                System.err.println("A stream can only be read with DRAIN!");
+                System.exit(ERR_NO_FILEPATH);
+            }
+            if (checkpoint != null) {
+                System.err.println("A stream can't be checkpointed!");
+                System.exit(ERR_NO_FILEPATH);
+            }
+            try (var input = openStream(files.get(0))) {
+                new DrainFile(config).drain(input);
+            } catch (IOException e) {
+                if (verbose) {
+                    e.printStackTrace();
+                }
+                System.exit(ERR_IO_TAILING_FILE);
+            }
+            return;
+        }
+
+        var paths = new ArrayList<Path>();
+        for (var file : files) {
+            try {
+                paths.addAll(Globs.expand(file));
+            } catch (IOException e) {
+                System.err.println("Cannot expand " + file + ": " + e.getMessage());
+                System.exit(ERR_NO_FILEPATH);
+            }
+        }
+        if (paths.isEmpty() || !paths.stream().allMatch(Files::isRegularFile)) {
+            System.err.println("Expects a file path to tail!");
+            System.exit(ERR_NO_FILEPATH);
+        }
+        if ((!drain || follow) && paths.stream().anyMatch(Compression::isGzip)) {
+            System.err.println("Compressed files can only be read with DRAIN, without --follow!");
+            System.exit(ERR_NO_FILEPATH);
+        }
+        if (checkpoint != null && (paths.size() > 1 || Compression.isGzip(paths.get(0)))) {
+            System.err.println("Only a single uncompressed file can be checkpointed!");
+            System.exit(ERR_NO_FILEPATH);
+        }
 
         if (drain) {
-            new DrainFile(config).drain(file, fromLine, follow);
+            new DrainFile(config).drain(paths, fromLine, follow);
+        } else if (paths.size() == 1) {
+            new TailFile(config).tail(paths.get(0), fromLine, follow);
         } else {
-            new TailFile(config).tail(file, fromLine, follow);
+            System.err.println("Several files can only be read with DRAIN!");
+            System.exit(ERR_NO_FILEPATH);
+        }
+
+    }
+
+    /**
+     * Whether lines come from the standard input, or from a named pipe, a
+     * socket, etc. which can only be read once, until their end.
+     */
+    private static boolean isStream(String file) {
+        if (STDIN.equals(file)) {
+            return true;
+        }
+        try {
+            return Files.readAttributes(Path.of(file), BasicFileAttributes.class).isOther();
+        } catch (IOException | InvalidPathException e) {
+            return false;
         }
+    }
 
+    private static ReadableByteChannel openStream(String file) throws IOException {
+        if (STDIN.equals(file)) {
+            return new FileInputStream(FileDescriptor.in).getChannel();
+        }
+        return FileChannel.open(Path.of(file), StandardOpenOption.READ);
     }
 }
@@ -9,9 +9,12 @@
  */
 package io.github.bric3.tailer.config;
 
+import javax.annotation.Nullable;
 import java.io.PrintStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
 
 public class Config {
     public final boolean verbose;
@@ -28,8 +31,21 @@ public class Config {
     }
 
     public Config(boolean verbose, String parseAfterStr, int parseAfterCol) {
+        this(verbose, parseAfterStr, parseAfterCol, 1);
+    }
+
+    public Config(boolean verbose, String parseAfterStr, int parseAfterCol, int jobs) {
+        this(verbose, parseAfterStr, parseAfterCol, jobs, null, Duration.ZERO);
+    }
+
+    public Config(boolean verbose,
+                  String parseAfterStr,
+                  int parseAfterCol,
+                  int jobs,
+                  @Nullable Path checkpoint,
+                  Duration checkpointInterval) {
         this.verbose = verbose;
-        this.drain = new DrainConfig(parseAfterStr, parseAfterCol);
+        this.drain = new DrainConfig(parseAfterStr, parseAfterCol, jobs, checkpoint, checkpointInterval);
         this.out = System.out;
         this.err = System.err;
         this.charset = StandardCharsets.UTF_8;
@@ -38,10 +54,29 @@ public class Config {
     public static class DrainConfig {
         public final String parseAfterStr;
         public final int parseAfterCol;
+        /**
+         * Number of shards parsed in parallel when not following the file,
+         * otherwise the number of threads tokenizing the lines.
+         */
+        public final int jobs;
+        /**
+         * Directory of the model and the read position, to resume from,
+         * null if not checkpointing.
+         */
+        @Nullable
+        public final Path checkpoint;
+        public final Duration checkpointInterval;
 
-        DrainConfig(String parseAfterStr, int parseAfterCol) {
+        DrainConfig(String parseAfterStr,
+                    int parseAfterCol,
+                    int jobs,
+                    @Nullable Path checkpoint,
+                    Duration checkpointInterval) {
             this.parseAfterStr = parseAfterStr;
             this.parseAfterCol = parseAfterCol;
+            this.jobs = jobs;
+            this.checkpoint = checkpoint;
+            this.checkpointInterval = checkpointInterval;
         }
     }
 }
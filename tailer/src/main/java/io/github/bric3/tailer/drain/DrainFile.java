@@ -10,18 +10,40 @@
 package io.github.bric3.tailer.drain;
 
 import io.github.bric3.drain.core.Drain;
+import io.github.bric3.drain.core.DrainJournal;
 import io.github.bric3.drain.core.LogCluster;
 import io.github.bric3.drain.internal.Stopwatch;
+import io.github.bric3.tailer.TailerMain;
 import io.github.bric3.tailer.config.Config;
 import io.github.bric3.tailer.config.FromLine;
+import io.github.bric3.tailer.file.Compression;
 import io.github.bric3.tailer.file.MappedFileLineReader;
+import io.github.bric3.tailer.file.MultiFileLineReader;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 public class DrainFile {
+    private static final int SHUTDOWN_TIMEOUT_SECONDS = 10;
+    private static final Runnable NOTHING = () -> {};
 
     private final Config config;
 
@@ -29,53 +51,476 @@ public class DrainFile {
         this.config = config;
     }
 
-    public void drain(Path file, FromLine fromLine, boolean follow) {
-        assert file != null;
+    /**
+     * Parses the lines of several files in a single model, the files are
+     * read concurrently, see {@link MultiFileLineReader}.
+     */
+    public void drain(List<Path> files, FromLine fromLine, boolean follow) {
+        assert files != null && !files.isEmpty();
         assert fromLine != null;
 
+        if (files.size() == 1) {
+            drain(files.get(0), fromLine, follow);
+            return;
+        }
+        if (!follow && files.stream().anyMatch(Compression::isGzip)) {
+            drainFilesInParallel(files, fromLine);
+            return;
+        }
+
         var drain = Drain.drainBuilder()
                          .additionalDelimiters("_")
                          .depth(4)
+                         .concurrent(true)
                          .build();
 
-        var lineCounter = new AtomicInteger();
+        var lineCounter = new LongAdder();
         var stopwatch = Stopwatch.createStarted();
-        Consumer<String> drainConsumer = l -> {
-            lineCounter.incrementAndGet();
+        Consumer<CharSequence> drainConsumer = l -> {
+            lineCounter.increment();
+            drain.parseLogMessage(preProcess(l));
+        };
+
+        // each file needs its own decoder and carried over line
+        var reader = new MultiFileLineReader(config, file -> new MappedFileLineReader.LineAssembler(drainConsumer, config.charset));
+        var stopped = follow ? stopOnShutdown(reader::close) : NOTHING;
+        try {
+            reader.tailRead(files, fromLine, follow);
+
+            if (config.verbose) {
+                config.out.printf("---- Done processing %d files. Total of %d lines, done in %s, %d clusters%n",
+                                  files.size(),
+                                  lineCounter.sum(),
+                                  stopwatch,
+                                  drain.clusters().size());
+            }
+            printClusters(drain);
+        } finally {
+            stopped.run();
+        }
+    }
+
+    public void drain(Path file, FromLine fromLine, boolean follow) {
+        assert file != null;
+        assert fromLine != null;
+
+        if (Compression.isGzip(file)) {
+            drainStream("file", pipeline -> {
+                try (var input = Compression.gunzip(file)) {
+                    return pipeline.read(input);
+                }
+            }, null);
+            return;
+        }
+
+        if (config.drain.checkpoint != null) {
+            drainWithCheckpoints(file, fromLine, follow);
+            return;
+        }
 
-            String content = preProcess(l);
-            drain.parseLogMessage(content);
-            if (config.verbose && lineCounter.get() % 10000 == 0) {
+        var jobs = config.drain.jobs;
+        if (!follow && jobs > 1 && MappedFileLineReader.MappedLineConsumer.supports(config.charset)) {
+            drainInParallel(file, fromLine, jobs);
+            return;
+        }
+
+        var drain = newDrain();
+
+        var lineCounter = new AtomicInteger();
+        var stopwatch = Stopwatch.createStarted();
+        Runnable lineParsed = () -> {
+            if (lineCounter.incrementAndGet() % 10000 == 0 && config.verbose) {
                 config.out.printf("%4d clusters so far%n", drain.clusters().size());
             }
         };
 
-        new MappedFileLineReader(config, new MappedFileLineReader.LineConsumer(drainConsumer, config.charset))
-                .tailRead(file, fromLine, follow);
+        if (follow && jobs > 1 && MappedFileLineReader.MappedLineConsumer.supports(config.charset)) {
+            // lines are tokenized ahead on other threads, the model is still updated in the file order
+            try (var pipeline = new DrainPipeline(drain, config.charset, this::preProcess, r -> lineParsed.run(), jobs)) {
+                var reader = new MappedFileLineReader(config, pipeline);
+                var stopped = stopOnShutdown(reader::close);
+                try {
+                    reader.tailRead(file, fromLine, true);
+                    // the pipeline is drained before the clusters are printed
+                    pipeline.close();
+                    printSummary(drain, lineCounter.get(), stopwatch);
+                } finally {
+                    stopped.run();
+                }
+            }
+        } else {
+            Consumer<CharSequence> drainConsumer = l -> {
+                drain.parseLogMessage(preProcess(l));
+                lineParsed.run();
+            };
+
+            // following reads small increments, that's cheaper than mapping them
+            MappedFileLineReader.IOReadAction lineReader =
+                    !follow && MappedFileLineReader.MappedLineConsumer.supports(config.charset) ?
+                    new MappedFileLineReader.MappedLineConsumer(drainConsumer, config.charset) :
+                    new MappedFileLineReader.LineAssembler(drainConsumer, config.charset);
+            var reader = new MappedFileLineReader(config, lineReader);
+            var stopped = follow ? stopOnShutdown(reader::close) : NOTHING;
+            try {
+                reader.tailRead(file, fromLine, follow);
+                printSummary(drain, lineCounter.get(), stopwatch);
+            } finally {
+                stopped.run();
+            }
+        }
+    }
+
+    /**
+     * Parses the file from the position of the last checkpoint if it is the
+     * same file, with the model of this checkpoint, otherwise from its start.
+     * The model and the position of the last parsed line are checkpointed
+     * at intervals, and when the tailer stops, see {@link DrainJournal}.
+     * <p>
+     * Lines are parsed on the reading thread, and reads stop after the last
+     * newline, so the model always matches the read position. An incomplete
+     * last line is left for the next run, when the writer completed it.
+     */
+    private void drainWithCheckpoints(Path file, FromLine fromLine, boolean follow) {
+        assert config.drain.checkpoint != null;
+
+        var checkpointIntervalNanos = config.drain.checkpointInterval.toNanos();
+        try (var journal = DrainJournal.open(config.drain.checkpoint, drainBuilder())) {
+            var drain = journal.drain();
+            var lineCounter = new AtomicInteger();
+            var stopwatch = Stopwatch.createStarted();
+            Consumer<CharSequence> drainConsumer = l -> {
+                drain.parseLogMessage(preProcess(l));
+                if (lineCounter.incrementAndGet() % 10000 == 0 && config.verbose) {
+                    config.out.printf("%4d clusters so far%n", drain.clusters().size());
+                }
+            };
+
+            var lastRead = new ReadCheckpoint[1];
+            var lastCheckpointNanos = new long[]{System.nanoTime()};
+            var reader = new MappedFileLineReader(
+                    config,
+                    new MappedFileLineReader.MappedLineConsumer(drainConsumer, config.charset),
+                    (fileKey, position) -> {
+                        lastRead[0] = new ReadCheckpoint(fileKey, position);
+                        var now = System.nanoTime();
+                        if (now - lastCheckpointNanos[0] >= checkpointIntervalNanos) {
+                            lastCheckpointNanos[0] = now;
+                            checkpoint(journal, lastRead[0]);
+                        }
+                    },
+                    true);
+
+            var resumed = ReadCheckpoint.decode(journal.metadata());
+            var stopped = follow ? stopOnShutdown(reader::close) : NOTHING;
+            try {
+                if (resumed == null) {
+                    reader.tailRead(file, fromLine, follow);
+                } else {
+                    var startPosition = resumed.isPositionOf(file) ? resumed.position() : 0;
+                    if (config.verbose) {
+                        config.out.printf("Resuming %d clusters from position %d (checkpoint %s)%n",
+                                          drain.clusters().size(),
+                                          startPosition,
+                                          resumed);
+                    }
+                    reader.tailRead(file, startPosition, follow);
+                }
+                if (lastRead[0] != null) {
+                    checkpoint(journal, lastRead[0]);
+                }
+                printSummary(drain, lineCounter.get(), stopwatch);
+            } finally {
+                stopped.run();
+            }
+        } catch (IOException | UncheckedIOException e) {
+            if (config.verbose) {
+                e.printStackTrace(config.err);
+            }
+            System.exit(TailerMain.ERR_IO_TAILING_FILE);
+        }
+    }
+
+    private void checkpoint(DrainJournal journal, ReadCheckpoint readCheckpoint) {
+        try {
+            var written = journal.checkpoint(readCheckpoint.encode());
+            if (config.verbose && written > 0) {
+                config.out.printf("Checkpoint at %s (%d bytes)%n", readCheckpoint, written);
+            }
+        } catch (UncheckedIOException e) {
+            // the changes are kept for the next checkpoint
+            e.printStackTrace(config.err);
+        }
+    }
+
+    /**
+     * Stops the reader when the JVM shuts down, e.g. on Ctrl+C, then the
+     * shutdown waits for the clusters to be printed.
+     *
+     * @return to call once the clusters are printed
+     */
+    private Runnable stopOnShutdown(Runnable stopReader) {
+        var done = new CountDownLatch(1);
+        var hook = new Thread(() -> {
+            stopReader.run();
+            try {
+                done.await(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "drain-shutdown");
+        Runtime.getRuntime().addShutdownHook(hook);
+        return () -> {
+            done.countDown();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            }
+        };
+    }
+
+    private void printSummary(Drain drain, int lineCount, Stopwatch stopwatch) {
+        if (config.verbose) {
+            config.out.printf("---- Done processing file. Total of %d lines, done in %s, %d clusters%n",
+                              lineCount,
+                              stopwatch,
+                              drain.clusters().size());
+        }
+        printClusters(drain);
+    }
+
+    /**
+     * Parses the lines of a stream, e.g. the standard input or a named pipe,
+     * until its end, or until the JVM shuts down, e.g. on Ctrl+C.
+     * <p>
+     * The stream is read through a {@link DrainPipeline}, so reading only
+     * buffers a bounded number of batches ahead of the model updates.
+     */
+    public void drain(ReadableByteChannel input) {
+        assert input != null;
+
+        drainStream("stream", pipeline -> {
+            try {
+                return pipeline.read(input);
+            } catch (AsynchronousCloseException e) {
+                // closed on shutdown, the lines read so far are parsed
+                pipeline.finish(null, 0);
+                return 0;
+            }
+        }, () -> {
+            try {
+                input.close();
+            } catch (IOException e) {
+                // the read stops at the end of the stream anyway
+            }
+        });
+    }
+
+    /**
+     * @param stopRead Stops the read on shutdown, or null if the read always ends
+     */
+    private void drainStream(String source, PipelineRead read, @Nullable Runnable stopRead) {
+        var drain = newDrain();
+
+        var lineCounter = new AtomicInteger();
+        var stopwatch = Stopwatch.createStarted();
+        var stopped = stopRead == null ? NOTHING : stopOnShutdown(stopRead);
+        try {
+            try (var pipeline = new DrainPipeline(drain, config.charset, this::preProcess, r -> {
+                if (lineCounter.incrementAndGet() % 10000 == 0 && config.verbose) {
+                    config.out.printf("%4d clusters so far%n", drain.clusters().size());
+                }
+            }, config.drain.jobs)) {
+                read.read(pipeline);
+            } catch (IOException e) {
+                if (config.verbose) {
+                    e.printStackTrace(config.err);
+                }
+                // the shutdown doesn't wait for the clusters
+                stopped.run();
+                System.exit(TailerMain.ERR_IO_TAILING_FILE);
+                return;
+            }
+
+            if (config.verbose) {
+                config.out.printf("---- Done processing %s. Total of %d lines, done in %s, %d clusters%n",
+                                  source,
+                                  lineCounter.get(),
+                                  stopwatch,
+                                  drain.clusters().size());
+            }
+            printClusters(drain);
+        } finally {
+            stopped.run();
+        }
+    }
+
+    private interface PipelineRead {
+        long read(DrainPipeline pipeline) throws IOException;
+    }
+
+    /**
+     * Parses each file in its own model on its own thread, then the models
+     * are merged. Compressed files are decompressed by the thread parsing
+     * them, so a month of archives is decompressed on JOBS cores.
+     */
+    private void drainFilesInParallel(List<Path> files, FromLine fromLine) {
+        var lineCounter = new LongAdder();
+        var stopwatch = Stopwatch.createStarted();
+        Drain drain;
+        try (var executor = Executors.newFixedThreadPool(Math.min(config.drain.jobs, files.size()))) {
+            var shards = new ArrayList<Future<Drain>>(files.size());
+            for (var file : files) {
+                shards.add(executor.submit(() -> {
+                    var shard = newDrain();
+                    Consumer<CharSequence> shardConsumer = l -> {
+                        lineCounter.increment();
+                        shard.parseLogMessage(preProcess(l));
+                    };
+                    if (Compression.isGzip(file)) {
+                        // split on LF only, like the uncompressed files
+                        try (var input = Channels.newChannel(Compression.gunzip(file))) {
+                            new MappedFileLineReader.LineAssembler(shardConsumer, config.charset).read(input);
+                        }
+                    } else {
+                        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                            var startPosition = MappedFileLineReader.findTailStartPosition(channel, fromLine);
+                            MappedFileLineReader.IOReadAction lineReader =
+                                    MappedFileLineReader.MappedLineConsumer.supports(config.charset) ?
+                                    new MappedFileLineReader.MappedLineConsumer(shardConsumer, config.charset) :
+                                    new MappedFileLineReader.LineAssembler(shardConsumer, config.charset);
+                            var position = startPosition + lineReader.apply(channel, startPosition);
+                            lineReader.finish(channel, position);
+                        }
+                    }
+                    return shard;
+                }));
+            }
+
+            // merged in the order of the files, so the templates don't depend on the scheduling
+            drain = shards.get(0).get();
+            for (int i = 1; i < shards.size(); i++) {
+                drain.merge(shards.get(i).get());
+            }
+        } catch (ExecutionException e) {
+            if (config.verbose) {
+                e.printStackTrace(config.err);
+            }
+            System.exit(TailerMain.ERR_IO_TAILING_FILE);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (config.verbose) {
+            config.out.printf("---- Done processing %d files. Total of %d lines, done in %s, %d clusters%n",
+                              files.size(),
+                              lineCounter.sum(),
+                              stopwatch,
+                              drain.clusters().size());
+        }
+        printClusters(drain);
+    }
+
+    /**
+     * Splits the file in ranges of lines, each range is parsed by its own
+     * Drain on its own thread, then the shards are merged.
+     */
+    private void drainInParallel(Path file, FromLine fromLine, int jobs) {
+        var lineCounter = new LongAdder();
+        var stopwatch = Stopwatch.createStarted();
+        Drain drain;
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ);
+             var executor = Executors.newFixedThreadPool(jobs)) {
+            var startPosition = MappedFileLineReader.findTailStartPosition(channel, fromLine);
+            var boundaries = MappedFileLineReader.splitOnLines(channel, startPosition, channel.size(), jobs);
+            if (config.verbose) {
+                config.out.printf("Reading file from position %d in %d shards%n", startPosition, jobs);
+            }
+
+            var shards = new ArrayList<Future<Drain>>(jobs);
+            for (int i = 0; i < jobs; i++) {
+                var shardStart = boundaries[i];
+                var shardEnd = boundaries[i + 1];
+                shards.add(executor.submit(() -> {
+                    var shard = newDrain();
+                    new MappedFileLineReader.MappedLineConsumer(l -> {
+                        lineCounter.increment();
+                        shard.parseLogMessage(preProcess(l));
+                    }, config.charset).read(channel, shardStart, shardEnd);
+                    return shard;
+                }));
+            }
+
+            // merged in the file order, so the templates don't depend on the scheduling
+            drain = shards.get(0).get();
+            for (int i = 1; i < jobs; i++) {
+                drain.merge(shards.get(i).get());
+            }
+        } catch (IOException | ExecutionException e) {
+            if (config.verbose) {
+                e.printStackTrace(config.err);
+            }
+            System.exit(TailerMain.ERR_IO_TAILING_FILE);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
 
         if (config.verbose) {
             config.out.printf("---- Done processing file. Total of %d lines, done in %s, %d clusters%n",
-                              lineCounter.get(),
+                              lineCounter.sum(),
                               stopwatch,
                               drain.clusters().size());
         }
+        printClusters(drain);
+    }
+
+    private static Drain newDrain() {
+        return drainBuilder().build();
+    }
+
+    private static Drain.DrainBuilder drainBuilder() {
+        return Drain.drainBuilder()
+                    .additionalDelimiters("_")
+                    .depth(4);
+    }
+
+    private static void printClusters(Drain drain) {
         drain.clusters()
              .stream()
              .sorted(Comparator.comparing(LogCluster::sightings).reversed())
              .forEach(System.out::println);
-
     }
 
-    private String preProcess(String line) {
+    private CharSequence preProcess(CharSequence line) {
         var parseAfterCol = config.drain.parseAfterCol;
         if (parseAfterCol > 0) {
-            return line.substring(parseAfterCol);
+            return line.subSequence(parseAfterCol, line.length());
         }
 
         var parseAfterStr = config.drain.parseAfterStr;
         if (!parseAfterStr.isEmpty()) {
-            return line.substring(line.indexOf(parseAfterStr) + parseAfterStr.length());
+            return line.subSequence(indexOf(line, parseAfterStr) + parseAfterStr.length(), line.length());
         }
         return line;
     }
+
+    private static int indexOf(CharSequence line, String str) {
+        if (line instanceof String) {
+            return ((String) line).indexOf(str);
+        }
+        outer:
+        for (int i = 0, last = line.length() - str.length(); i <= last; i++) {
+            for (int j = 0; j < str.length(); j++) {
+                if (line.charAt(i + j) != str.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
 }
@@ -0,0 +1,390 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.drain;
+
+import io.github.bric3.drain.core.Drain;
+import io.github.bric3.drain.core.ParseResult;
+import io.github.bric3.drain.core.TokenizedMessage;
+import io.github.bric3.tailer.file.MappedFileLineReader.IOReadAction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Staged parsing of the lines of a file in a {@link Drain} model.
+ * <p>
+ * Stages:
+ * <ol>
+ *     <li>the reader, the thread calling this read action, copies bytes
+ *     of whole lines in a batch, from a file or a stream</li>
+ *     <li>parser threads decode, pre-process and tokenize the lines of
+ *     a batch, see {@link Drain#tokenize(CharSequence, TokenizedMessage)}</li>
+ *     <li>a single writer thread parses the tokenized lines in the model,
+ *     in the order of the file, so the model is the same as if the file
+ *     was parsed on a single thread</li>
+ * </ol>
+ * Batches are preallocated in a ring, once all batches are in use the
+ * reader waits for the writer to release one, so a burst of lines stalls
+ * the reader instead of growing the heap.
+ * <p>
+ * Lines are split on LF bytes, which requires a charset where the LF byte
+ * is always a line feed, e.g. UTF-8 or ISO-8859-1.
+ * <p>
+ * Once a line can't be parsed, the later lines are dropped, and the next
+ * read, or {@link #close()}, throws the failure on the reader thread.
+ */
+class DrainPipeline implements IOReadAction, Closeable {
+    private static final int BATCH_SIZE = 64 * 1024;
+    private static final int BATCHES_PER_PARSER = 4;
+
+    private final Drain drain;
+    private final Charset charset;
+    private final UnaryOperator<CharSequence> preProcess;
+    private final Consumer<ParseResult> parsed;
+
+    private final Batch[] ring;
+    private final Semaphore freeBatches;
+    private final BlockingQueue<Batch> filledBatches;
+    private final Thread[] parsers;
+    private final Thread writer;
+
+    // reader state
+    private long readSequence;
+    private byte[] carry = new byte[0];
+    private int carryLength;
+    private boolean closed;
+
+    // writer state, also checked by the reader
+    private volatile RuntimeException failure;
+
+    /**
+     * @param drain      The model, only updated by the writer thread
+     * @param charset    The charset of the lines
+     * @param preProcess The pre-processing of a line before its tokenization
+     * @param parsed     Called on the writer thread after each parsed line
+     * @param parsers    The number of parser threads
+     */
+    DrainPipeline(Drain drain,
+                  Charset charset,
+                  UnaryOperator<CharSequence> preProcess,
+                  Consumer<ParseResult> parsed,
+                  int parsers) {
+        this.drain = drain;
+        this.charset = charset;
+        this.preProcess = preProcess;
+        this.parsed = parsed;
+
+        this.ring = new Batch[Integer.highestOneBit(parsers * BATCHES_PER_PARSER - 1) << 1];
+        for (int i = 0; i < ring.length; i++) {
+            ring[i] = new Batch();
+        }
+        this.freeBatches = new Semaphore(ring.length);
+        this.filledBatches = new ArrayBlockingQueue<>(ring.length);
+
+        this.parsers = new Thread[parsers];
+        for (int i = 0; i < parsers; i++) {
+            this.parsers[i] = new Thread(this::parse, "drain-parser-" + i);
+            this.parsers[i].setDaemon(true);
+            this.parsers[i].start();
+        }
+        this.writer = new Thread(this::write, "drain-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public long apply(FileChannel channel, long startPosition) throws IOException {
+        var size = channel.size();
+        if (startPosition >= size) {
+            checkFailure();
+            return 0;
+        }
+        return read((buffer, readBytes) -> {
+            var position = startPosition + readBytes;
+            // stops at the size seen, more will be read by the next call
+            return position < size ? channel.read(buffer, position) : -1;
+        }, false);
+    }
+
+    /**
+     * Reads a stream until its end, e.g. the standard input or a named pipe.
+     * <p>
+     * Lines are handed over to the parsers as soon as they are read, the
+     * stream may stay quiet for a while after them. The batches are as
+     * large as the reads, so they fill up under bursts.
+     *
+     * @return the number of bytes read
+     */
+    long read(ReadableByteChannel channel) throws IOException {
+        var readBytes = read((buffer, ignored) -> channel.read(buffer), true);
+        finish(null, readBytes);
+        return readBytes;
+    }
+
+    /**
+     * Reads an input stream until its end, e.g. a decompressed file.
+     * <p>
+     * The stream is read directly in the batches, which are handed over
+     * to the parsers once full, so decompressing is the only work of the
+     * calling thread.
+     *
+     * @return the number of bytes read
+     */
+    long read(InputStream input) throws IOException {
+        var readBytes = read((buffer, ignored) -> input.read(buffer.array(),
+                                                             buffer.arrayOffset() + buffer.position(),
+                                                             buffer.remaining()),
+                             false);
+        finish(null, readBytes);
+        return readBytes;
+    }
+
+    private long read(Source source, boolean eager) throws IOException {
+        var readBytes = 0L;
+        var end = false;
+        while (!end) {
+            var batch = claim();
+            try {
+                while (true) {
+                    if (batch.length == batch.bytes.length) {
+                        if (batch.lineCount > 0) {
+                            break;
+                        }
+                        // a line longer than a batch
+                        batch.grow();
+                    }
+                    var read = source.read(ByteBuffer.wrap(batch.bytes, batch.length, batch.bytes.length - batch.length),
+                                           readBytes);
+                    if (read < 0) {
+                        end = true;
+                        break;
+                    }
+                    batch.addLines(batch.length, batch.length + read);
+                    batch.length += read;
+                    readBytes += read;
+                    if (eager && batch.lineCount > 0) {
+                        break;
+                    }
+                }
+            } finally {
+                // also on a failed read, the writer expects every claimed batch
+                keepIncompleteLine(batch);
+                publish(batch);
+            }
+        }
+        return readBytes;
+    }
+
+    @Override
+    public long finish(FileChannel channel, long position) {
+        if (carryLength == 0) {
+            return 0;
+        }
+        var batch = claim();
+        batch.addLine(batch.length);
+        publish(batch);
+        return 0;
+    }
+
+    /**
+     * Waits for the writer to parse the published lines, then stops the stages.
+     *
+     * @throws IllegalStateException if a line couldn't be parsed
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // the writer keeps releasing batches after a failure
+        var end = nextBatch();
+        end.end = true;
+        publish(end);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (var parser : parsers) {
+            parser.interrupt();
+        }
+        checkFailure();
+    }
+
+    /**
+     * @throws IllegalStateException if a line couldn't be parsed
+     */
+    private void checkFailure() {
+        var failure = this.failure;
+        if (failure != null) {
+            throw new IllegalStateException("Cannot parse lines", failure);
+        }
+    }
+
+    /**
+     * Claims the next batch for the reader, failing fast if the writer
+     * stopped applying the batches.
+     */
+    private Batch claim() {
+        checkFailure();
+        return nextBatch();
+    }
+
+    private Batch nextBatch() {
+        freeBatches.acquireUninterruptibly();
+        var batch = ring[(int) (readSequence++ & (ring.length - 1))];
+        batch.reset();
+        if (batch.bytes.length < carryLength) {
+            batch.bytes = new byte[carry.length];
+        }
+        System.arraycopy(carry, 0, batch.bytes, 0, carryLength);
+        batch.length = carryLength;
+        carryLength = 0;
+        return batch;
+    }
+
+    private void keepIncompleteLine(Batch batch) {
+        var linesEnd = batch.lineCount == 0 ? 0 : batch.lineEnds[batch.lineCount - 1] + 1;
+        carryLength = batch.length - linesEnd;
+        if (carry.length < carryLength) {
+            carry = new byte[batch.bytes.length];
+        }
+        System.arraycopy(batch.bytes, linesEnd, carry, 0, carryLength);
+        batch.length = linesEnd;
+    }
+
+    private void publish(Batch batch) {
+        if (!filledBatches.offer(batch)) {
+            // can't happen, there are never more filled batches than batches
+            throw new IllegalStateException("No room for a filled batch");
+        }
+    }
+
+    private void parse() {
+        try {
+            while (true) {
+                var batch = filledBatches.take();
+                try {
+                    var lineStart = 0;
+                    for (int i = 0; i < batch.lineCount; i++) {
+                        var lineEnd = batch.lineEnds[i];
+                        var length = lineEnd - lineStart;
+                        if (length > 0 && batch.bytes[lineEnd - 1] == '\r') {
+                            length--;
+                        }
+                        var line = new String(batch.bytes, lineStart, length, charset);
+                        drain.tokenize(preProcess.apply(line), batch.messages[i]);
+                        lineStart = lineEnd + 1;
+                    }
+                } catch (RuntimeException e) {
+                    batch.failure = e;
+                }
+                batch.parsed.release();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        }
+    }
+
+    private void write() {
+        for (long sequence = 0; ; sequence++) {
+            var batch = ring[(int) (sequence & (ring.length - 1))];
+            batch.parsed.acquireUninterruptibly();
+            if (batch.end) {
+                return;
+            }
+            if (batch.failure != null && failure == null) {
+                failure = batch.failure;
+            }
+            if (failure == null) {
+                try {
+                    for (int i = 0; i < batch.lineCount; i++) {
+                        parsed.accept(drain.parseLogMessage(batch.messages[i]));
+                    }
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            // keeps releasing batches after a failure, so the reader doesn't wait forever
+            freeBatches.release();
+        }
+    }
+
+    private interface Source {
+        /**
+         * @return the number of bytes read, or -1 at the end
+         */
+        int read(ByteBuffer buffer, long readBytes) throws IOException;
+    }
+
+    private static final class Batch {
+        private final Semaphore parsed = new Semaphore(0);
+        private byte[] bytes = new byte[BATCH_SIZE];
+        private int length;
+        private int[] lineEnds = new int[BATCH_SIZE / 64];
+        private TokenizedMessage[] messages = newMessages(lineEnds.length, 0);
+        private int lineCount;
+        private boolean end;
+        private RuntimeException failure;
+
+        void reset() {
+            length = 0;
+            lineCount = 0;
+            end = false;
+            failure = null;
+        }
+
+        void grow() {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+
+        /**
+         * Records the lines ending in the given range of bytes.
+         */
+        void addLines(int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bytes[i] == '\n') {
+                    addLine(i);
+                }
+            }
+        }
+
+        /**
+         * @param lineEnd Offset of the LF of the line, or of the end of the last line
+         */
+        void addLine(int lineEnd) {
+            if (lineCount == lineEnds.length) {
+                lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+                messages = newMessages(lineCount * 2, lineCount, messages);
+            }
+            lineEnds[lineCount++] = lineEnd;
+        }
+
+        private static TokenizedMessage[] newMessages(int length, int from, TokenizedMessage... existing) {
+            var messages = Arrays.copyOf(existing, length);
+            for (int i = from; i < length; i++) {
+                messages[i] = new TokenizedMessage();
+            }
+            return messages;
+        }
+    }
+}
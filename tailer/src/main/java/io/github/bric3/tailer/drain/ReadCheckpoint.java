@@ -0,0 +1,77 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.drain;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The read position of a file, checkpointed with the model that parsed
+ * the lines before it.
+ * <p>
+ * The file is identified by its file key, the inode on Unix. The position
+ * is only valid for the same file, as long as it is not shorter, otherwise
+ * the file was rotated or truncated since the checkpoint.
+ */
+final class ReadCheckpoint {
+    private final String fileKey;
+    private final long position;
+
+    ReadCheckpoint(@Nullable Object fileKey, long position) {
+        this.fileKey = fileKey == null ? "" : fileKey.toString();
+        this.position = position;
+    }
+
+    long position() {
+        return position;
+    }
+
+    /**
+     * @return whether the position is the one of this file
+     */
+    boolean isPositionOf(Path file) throws IOException {
+        var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        return new ReadCheckpoint(attributes.fileKey(), position).fileKey.equals(fileKey)
+               && attributes.size() >= position;
+    }
+
+    /**
+     * @return the metadata of the model checkpoint
+     */
+    String encode() {
+        return position + " " + fileKey;
+    }
+
+    /**
+     * @param metadata The metadata of the model checkpoint
+     * @return the read checkpoint, or {@code null} if there is none
+     */
+    @Nullable
+    static ReadCheckpoint decode(@Nullable String metadata) {
+        if (metadata == null) {
+            return null;
+        }
+        var separator = metadata.indexOf(' ');
+        try {
+            return new ReadCheckpoint(metadata.substring(separator + 1),
+                                      Long.parseLong(metadata.substring(0, separator)));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return encode();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compressed log files, e.g. rotated logs stored as {@code .gz}.
+ * <p>
+ * Files are recognized by their content, not their name. A compressed file
+ * is decompressed as a stream, it's read whole from its start.
+ */
+public final class Compression {
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int INFLATE_BUFFER_SIZE = 256 * 1024;
+
+    private Compression() {
+    }
+
+    /**
+     * @return whether the file starts with the gzip magic bytes
+     */
+    public static boolean isGzip(Path path) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            var magic = ByteBuffer.allocate(2);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the two bytes
+            }
+            return !magic.hasRemaining()
+                   && ((magic.get(0) & 0xff) | (magic.get(1) & 0xff) << 8) == GZIP_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Decompresses a gzip file, all its members if it's a concatenation of
+     * gzip files.
+     */
+    public static InputStream gunzip(Path path) throws IOException {
+        var input = Files.newInputStream(path);
+        try {
+            return new GZIPInputStream(input, INFLATE_BUFFER_SIZE);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+}
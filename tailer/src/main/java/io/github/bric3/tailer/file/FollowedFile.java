@@ -0,0 +1,184 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import io.github.bric3.tailer.config.Config;
+import io.github.bric3.tailer.file.MappedFileLineReader.IOReadAction;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The file behind a path, across rotations.
+ * <p>
+ * When the path designates another file (renamed then re-created), the
+ * old file is read to its end, until it stays quiet for a short grace
+ * period, before reading the new file from its start. When the file
+ * shrinks (truncated in place), it is read again from its start.
+ * Files are identified by their file key, the inode on Unix, when the
+ * platform has no file key only truncation is detected. A truncated
+ * file that grows past the read position before the next poll can't
+ * be told apart from an appended file.
+ */
+final class FollowedFile implements Closeable {
+    private static final Object MISSING = new Object();
+    private static final long ROTATION_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private final Config config;
+    private final Path path;
+    private final IOReadAction readAction;
+
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private Object fileKey;
+    private long position;
+    private long rotatedAtNanos;
+
+    FollowedFile(Config config, Path path, IOReadAction readAction) throws IOException {
+        this.config = config;
+        this.path = path;
+        this.readAction = readAction;
+        this.fileKey = fileKey(path);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    /**
+     * @return the channel of the file opened first
+     */
+    FileChannel initialChannel() {
+        assert channel != null;
+        return channel;
+    }
+
+    /**
+     * Reads the current file from this position.
+     *
+     * @return the number of read bytes
+     */
+    long read(long startPosition) throws IOException {
+        position = startPosition;
+        return readAvailable();
+    }
+
+    /**
+     * Reads what was appended since the last read, after checking whether
+     * the file was rotated or truncated.
+     *
+     * @return the number of read bytes
+     */
+    long poll() throws IOException {
+        long readBytes = 0;
+        var currentFileKey = fileKey(path);
+        if (channel != null && !Objects.equals(currentFileKey, fileKey)) {
+            // rotated, the old file is read until the writers moved to the new file
+            readBytes += readAvailable();
+            var now = System.nanoTime();
+            if (rotatedAtNanos == 0) {
+                rotatedAtNanos = now;
+            }
+            if (readBytes > 0 || now - rotatedAtNanos < ROTATION_GRACE_NANOS) {
+                return readBytes;
+            }
+            readBytes += finish();
+            channel.close();
+            channel = null;
+            rotatedAtNanos = 0;
+            if (config.verbose) {
+                config.out.printf("File rotated: %s%n", path);
+            }
+        }
+
+        if (channel == null) {
+            if (currentFileKey == MISSING) {
+                return readBytes;
+            }
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                return readBytes;
+            }
+            fileKey = currentFileKey;
+            position = 0;
+        } else if (channel.size() < position) {
+            // the bytes held back past the new size are gone, the read action only flushes its state
+            position = channel.size();
+            readBytes += finish();
+            position = 0;
+            if (config.verbose) {
+                config.out.printf("File truncated: %s%n", path);
+            }
+        }
+        return readBytes + readAvailable();
+    }
+
+    /**
+     * Hands what the read action held back, like an incomplete last line.
+     *
+     * @return the number of read bytes
+     */
+    long finish() throws IOException {
+        if (channel == null) {
+            return 0;
+        }
+        var readBytes = readAction.finish(channel, position);
+        position += readBytes;
+        return readBytes;
+    }
+
+    long position() {
+        return position;
+    }
+
+    /**
+     * @return the key of the file being read, {@code null} if the platform has no file keys
+     */
+    @Nullable
+    Object fileKey() {
+        return fileKey == MISSING ? null : fileKey;
+    }
+
+    private long readAvailable() throws IOException {
+        var previousPosition = position;
+        var readBytes = readAction.apply(channel, position);
+        position += readBytes;
+        if (config.verbose && readBytes > 0) {
+            config.out.printf("Read: %d -> %d (%d bytes)%n",
+                              previousPosition,
+                              position,
+                              readBytes);
+        }
+        return readBytes;
+    }
+
+    private static Object fileKey(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return MISSING;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Expands file arguments that may contain a glob, e.g. {@code logs/*.log}
+ * or {@code /var/log/**}{@code /app.log}, when the shell didn't.
+ * <p>
+ * The directory before the first glob character is walked, paths below it
+ * are matched with the {@code glob:} syntax of {@link java.nio.file.PathMatcher}.
+ * Only regular files are returned, sorted. An argument without glob
+ * characters is returned as is.
+ */
+public final class Globs {
+    private static final String GLOB_CHARS = "*?[{";
+
+    private Globs() {
+    }
+
+    public static List<Path> expand(String pattern) throws IOException {
+        var globStart = globStart(pattern);
+        if (globStart == -1) {
+            return List.of(Path.of(pattern));
+        }
+
+        var separator = pattern.lastIndexOf('/', globStart);
+        var base = separator == -1 ? Path.of("") : Path.of(pattern.substring(0, separator + 1));
+        var glob = pattern.substring(separator + 1);
+        var matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        var maxDepth = glob.contains("**") ? Integer.MAX_VALUE : glob.split("/").length;
+
+        if (!Files.isDirectory(base)) {
+            return List.of();
+        }
+        try (Stream<Path> paths = Files.walk(base, maxDepth)) {
+            return paths.filter(p -> matcher.matches(base.relativize(p)))
+                        .filter(Files::isRegularFile)
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static int globStart(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if (GLOB_CHARS.indexOf(pattern.charAt(i)) != -1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
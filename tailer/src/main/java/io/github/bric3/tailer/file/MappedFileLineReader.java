@@ -13,65 +13,117 @@ import io.github.bric3.tailer.TailerMain;
 import io.github.bric3.tailer.config.Config;
 import io.github.bric3.tailer.config.FromLine;
 
-import java.io.BufferedReader;
+import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 public class MappedFileLineReader implements Closeable {
+    private static final int SCAN_WINDOW_SIZE = 8 * 1024;
+    private static final int MIN_POLL_TIMEOUT_MS = 1;
+    private static final int MAX_POLL_TIMEOUT_MS = 250;
 
     private final IOReadAction readAction;
+    private final ReadListener readListener;
+    private final boolean leaveIncompleteLine;
     private final Config config;
 
     private final AtomicBoolean closed;
-    private final int wsPollTimeoutMs;
     private long totalReadBytes;
 
     public MappedFileLineReader(Config config, IOReadAction readAction) {
+        this(config, readAction, ReadListener.NO_OP);
+    }
+
+    /**
+     * @param readListener Told the position after each read, on the reading thread
+     */
+    public MappedFileLineReader(Config config, IOReadAction readAction, ReadListener readListener) {
+        this(config, readAction, readListener, false);
+    }
+
+    /**
+     * @param readListener        Told the position after each read, on the reading thread
+     * @param leaveIncompleteLine Whether the incomplete last line is left unread when the read
+     *                            stops, so the last position is the end of a complete line, e.g.
+     *                            to resume from it once the line is complete. The incomplete last
+     *                            line of a rotated or truncated file is still read.
+     */
+    public MappedFileLineReader(Config config,
+                                IOReadAction readAction,
+                                ReadListener readListener,
+                                boolean leaveIncompleteLine) {
         this.readAction = readAction;
+        this.readListener = readListener;
+        this.leaveIncompleteLine = leaveIncompleteLine;
         this.config = config;
-        this.wsPollTimeoutMs = 100;
         this.closed = new AtomicBoolean(false);
     }
 
+    /**
+     * Reads the file, then follows it if asked.
+     * <p>
+     * Following survives rotations, see {@link FollowedFile}. Watch events
+     * wake up the reader as soon as the file changes, and the file is also
+     * polled, often while it's written, less and less often once quiet,
+     * in case events are late or missing.
+     */
     public void tailRead(Path path, FromLine tailFromLine, boolean follow) {
         assert path != null;
         assert tailFromLine != null;
 
+        tailRead(path, channel -> findTailStartPosition(channel, tailFromLine), follow);
+    }
+
+    /**
+     * Reads the file from a byte position, e.g. the position of a previous
+     * read of the same file, then follows it if asked.
+     *
+     * @param startPosition The position of the beginning of a line
+     */
+    public void tailRead(Path path, long startPosition, boolean follow) {
+        assert path != null;
+        assert startPosition >= 0;
+
+        tailRead(path, channel -> Math.min(startPosition, channel.size()), follow);
+    }
 
+    private void tailRead(Path path, StartPosition start, boolean follow) {
         try (var ws = FileSystems.getDefault().newWatchService();
-             var sourceChannel = FileChannel.open(path, StandardOpenOption.READ)) {
-            var startPosition = findTailStartPosition(sourceChannel, tailFromLine);
+             var followedFile = new FollowedFile(config, path, readAction)) {
+            var startPosition = start.of(followedFile.initialChannel());
             if (config.verbose) {
                 config.out.printf("Reading file from position : %d%n", startPosition);
             }
 
-            var position = startPosition;
-            var readBytes = readAction.apply(sourceChannel, startPosition);
-            totalReadBytes += readBytes;
-            position += readBytes;
-            if (config.verbose) {
-                config.out.printf("Read: %d -> %d (%d bytes)%n",
-                                  startPosition,
-                                  position,
-                                  position - startPosition);
-            }
+            totalReadBytes += followedFile.read(startPosition);
+            readListener.read(followedFile.fileKey(), followedFile.position());
 
             if (follow) {
-                path.getParent().register(ws, StandardWatchEventKinds.ENTRY_MODIFY);
+                path.toAbsolutePath().getParent().register(ws,
+                                                           StandardWatchEventKinds.ENTRY_CREATE,
+                                                           StandardWatchEventKinds.ENTRY_MODIFY,
+                                                           StandardWatchEventKinds.ENTRY_DELETE);
+                var pollTimeoutMs = MIN_POLL_TIMEOUT_MS;
                 while (!closed.get()) {
                     WatchKey wk;
                     try {
-                        wk = ws.poll(wsPollTimeoutMs, TimeUnit.MILLISECONDS);
+                        wk = ws.poll(pollTimeoutMs, TimeUnit.MILLISECONDS);
                     } catch (InterruptedException e) {
                         if (config.verbose) {
                             e.printStackTrace(config.err);
@@ -79,37 +131,32 @@ public class MappedFileLineReader implements Closeable {
                         Thread.currentThread().interrupt();
                         return;
                     }
-                    if (wk == null) {
-                        continue;
-                    }
-
-                    for (WatchEvent<?> event : wk.pollEvents()) {
-                        if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY
-                            && Objects.equals(event.context(), path.getFileName())) {
-                            var previousPosition = position;
-                            readBytes = readAction.apply(sourceChannel, position);
-                            totalReadBytes += readBytes;
-                            position += readBytes;
-                            if (config.verbose) {
-                                config.out.printf("Read: %d -> %d (%d bytes)%n",
-                                                  previousPosition,
-                                                  position,
-                                                  position - previousPosition);
-                            }
+                    if (wk != null) {
+                        // events only wake up the reader, the file tells what changed
+                        wk.pollEvents();
+                        var valid = wk.reset();
+                        if (!valid) {
+                            break; // exit
                         }
                     }
-                    var valid = wk.reset();
-                    if (!valid) {
-                        break; // exit
-                    }
+
+                    var readBytes = followedFile.poll();
+                    totalReadBytes += readBytes;
+                    readListener.read(followedFile.fileKey(), followedFile.position());
+                    pollTimeoutMs = readBytes > 0 ?
+                                    MIN_POLL_TIMEOUT_MS :
+                                    Math.min(2 * pollTimeoutMs, MAX_POLL_TIMEOUT_MS);
                 }
             }
 
-            totalReadBytes = position - startPosition;
+            if (!leaveIncompleteLine) {
+                totalReadBytes += followedFile.finish();
+                readListener.read(followedFile.fileKey(), followedFile.position());
+            }
             if (config.verbose) {
                 config.out.printf("Total read: %d -> %d (%d bytes)%n",
                                   startPosition,
-                                  position,
+                                  followedFile.position(),
                                   totalReadBytes);
             }
 
@@ -129,38 +176,308 @@ public class MappedFileLineReader implements Closeable {
         closed.set(true);
     }
 
+    /**
+     * Reads lines as strings, see {@link LineAssembler}.
+     */
     public static class LineConsumer implements IOReadAction {
-        private final Consumer<String> stringConsumer;
-        private final Charset charset;
+        private final LineAssembler lineAssembler;
 
         public LineConsumer(Consumer<String> stringConsumer, Charset charset) {
-            this.stringConsumer = stringConsumer;
+            this.lineAssembler = new LineAssembler(line -> stringConsumer.accept(line.toString()), charset);
+        }
+
+        @Override
+        public long apply(FileChannel fileChannel, long startPosition) throws IOException {
+            return lineAssembler.apply(fileChannel, startPosition);
+        }
+
+        @Override
+        public long finish(FileChannel fileChannel, long position) throws IOException {
+            return lineAssembler.finish(fileChannel, position);
+        }
+    }
+
+    /**
+     * Assembles lines incrementally, as the file grows.
+     * <p>
+     * Each read decodes the new bytes up to the end of the file, the
+     * decoder, its buffers, and the incomplete last line are kept for
+     * the next read, so a line written in several parts is handed once
+     * complete. The incomplete last line is only handed at the end
+     * of the input, see {@link #finish(FileChannel, long)}.
+     * <p>
+     * Lines end with LF or CRLF. The line given to the consumer is only
+     * valid during the call, it must be copied to be retained.
+     */
+    public static class LineAssembler implements IOReadAction {
+        private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+        private final Consumer<CharSequence> lineConsumer;
+        private final CharsetDecoder decoder;
+        // carries the bytes of an incomplete character
+        private final ByteBuffer bytes;
+        private final CharBuffer chars;
+        // carries the incomplete last line
+        private final StringBuilder line = new StringBuilder(256);
+
+        public LineAssembler(Consumer<CharSequence> lineConsumer, Charset charset) {
+            this(lineConsumer, charset, DEFAULT_BUFFER_SIZE);
+        }
+
+        LineAssembler(Consumer<CharSequence> lineConsumer, Charset charset, int bufferSize) {
+            assert bufferSize >= 16;
+            this.lineConsumer = lineConsumer;
+            this.decoder = charset.newDecoder()
+                                  .onMalformedInput(CodingErrorAction.REPLACE)
+                                  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.bytes = ByteBuffer.allocateDirect(bufferSize);
+            this.chars = CharBuffer.allocate(bufferSize);
+        }
+
+        @Override
+        public long apply(FileChannel fileChannel, long startPosition) throws IOException {
+            var position = startPosition;
+            int read;
+            while ((read = fileChannel.read(bytes, position)) > 0) {
+                position += read;
+                bytes.flip();
+                decode(false);
+                bytes.compact();
+            }
+            return position - startPosition;
+        }
+
+        /**
+         * Reads a stream until its end, e.g. a decompressed file, then
+         * hands the incomplete last line.
+         *
+         * @return the number of read bytes
+         */
+        public long read(ReadableByteChannel channel) throws IOException {
+            var readBytes = 0L;
+            int read;
+            while ((read = channel.read(bytes)) >= 0) {
+                readBytes += read;
+                bytes.flip();
+                decode(false);
+                bytes.compact();
+            }
+            finish(null, readBytes);
+            return readBytes;
+        }
+
+        @Override
+        public long finish(FileChannel fileChannel, long position) {
+            bytes.flip();
+            decode(true);
+            decoder.flush(chars);
+            chars.flip();
+            assemble();
+            chars.clear();
+            bytes.clear();
+            decoder.reset();
+
+            if (!line.isEmpty()) {
+                emit();
+            }
+            return 0;
+        }
+
+        private void decode(boolean endOfInput) {
+            CoderResult result;
+            do {
+                result = decoder.decode(bytes, chars, endOfInput);
+                chars.flip();
+                assemble();
+                chars.clear();
+            } while (result.isOverflow());
+        }
+
+        private void assemble() {
+            var array = chars.array();
+            var start = chars.position();
+            var limit = chars.limit();
+            for (int i = start; i < limit; i++) {
+                if (array[i] == '\n') {
+                    line.append(array, start, i - start);
+                    emit();
+                    start = i + 1;
+                }
+            }
+            line.append(array, start, limit - start);
+        }
+
+        private void emit() {
+            var length = line.length();
+            if (length > 0 && line.charAt(length - 1) == '\r') {
+                line.setLength(length - 1);
+            }
+            lineConsumer.accept(line);
+            line.setLength(0);
+        }
+    }
+
+    /**
+     * Reads lines from memory mapped windows of the file, without
+     * a {@link java.io.Reader}.
+     * <p>
+     * Newlines are searched 8 bytes at a time (SWAR), and pure ASCII
+     * lines are handed as a view of the mapped bytes, only lines with
+     * other bytes are decoded. The line given to the consumer is only
+     * valid during the call, it must be copied to be retained.
+     * <p>
+     * Lines end with LF or CRLF. A read stops after the last newline, so
+     * the next read starts with the incomplete last line, which is only
+     * handed at the end of the input, see {@link #finish(FileChannel, long)}.
+     * Only charsets where ASCII bytes always encode ASCII characters
+     * are supported, see {@link #supports(Charset)}.
+     */
+    public static class MappedLineConsumer implements IOReadAction {
+        private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+        private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+        private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+        private static final long ONES = 0x0101010101010101L;
+        private static final long HIGH_BITS = 0x8080808080808080L;
+
+        private final Consumer<CharSequence> lineConsumer;
+        private final Charset charset;
+        private final int windowSize;
+        private final AsciiLine asciiLine = new AsciiLine();
+
+        public MappedLineConsumer(Consumer<CharSequence> lineConsumer, Charset charset) {
+            this(lineConsumer, charset, DEFAULT_WINDOW_SIZE);
+        }
+
+        MappedLineConsumer(Consumer<CharSequence> lineConsumer, Charset charset, int windowSize) {
+            if (!supports(charset)) {
+                throw new IllegalArgumentException("Unsupported charset " + charset);
+            }
+            assert windowSize > 0;
+            this.lineConsumer = lineConsumer;
             this.charset = charset;
+            this.windowSize = windowSize;
+        }
+
+        /**
+         * @return whether ASCII bytes always encode ASCII characters in this charset
+         */
+        public static boolean supports(Charset charset) {
+            return charset.equals(StandardCharsets.UTF_8)
+                   || charset.equals(StandardCharsets.US_ASCII)
+                   || charset.equals(StandardCharsets.ISO_8859_1);
         }
 
         @Override
         public long apply(FileChannel fileChannel, long startPosition) throws IOException {
-            return readByLines(fileChannel,
-                               startPosition,
-                               stringConsumer);
+            return read(fileChannel, startPosition, fileChannel.size(), false);
+        }
+
+        @Override
+        public long finish(FileChannel fileChannel, long position) throws IOException {
+            return read(fileChannel, position, fileChannel.size(), true);
         }
 
-        private long readByLines(FileChannel sourceChannel, long startPosition, Consumer<String> stringConsumer) throws IOException {
-            var reader = Channels.newReader(sourceChannel, charset);  // investigate decoder customization
-            var br = new BufferedReader(reader); // handles new lines and EOF
+        /**
+         * Reads the lines of a range of the file, the bytes after the last
+         * newline of the range are a line.
+         *
+         * @param startPosition The start of the range (inclusive)
+         * @param endPosition   The end of the range (exclusive)
+         * @return the number of read bytes
+         */
+        public long read(FileChannel fileChannel, long startPosition, long endPosition) throws IOException {
+            return read(fileChannel, startPosition, endPosition, true);
+        }
+
+        private long read(FileChannel fileChannel,
+                          long startPosition,
+                          long endPosition,
+                          boolean withLastLine) throws IOException {
+            assert startPosition >= 0 && startPosition <= endPosition;
+            var size = endPosition;
+            var position = startPosition;
+            var window = windowSize;
+            while (position < size) {
+                var mappedSize = (int) Math.min(window, size - position);
+                var buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, mappedSize)
+                                        .order(ByteOrder.LITTLE_ENDIAN);
+                var lastWindow = position + mappedSize == size;
+                var consumed = consumeLines(buffer,
+                                            mappedSize,
+                                            lastWindow && withLastLine || mappedSize == MAX_WINDOW_SIZE);
+                if (consumed == 0) {
+                    if (lastWindow) {
+                        // the incomplete last line is left for the next read
+                        break;
+                    }
+                    // the line is longer than the window
+                    window = (int) Math.min(2L * window, MAX_WINDOW_SIZE);
+                    continue;
+                }
+                position += consumed;
+                window = windowSize;
+            }
+            return position - startPosition;
+        }
 
-            sourceChannel.position(startPosition); // avoid reading the file if unnecessary
-            br.lines()
-              .onClose(() -> {
-                  try {
-                      br.close();
-                  } catch (IOException ex) {
-                      throw new UncheckedIOException(ex);
-                  }
-              })
-              .forEach(stringConsumer);
+        /**
+         * @param flush Whether the bytes after the last newline are a line
+         * @return the number of consumed bytes, up to the last newline
+         */
+        private int consumeLines(ByteBuffer buffer, int limit, boolean flush) {
+            var lineStart = 0;
+            var i = 0;
+            // high bits of the line bytes, non zero if the line isn't pure ASCII
+            long highBits = 0;
+            while (true) {
+                var newline = -1;
+                while (i + Long.BYTES <= limit) {
+                    var word = buffer.getLong(i);
+                    var x = word ^ NEWLINES;
+                    var found = (x - ONES) & ~x & HIGH_BITS;
+                    if (found != 0) {
+                        // little endian, the lowest zero byte is the first newline
+                        var index = Long.numberOfTrailingZeros(found) >>> 3;
+                        highBits |= word & ((1L << (index << 3)) - 1);
+                        newline = i + index;
+                        break;
+                    }
+                    highBits |= word;
+                    i += Long.BYTES;
+                }
+                if (newline < 0) {
+                    for (; i < limit; i++) {
+                        var b = buffer.get(i);
+                        if (b == '\n') {
+                            newline = i;
+                            break;
+                        }
+                        highBits |= b;
+                    }
+                }
 
-            return sourceChannel.position() - startPosition;
+                if (newline < 0) {
+                    if (flush && lineStart < limit) {
+                        emit(buffer, lineStart, limit, highBits);
+                        return limit;
+                    }
+                    return lineStart;
+                }
+                emit(buffer, lineStart, newline, highBits);
+                i = lineStart = newline + 1;
+                highBits = 0;
+            }
+        }
+
+        private void emit(ByteBuffer buffer, int start, int end, long highBits) {
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+            if ((highBits & HIGH_BITS) == 0) {
+                lineConsumer.accept(asciiLine.set(buffer, start, end - start));
+            } else {
+                lineConsumer.accept(charset.decode(buffer.slice(start, end - start)));
+            }
         }
     }
 
@@ -188,55 +505,155 @@ public class MappedFileLineReader implements Closeable {
         }
     }
 
-    long findTailStartPosition(FileChannel channel, FromLine fromLine) throws IOException {
-        // straw man find start position
-        // this implementation hasn't been tested with two char line endings  (CR (0x0D) and LF (0x0A))
-        var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    /**
+     * Splits a range of the file in ranges starting at the beginning of a line.
+     * <p>
+     * Ranges have about the same size, a range may be empty when a line
+     * is longer than a range.
+     *
+     * @param startPosition The start of the range to split, at the beginning of a line
+     * @param endPosition   The end of the range to split (exclusive)
+     * @param count         The number of ranges
+     * @return the {@code count + 1} boundaries of the ranges
+     */
+    public static long[] splitOnLines(FileChannel channel,
+                                      long startPosition,
+                                      long endPosition,
+                                      int count) throws IOException {
+        assert startPosition >= 0 && startPosition <= endPosition;
+        assert count > 0;
+        var boundaries = new long[count + 1];
+        boundaries[0] = startPosition;
+        boundaries[count] = endPosition;
+        var buffer = ByteBuffer.allocate(SCAN_WINDOW_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        var rangeSize = (endPosition - startPosition) / count;
+        for (int i = 1; i < count; i++) {
+            // a range starts after the first newline before the split point
+            var position = Math.max(startPosition + i * rangeSize - 1, boundaries[i - 1]);
+            boundaries[i] = endPosition;
+            while (position < endPosition) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), endPosition - position));
+                var read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                var newline = Newlines.indexOf(buffer, 0, read);
+                if (newline >= 0) {
+                    boundaries[i] = position + newline + 1;
+                    break;
+                }
+                position += read;
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * Finds the position of the line to start reading from.
+     * <p>
+     * The file is scanned in small windows, from the end when counting
+     * the last lines, so only the bytes of these lines are read whatever
+     * the file size. Lines end with LF, or CRLF.
+     */
+    public static long findTailStartPosition(FileChannel channel, FromLine fromLine) throws IOException {
+        return findTailStartPosition(channel, fromLine, SCAN_WINDOW_SIZE);
+    }
 
+    static long findTailStartPosition(FileChannel channel, FromLine fromLine, int windowSize) throws IOException {
+        var size = channel.size();
+        var buffer = ByteBuffer.allocateDirect(windowSize).order(ByteOrder.LITTLE_ENDIAN);
         if (!fromLine.fromStart) {
             if (fromLine.number == 0) {
-                return channel.size();
+                return size;
             }
 
-            // go to end
-            buffer.position((int) channel.size());
-
             long lineCounter = 0;
-            for (long i = channel.size() - 1; i >= 0; i--) {
-                char c = (char) buffer.get((int) i);
-
-                if (c == '\n') { // on newline
+            var windowEnd = size;
+            while (windowEnd > 0) {
+                var windowStart = Math.max(0, windowEnd - windowSize);
+                var length = (int) (windowEnd - windowStart);
+                readFully(channel, buffer, windowStart, length);
+
+                var i = length;
+                while ((i = Newlines.lastIndexOf(buffer, 0, i)) >= 0) {
                     if (lineCounter == fromLine.number) {
-                        return i + 1;
+                        return windowStart + i + 1;
                     }
                     lineCounter++;
                 }
+                windowEnd = windowStart;
             }
             return 0;
         } else {
-            if (fromLine.number == 0) {
+            // like tail -n +N, starts with the line N, +0 is the same as +1
+            if (fromLine.number <= 1) {
                 return 0;
             }
 
-            long lineCounter = 0;
-            for (long i = 0, channelSize = channel.size(); i < channelSize; i++) {
-                char c = (char) buffer.get((int) i);
+            // the line N starts after the newline of the line N - 1
+            long lineCounter = 1;
+            var windowStart = 0L;
+            while (windowStart < size) {
+                var length = (int) Math.min(windowSize, size - windowStart);
+                readFully(channel, buffer, windowStart, length);
 
-                if (c == '\n') { // on newline
+                var i = -1;
+                while ((i = Newlines.indexOf(buffer, i + 1, length)) >= 0) {
+                    lineCounter++;
                     if (lineCounter == fromLine.number) {
-                        return i - 1;
+                        return windowStart + i + 1;
                     }
-                    lineCounter++;
                 }
+                windowStart += length;
+            }
+            return size;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("File truncated while reading at " + (position + buffer.position()));
             }
-            return channel.size();
         }
     }
 
 
+    private interface StartPosition {
+        long of(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Listens to the progress of the reads.
+     */
+    public interface ReadListener {
+        ReadListener NO_OP = (k, p) -> {};
+
+        /**
+         * Called after each read, and each poll of a followed file.
+         *
+         * @param fileKey  The identity of the read file, see {@link java.nio.file.attribute.BasicFileAttributes#fileKey()},
+         *                 it changes when the file is rotated, {@code null} if the platform doesn't have file keys
+         * @param position The position in this file after the read
+         */
+        void read(@Nullable Object fileKey, long position);
+    }
+
     public interface IOReadAction {
         IOReadAction NO_OP = (c, s) -> 0;
 
         long apply(FileChannel fileChannel, long startPosition) throws IOException;
+
+        /**
+         * Called once the input ends, to process what is held back
+         * by the reads, like an incomplete last line.
+         *
+         * @param position The position after the last read
+         * @return the number of read bytes
+         */
+        default long finish(FileChannel fileChannel, long position) throws IOException {
+            return 0;
+        }
     }
 }
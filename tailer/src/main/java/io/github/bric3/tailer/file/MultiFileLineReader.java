@@ -0,0 +1,204 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import io.github.bric3.tailer.TailerMain;
+import io.github.bric3.tailer.config.Config;
+import io.github.bric3.tailer.config.FromLine;
+import io.github.bric3.tailer.file.MappedFileLineReader.IOReadAction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Reads several files, then follows them if asked.
+ * <p>
+ * Each file is read on its own virtual thread, with its own read action,
+ * so an additional file only costs a parked virtual thread and its
+ * buffers. A single watch service, on the calling thread, wakes up the
+ * reader of a file when its directory reports a change. Like
+ * {@link MappedFileLineReader} files are also polled, and followed
+ * across rotations.
+ * <p>
+ * The read actions run concurrently, they must not share state that
+ * isn't thread safe. If a file can't be read, or if its read action
+ * fails, the error is reported and the whole read stops.
+ */
+public class MultiFileLineReader implements Closeable {
+    private static final int MIN_POLL_TIMEOUT_MS = 1;
+    private static final int MAX_POLL_TIMEOUT_MS = 250;
+
+    private final Config config;
+    private final Function<Path, IOReadAction> readActions;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+    private final LongAdder totalReadBytes = new LongAdder();
+
+    /**
+     * @param readActions Creates the read action of each file
+     */
+    public MultiFileLineReader(Config config, Function<Path, IOReadAction> readActions) {
+        this.config = config;
+        this.readActions = readActions;
+    }
+
+    public void tailRead(List<Path> paths, FromLine tailFromLine, boolean follow) {
+        assert paths != null && !paths.isEmpty();
+        assert tailFromLine != null;
+
+        var readers = new LinkedHashMap<Path, FileReader>();
+        for (var path : paths) {
+            var absolutePath = path.toAbsolutePath().normalize();
+            readers.putIfAbsent(absolutePath, new FileReader(absolutePath, tailFromLine, follow));
+        }
+
+        try (var ws = FileSystems.getDefault().newWatchService();
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            if (follow) {
+                var directories = new HashSet<Path>();
+                for (var path : readers.keySet()) {
+                    if (directories.add(path.getParent())) {
+                        path.getParent().register(ws,
+                                                  StandardWatchEventKinds.ENTRY_CREATE,
+                                                  StandardWatchEventKinds.ENTRY_MODIFY,
+                                                  StandardWatchEventKinds.ENTRY_DELETE);
+                    }
+                }
+            }
+            readers.values().forEach(executor::execute);
+
+            if (follow) {
+                dispatchEvents(ws, readers);
+                readers.values().forEach(FileReader::stop);
+            }
+        } catch (IOException e) {
+            if (config.verbose) {
+                e.printStackTrace(config.err);
+            }
+            System.exit(TailerMain.ERR_IO_WATCHING_FILE);
+        }
+        if (failure.get() != null) {
+            System.exit(TailerMain.ERR_IO_TAILING_FILE);
+        }
+        if (config.verbose) {
+            config.out.printf("Total read: %d bytes from %d files%n", totalReadBytes.sum(), readers.size());
+        }
+    }
+
+    private void dispatchEvents(WatchService ws, Map<Path, FileReader> readers) {
+        while (!closed.get()) {
+            WatchKey wk;
+            try {
+                wk = ws.poll(MAX_POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (wk == null) {
+                continue;
+            }
+
+            var directory = (Path) wk.watchable();
+            for (var event : wk.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    readers.values().forEach(FileReader::wakeUp);
+                    continue;
+                }
+                var reader = readers.get(directory.resolve((Path) event.context()));
+                if (reader != null) {
+                    reader.wakeUp();
+                }
+            }
+            wk.reset();
+        }
+    }
+
+    public long totalReadBytes() {
+        return totalReadBytes.sum();
+    }
+
+    @Override
+    public void close() {
+        closed.set(true);
+    }
+
+    private class FileReader implements Runnable {
+        private final Path path;
+        private final FromLine tailFromLine;
+        private final boolean follow;
+        private final Semaphore wakeUps = new Semaphore(0);
+        private volatile boolean stopped;
+
+        FileReader(Path path, FromLine tailFromLine, boolean follow) {
+            this.path = path;
+            this.tailFromLine = tailFromLine;
+            this.follow = follow;
+        }
+
+        void wakeUp() {
+            wakeUps.release();
+        }
+
+        void stop() {
+            stopped = true;
+            wakeUp();
+        }
+
+        @Override
+        public void run() {
+            try (var followedFile = new FollowedFile(config, path, readActions.apply(path))) {
+                var startPosition = MappedFileLineReader.findTailStartPosition(
+                        followedFile.initialChannel(),
+                        tailFromLine
+                );
+                totalReadBytes.add(followedFile.read(startPosition));
+
+                var pollTimeoutMs = MIN_POLL_TIMEOUT_MS;
+                while (follow && !stopped && !closed.get()) {
+                    if (wakeUps.tryAcquire(pollTimeoutMs, TimeUnit.MILLISECONDS)) {
+                        wakeUps.drainPermits();
+                    }
+                    var readBytes = followedFile.poll();
+                    totalReadBytes.add(readBytes);
+                    pollTimeoutMs = readBytes > 0 ?
+                                    MIN_POLL_TIMEOUT_MS :
+                                    Math.min(2 * pollTimeoutMs, MAX_POLL_TIMEOUT_MS);
+                }
+                totalReadBytes.add(followedFile.finish());
+            } catch (IOException | RuntimeException e) {
+                config.err.printf("Cannot read %s: %s%n", path, e);
+                if (config.verbose) {
+                    e.printStackTrace(config.err);
+                }
+                // stops the other files too
+                failure.compareAndSet(null, e);
+                close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Newline search in byte buffers, 8 bytes at a time.
+ * <p>
+ * Buffers must be in little endian order, so the lowest byte of a word
+ * is the first byte in the buffer.
+ */
+final class Newlines {
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private Newlines() {
+    }
+
+    /**
+     * @return the index of the first newline in {@code [from, to)}, or -1
+     */
+    static int indexOf(ByteBuffer buffer, int from, int to) {
+        assert buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        var i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            var found = newlineBytes(buffer.getLong(i));
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the index of the last newline in {@code [from, to)}, or -1
+     */
+    static int lastIndexOf(ByteBuffer buffer, int from, int to) {
+        assert buffer.order() == ByteOrder.LITTLE_ENDIAN;
+        var i = to;
+        for (; i - Long.BYTES >= from; i -= Long.BYTES) {
+            var found = newlineBytes(buffer.getLong(i - Long.BYTES));
+            if (found != 0) {
+                return i - Long.BYTES + ((63 - Long.numberOfLeadingZeros(found)) >>> 3);
+            }
+        }
+        while (--i >= from) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a word with the high bit set in each newline byte, and only there
+     */
+    private static long newlineBytes(long word) {
+        var x = word ^ NEWLINES;
+        // exact for every byte, unlike (x - 0x01..) & ~x & 0x80.. which may
+        // also flag the byte above a match, that matters for the last match
+        var t = (x & LOW_BITS) + LOW_BITS;
+        return ~(t | x | LOW_BITS);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.drain;
+
+import io.github.bric3.drain.core.Drain;
+import io.github.bric3.tailer.file.Compression;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalStateException;
+
+class DrainPipelineTest {
+
+    @Test
+    void pipeline_builds_the_same_model_as_sequential_parsing(@TempDir Path tmpDir) throws IOException {
+        var random = new Random(42);
+        var log = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            switch (i % 3) {
+                case 0 -> log.append("sent ").append(random.nextInt(10_000)).append(" bytes to 10.0.0.").append(random.nextInt(256));
+                case 1 -> log.append("received ").append(random.nextInt(10_000)).append(" bytes in ").append(random.nextInt(500)).append(" ms");
+                default -> log.append("Connection closed by 10.0.").append(random.nextInt(256)).append(" [preauth] é");
+            }
+            log.append(i % 7 == 0 ? "\r\n" : "\n");
+        }
+        log.append("last line without line feed");
+        var path = Files.writeString(tmpDir.resolve("app.log"), log);
+
+        var sequential = Drain.drainBuilder().build();
+        Files.readAllLines(path).forEach(sequential::parseLogMessage);
+
+        var pipelined = Drain.drainBuilder().build();
+        var lines = new AtomicInteger();
+        try (var channel = FileChannel.open(path, READ)) {
+            try (var pipeline = new DrainPipeline(pipelined, UTF_8, UnaryOperator.identity(), r -> lines.incrementAndGet(), 3)) {
+                var position = pipeline.apply(channel.position(0), 0);
+                position += pipeline.finish(channel, position);
+                assertThat(position).isEqualTo(channel.size());
+            }
+        }
+
+        assertThat(lines).hasValue(50_001);
+        assertThat(templates(pipelined)).containsExactlyElementsOf(templates(sequential));
+    }
+
+    @Test
+    void pipeline_reads_a_stream_until_its_end() throws Exception {
+        var pipe = Pipe.open();
+        var writer = new Thread(() -> {
+            try (var sink = pipe.sink()) {
+                for (var chunk : new String[]{"sent 550 bytes\nsent 11", "0 bytes\n", "Connection closed"}) {
+                    sink.write(ByteBuffer.wrap(chunk.getBytes(UTF_8)));
+                    Thread.sleep(50);
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        writer.start();
+
+        var drain = Drain.drainBuilder().build();
+        try (var source = pipe.source();
+             var pipeline = new DrainPipeline(drain, UTF_8, UnaryOperator.identity(), r -> {}, 2)) {
+            assertThat(pipeline.read(source)).isEqualTo(47);
+        }
+        writer.join();
+
+        assertThat(templates(drain)).containsExactly("2 sent <*> bytes", "1 Connection closed");
+    }
+
+    @Test
+    void parse_failure_is_thrown_to_the_reader_while_the_stream_goes_on() throws Exception {
+        var pipe = Pipe.open();
+        var writer = new Thread(() -> {
+            try (var sink = pipe.sink()) {
+                sink.write(ByteBuffer.wrap("sent 550 bytes\nboom\n".getBytes(UTF_8)));
+                for (int i = 0; i < 500; i++) {
+                    sink.write(ByteBuffer.wrap(("sent " + i + " bytes\n").getBytes(UTF_8)));
+                    Thread.sleep(10);
+                }
+            } catch (IOException | InterruptedException e) {
+                // the reader stopped
+            }
+        });
+        writer.start();
+
+        var drain = Drain.drainBuilder().build();
+        UnaryOperator<CharSequence> preProcess = line -> {
+            if ("boom".contentEquals(line)) {
+                throw new IllegalArgumentException("bad line");
+            }
+            return line;
+        };
+        var pipeline = new DrainPipeline(drain, UTF_8, preProcess, r -> {}, 2);
+        try (var source = pipe.source()) {
+            assertThatIllegalStateException().isThrownBy(() -> pipeline.read(source))
+                                             .withRootCauseInstanceOf(IllegalArgumentException.class);
+            assertThat(writer.isAlive()).isTrue();
+        }
+        assertThatIllegalStateException().isThrownBy(pipeline::close);
+        writer.join();
+    }
+
+    @Test
+    void pipeline_reads_a_multi_member_gzip_file(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("app.log.gz");
+        try (var out = Files.newOutputStream(path)) {
+            for (var member : new String[]{"sent 550 bytes\nsent 1", "10 bytes\nConnection closed\n"}) {
+                try (var gzip = new GZIPOutputStream(new FilterOutputStream(out) {
+                    @Override
+                    public void close() {
+                        // keeps the file open for the next member
+                    }
+                })) {
+                    gzip.write(member.getBytes(UTF_8));
+                }
+            }
+        }
+        assertThat(Compression.isGzip(path)).isTrue();
+        assertThat(Compression.isGzip(Files.writeString(tmpDir.resolve("app.log"), "sent 550 bytes\n"))).isFalse();
+
+        var drain = Drain.drainBuilder().build();
+        try (var input = Compression.gunzip(path);
+             var pipeline = new DrainPipeline(drain, UTF_8, UnaryOperator.identity(), r -> {}, 2)) {
+            assertThat(pipeline.read(input)).isEqualTo(48);
+        }
+
+        assertThat(templates(drain)).containsExactly("2 sent <*> bytes", "1 Connection closed");
+    }
+
+    private static List<String> templates(Drain drain) {
+        return drain.clusters()
+                    .stream()
+                    .map(c -> c.sightings() + " " + String.join(" ", c.tokens()))
+                    .collect(Collectors.toList());
+    }
+}
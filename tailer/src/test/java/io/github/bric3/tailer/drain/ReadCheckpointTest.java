@@ -0,0 +1,50 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.drain;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReadCheckpointTest {
+
+    @Test
+    void position_is_only_resumed_on_the_same_file(@TempDir Path tmpDir) throws IOException {
+        var path = Files.writeString(tmpDir.resolve("app.log"), "sent 550 bytes\nsent 110 bytes\n");
+        var fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        var checkpoint = ReadCheckpoint.decode(new ReadCheckpoint(fileKey, 15).encode());
+
+        assertThat(checkpoint).isNotNull();
+        assertThat(checkpoint.position()).isEqualTo(15);
+        assertThat(checkpoint.isPositionOf(path)).isTrue();
+
+        // truncated
+        Files.writeString(path, "sent 42", StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(checkpoint.isPositionOf(path)).isFalse();
+
+        // rotated
+        Files.move(path, tmpDir.resolve("app.log.1"));
+        Files.writeString(path, "received 1000 bytes\nreceived 250 bytes\n");
+        assertThat(checkpoint.isPositionOf(path)).isEqualTo(fileKey == null);
+    }
+
+    @Test
+    void missing_or_unreadable_metadata_is_no_checkpoint() {
+        assertThat(ReadCheckpoint.decode(null)).isNull();
+        assertThat(ReadCheckpoint.decode("not a position")).isNull();
+    }
+}
@@ -15,6 +15,7 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UncheckedIOException;
@@ -27,10 +28,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static java.nio.charset.StandardCharsets.UTF_16;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.nio.file.StandardOpenOption.READ;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
@@ -80,6 +85,102 @@ class MappedFileLineReaderTest {
         }
     }
 
+    @Test
+    void should_follow_file_across_rotations(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("app.log");
+        Files.writeString(path, "before rotation\n");
+
+        var lines = new CopyOnWriteArrayList<String>();
+        try (var r = new MappedFileLineReader(new Config(true), new MappedFileLineReader.LineConsumer(lines::add, UTF_8))) {
+            scheduler.schedule(() -> {
+                Files.move(path, tmpDir.resolve("app.log.1"));
+                // still written by the application until it reopens the log
+                Files.writeString(tmpDir.resolve("app.log.1"), "late line\n", StandardOpenOption.APPEND);
+                Files.writeString(path, "after rotation\n", StandardOpenOption.CREATE_NEW);
+                return null;
+            }, 500, MILLISECONDS);
+            scheduler.schedule(() -> {
+                // copytruncate
+                Files.write(path, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+                return null;
+            }, 2, SECONDS);
+            scheduler.schedule(() -> {
+                Files.writeString(path, "after truncation\n", StandardOpenOption.APPEND);
+                return null;
+            }, 2500, MILLISECONDS);
+            scheduler.schedule(r::close, 3500, MILLISECONDS);
+
+            r.tailRead(path, FromLine.fromStart(0), true);
+        }
+
+        assertThat(lines).containsExactly("before rotation", "late line", "after rotation", "after truncation");
+    }
+
+    @Test
+    void checkpointing_reader_reads_a_truncated_file_from_its_start(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("app.log");
+        Files.writeString(path, "first line\nsecond line\nincomplete");
+
+        var lines = new CopyOnWriteArrayList<String>();
+        var positions = new CopyOnWriteArrayList<Long>();
+        try (var r = new MappedFileLineReader(new Config(true),
+                                              new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8),
+                                              (fileKey, position) -> positions.add(position))) {
+            scheduler.schedule(() -> {
+                // copytruncate, after the incomplete line was held back
+                Files.write(path, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+                return null;
+            }, 500, MILLISECONDS);
+            scheduler.schedule(() -> {
+                Files.writeString(path, "after truncation\n", StandardOpenOption.APPEND);
+                return null;
+            }, 1, SECONDS);
+            scheduler.schedule(r::close, 2, SECONDS);
+
+            r.tailRead(path, 0, true);
+        }
+
+        assertThat(lines).containsExactly("first line", "second line", "after truncation");
+        assertThat(positions).startsWith(23L).endsWith(17L);
+    }
+
+    @Test
+    void checkpointing_reader_resumes_an_unfinished_line_once_complete(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("app.log");
+        Files.writeString(path, "first line\nsecond ha");
+
+        var lines = new ArrayList<String>();
+        var positions = new ArrayList<Long>();
+        var consumer = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8);
+        try (var r = new MappedFileLineReader(new Config(true), consumer, (fileKey, position) -> positions.add(position), true)) {
+            r.tailRead(path, 0, false);
+        }
+        assertThat(lines).containsExactly("first line");
+        assertThat(positions).containsOnly(11L);
+
+        // restart once the writer completed the line
+        Files.writeString(path, "lf\n", StandardOpenOption.APPEND);
+        var resumedConsumer = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8);
+        try (var r = new MappedFileLineReader(new Config(true), resumedConsumer, (fileKey, position) -> positions.add(position), true)) {
+            r.tailRead(path, positions.get(positions.size() - 1), false);
+        }
+        assertThat(lines).containsExactly("first line", "second half");
+        assertThat(positions).endsWith(23L);
+    }
+
+    @Test
+    void reading_from_line_n_starts_with_this_line(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("app.log");
+        Files.writeString(path, "first line\r\nsecond line\r\nthird line\r\n");
+
+        var lines = new ArrayList<String>();
+        var consumer = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8);
+        try (var r = new MappedFileLineReader(new Config(true), consumer)) {
+            r.tailRead(path, FromLine.fromStart(2), false);
+        }
+        assertThat(lines).containsExactly("second line", "third line");
+    }
+
     @AfterEach
     void tearDown() {
         scheduler.shutdown();
@@ -94,11 +195,41 @@ class MappedFileLineReaderTest {
             assertThat(r.findTailStartPosition(channel, FromLine.fromEnd(2))).isEqualTo(42);
             assertThat(r.findTailStartPosition(channel, FromLine.fromEnd(0))).isEqualTo(183);
             assertThat(r.findTailStartPosition(channel, FromLine.fromStart(0))).isEqualTo(0);
-            assertThat(r.findTailStartPosition(channel, FromLine.fromStart(2))).isEqualTo(181);
+            assertThat(r.findTailStartPosition(channel, FromLine.fromStart(1))).isEqualTo(0);
+            assertThat(r.findTailStartPosition(channel, FromLine.fromStart(2))).isEqualTo(42);
+            assertThat(r.findTailStartPosition(channel, FromLine.fromStart(3))).isEqualTo(78);
+            assertThat(r.findTailStartPosition(channel, FromLine.fromStart(4))).isEqualTo(183);
             assertThat(r.findTailStartPosition(channel, FromLine.fromStart(10))).isEqualTo(183);
         }
     }
 
+    @Test
+    void find_start_position_scanning_small_windows() throws IOException {
+        try (var channel = FileChannel.open(resourceDirectory.resolve("3-lines.txt"), READ)) {
+            for (var windowSize : new int[]{1, 7, 64}) {
+                assertThat(MappedFileLineReader.findTailStartPosition(channel, FromLine.fromEnd(10), windowSize)).isEqualTo(0);
+                assertThat(MappedFileLineReader.findTailStartPosition(channel, FromLine.fromEnd(2), windowSize)).isEqualTo(42);
+                assertThat(MappedFileLineReader.findTailStartPosition(channel, FromLine.fromStart(2), windowSize)).isEqualTo(42);
+                assertThat(MappedFileLineReader.findTailStartPosition(channel, FromLine.fromStart(3), windowSize)).isEqualTo(78);
+                assertThat(MappedFileLineReader.findTailStartPosition(channel, FromLine.fromStart(10), windowSize)).isEqualTo(183);
+            }
+        }
+    }
+
+    @Test
+    void find_start_position_given_last_crlf_lines(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("crlf.log");
+        Files.writeString(path, "first\r\nsecond\r\nthird\r\n", UTF_8);
+
+        try (var channel = FileChannel.open(path, READ)) {
+            var r = new MappedFileLineReader(new Config(true), MappedFileLineReader.IOReadAction.NO_OP);
+
+            assertThat(r.findTailStartPosition(channel, FromLine.fromEnd(1))).isEqualTo(15);
+            assertThat(r.findTailStartPosition(channel, FromLine.fromEnd(2))).isEqualTo(7);
+            assertThat(r.findTailStartPosition(channel, FromLine.fromEnd(3))).isEqualTo(0);
+        }
+    }
+
     @Test
     void can_read_from_position() throws IOException {
         try (var channel = FileChannel.open(resourceDirectory.resolve("3-lines.txt"), READ)) {
@@ -118,6 +249,143 @@ class MappedFileLineReaderTest {
         }
     }
 
+    @Test
+    void mapped_line_consumer_reads_lines() throws IOException {
+        try (var channel = FileChannel.open(resourceDirectory.resolve("3-lines.txt"), READ)) {
+            var lines = new ArrayList<String>();
+            var expectedLines = Files.readAllLines(resourceDirectory.resolve("3-lines.txt"), UTF_8);
+
+            var readBytes = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8).apply(channel, 0);
+
+            assertThat(readBytes).isEqualTo(183);
+            assertThat(lines).isEqualTo(expectedLines);
+        }
+    }
+
+    @Test
+    void mapped_line_consumer_handles_crlf_non_ascii_and_last_line(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("mixed.log");
+        var content = "first line\r\n\nhé ça marche\nno line ending";
+        Files.writeString(path, content, UTF_8);
+
+        assertThat(readWithMappedLineConsumer(path, 64)).containsExactly("first line", "", "hé ça marche", "no line ending");
+    }
+
+    @Test
+    void mapped_line_consumer_reads_lines_across_windows(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("windows.log");
+        var expectedLines = new ArrayList<String>();
+        var sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            var line = "line " + i + " " + "x".repeat(i % 37) + (i % 11 == 0 ? " é" : "");
+            expectedLines.add(line);
+            sb.append(line).append('\n');
+        }
+        Files.writeString(path, sb, UTF_8);
+
+        // lines are longer than the smallest windows
+        assertThat(readWithMappedLineConsumer(path, 16)).isEqualTo(expectedLines);
+        assertThat(readWithMappedLineConsumer(path, 1000)).isEqualTo(expectedLines);
+    }
+
+    @Test
+    void mapped_line_consumer_requires_ascii_compatible_charset() {
+        assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(
+                () -> new MappedFileLineReader.MappedLineConsumer(l -> {}, UTF_16)
+        );
+    }
+
+    @Test
+    void split_on_lines_gives_ranges_of_whole_lines(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("split.log");
+        var expectedLines = new ArrayList<String>();
+        var sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            var line = "line " + i + " " + "x".repeat(i % 53);
+            expectedLines.add(line);
+            sb.append(line).append('\n');
+        }
+        Files.writeString(path, sb, UTF_8);
+
+        try (var channel = FileChannel.open(path, READ)) {
+            var boundaries = MappedFileLineReader.splitOnLines(channel, 0, channel.size(), 7);
+            assertThat(boundaries).hasSize(8).isSorted();
+
+            var lines = new ArrayList<String>();
+            var lineConsumer = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8);
+            for (int i = 0; i < 7; i++) {
+                lineConsumer.read(channel, boundaries[i], boundaries[i + 1]);
+            }
+            assertThat(lines).isEqualTo(expectedLines);
+        }
+    }
+
+    @Test
+    void line_assembler_carries_incomplete_lines_over(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("partial.log");
+        var lines = new ArrayList<String>();
+        // a small buffer to also split the characters
+        var lineAssembler = new MappedFileLineReader.LineAssembler(l -> lines.add(l.toString()), UTF_8, 16);
+
+        try (var channel = FileChannel.open(path, READ, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = 0;
+            for (var part : new String[]{"first li", "ne\r\nsecond liné", " with ç\nthird", " line\nlast"}) {
+                channel.write(UTF_8.encode(part), channel.size());
+                position += lineAssembler.apply(channel, position);
+            }
+            assertThat(lines).containsExactly("first line", "second liné with ç", "third line");
+            assertThat(position).isEqualTo(channel.size());
+
+            position += lineAssembler.finish(channel, position);
+            assertThat(lines).containsExactly("first line", "second liné with ç", "third line", "last");
+        }
+    }
+
+    @Test
+    void line_assembler_reads_a_stream_like_a_mapped_file(@TempDir Path tmpDir) throws IOException {
+        var content = "lone\rcarriage return\ncrlf liné\r\n" + "x".repeat(40) + "\nlast";
+        var path = Files.writeString(tmpDir.resolve("stream.log"), content, UTF_8);
+        var lines = new ArrayList<String>();
+        var lineAssembler = new MappedFileLineReader.LineAssembler(l -> lines.add(l.toString()), UTF_8, 16);
+
+        try (var input = Channels.newChannel(new ByteArrayInputStream(content.getBytes(UTF_8)))) {
+            assertThat(lineAssembler.read(input)).isEqualTo(Files.size(path));
+        }
+
+        assertThat(lines).containsExactly("lone\rcarriage return", "crlf liné", "x".repeat(40), "last")
+                         .containsExactlyElementsOf(readWithMappedLineConsumer(path, 4096));
+    }
+
+    @Test
+    void mapped_line_consumer_leaves_incomplete_line_for_next_read(@TempDir Path tmpDir) throws IOException {
+        var path = tmpDir.resolve("partial.log");
+        Files.writeString(path, "first line\nsecond", UTF_8);
+        var lines = new ArrayList<String>();
+        var lineConsumer = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8);
+
+        try (var channel = FileChannel.open(path, READ, StandardOpenOption.WRITE)) {
+            var position = lineConsumer.apply(channel, 0);
+            assertThat(position).isEqualTo(11);
+            assertThat(lines).containsExactly("first line");
+
+            channel.write(UTF_8.encode(" line\n"), channel.size());
+            position += lineConsumer.apply(channel, position);
+            assertThat(position).isEqualTo(channel.size());
+            assertThat(lines).containsExactly("first line", "second line");
+        }
+    }
+
+    private static List<String> readWithMappedLineConsumer(Path path, int windowSize) throws IOException {
+        try (var channel = FileChannel.open(path, READ)) {
+            var lines = new ArrayList<String>();
+            var lineConsumer = new MappedFileLineReader.MappedLineConsumer(l -> lines.add(l.toString()), UTF_8, windowSize);
+            var readBytes = lineConsumer.apply(channel, 0);
+            readBytes += lineConsumer.finish(channel, readBytes);
+            assertThat(readBytes).isEqualTo(Files.size(path));
+            return lines;
+        }
+    }
+
     static class LineAppender implements Runnable {
         Path path;
         int lineCounter = 0;
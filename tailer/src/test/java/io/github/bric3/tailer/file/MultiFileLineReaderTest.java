@@ -0,0 +1,76 @@
+/*
+ * drain-java
+ *
+ * Copyright (c) 2021, Today - Brice Dutheil
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/.
+ */
+package io.github.bric3.tailer.file;
+
+import io.github.bric3.tailer.config.Config;
+import io.github.bric3.tailer.config.FromLine;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MultiFileLineReaderTest {
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void should_read_then_follow_several_files(@TempDir Path tmpDir) throws IOException {
+        var a = Files.writeString(tmpDir.resolve("a.log"), "a1\na2\n");
+        var b = Files.writeString(tmpDir.resolve("b.log"), "b1\n");
+
+        var lines = new CopyOnWriteArrayList<String>();
+        try (var r = new MultiFileLineReader(new Config(true),
+                                             path -> new MappedFileLineReader.LineConsumer(lines::add, UTF_8))) {
+            scheduler.schedule(() -> {
+                Files.writeString(b, "b2\n", StandardOpenOption.APPEND);
+                return null;
+            }, 300, MILLISECONDS);
+            scheduler.schedule(() -> {
+                Files.writeString(a, "a3\n", StandardOpenOption.APPEND);
+                return null;
+            }, 600, MILLISECONDS);
+            scheduler.schedule(r::close, 1500, MILLISECONDS);
+
+            r.tailRead(Globs.expand(tmpDir + "/*.log"), FromLine.fromStart(0), true);
+        }
+
+        assertThat(lines).containsExactlyInAnyOrder("a1", "a2", "a3", "b1", "b2");
+        assertThat(lines).containsSubsequence("a1", "a2", "b2", "a3");
+    }
+
+    @Test
+    void expand_globs(@TempDir Path tmpDir) throws IOException {
+        Files.createDirectories(tmpDir.resolve("app/old"));
+        var log = Files.createFile(tmpDir.resolve("app/app.log"));
+        var oldLog = Files.createFile(tmpDir.resolve("app/old/app.log"));
+        Files.createFile(tmpDir.resolve("app/app.txt"));
+
+        assertThat(Globs.expand(tmpDir + "/app/*.log")).containsExactly(log);
+        assertThat(Globs.expand(tmpDir + "/app/**.log")).containsExactly(log, oldLog);
+        assertThat(Globs.expand(tmpDir + "/app/*/app.log")).containsExactly(oldLog);
+        assertThat(Globs.expand(tmpDir + "/none/*.log")).isEmpty();
+        assertThat(Globs.expand(tmpDir + "/app/app.log")).containsExactly(log);
+    }
+}